@@ -1049,6 +1049,10 @@ public class TypeChecker {
     // like the callexpr
     private Type analyzeMethodCall(MethodCallExpr methodCallExpr) {
         Type receiverType = analyzeExpr(methodCallExpr.method.object);
+        if (receiverType instanceof ListValueType listType
+            && methodCallExpr.method.member.name.equals("append")) {
+            return analyzeListAppend(methodCallExpr, listType);
+        }
         if (classSymTables.get(receiverType.toString()) == null) {
             err(methodCallExpr.method.member, "There is no method named `%s` in class `%s`",methodCallExpr.method.member.name, receiverType);
             return ValueType.OBJECT_TYPE;
@@ -1091,6 +1095,30 @@ public class TypeChecker {
         methodCallExpr.method.setInferredType(new FuncType(params,methodType.returnType));
         return methodType.returnType;
     }
+
+    // lists have a single method, append(self: [T], x: T) -> <None>
+    private Type analyzeListAppend(MethodCallExpr methodCallExpr, ListValueType listType) {
+        int actualArgCount = methodCallExpr.args.size();
+        if (actualArgCount != 1) {
+            for (Expr argExpr : methodCallExpr.args) {
+                analyzeExpr(argExpr);
+            }
+            err(methodCallExpr, "Expected %d arguments; got %d", 1, actualArgCount);
+        } else {
+            Type argType = analyzeExpr(methodCallExpr.args.get(0));
+            if (!Typecompatible(listType.elementType, argType)) {
+                err(methodCallExpr, "Expected type `%s`; got type `%s` in parameter %d",
+                    listType.elementType, argType, 1);
+            }
+        }
+
+        List<ValueType> params = new ArrayList<>();
+        params.add(listType);
+        params.add(listType.elementType);
+        methodCallExpr.setInferredType(NONE_TYPE);
+        methodCallExpr.method.setInferredType(new FuncType(params, NONE_TYPE));
+        return NONE_TYPE;
+    }
     
     
     
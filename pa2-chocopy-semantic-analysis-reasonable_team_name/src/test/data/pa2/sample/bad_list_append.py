@@ -0,0 +1,16 @@
+xs:[int] = None
+ys:[object] = None
+zs:[[int]] = None
+
+xs = [1, 2]
+ys = []
+zs = []
+
+xs.append()
+xs.append(1, 2)
+xs.append(True)
+xs.append(None)
+zs.append(xs)
+zs.append(None)
+zs.append([True])
+ys.append(xs)
@@ -0,0 +1,27 @@
+#!/bin/sh
+# Runs the sample tests with the default code generator flags, then runs
+# again each sample X.py that has a file X.py.flags next to it, with the
+# flags in that file.  Extra arguments are passed to chocopy.ChocoPy.
+#
+# Venus does not execute RV32C, so samples whose flags include --rvc are
+# only compiled.
+
+CP="chocopy-ref.jar:target/assignment.jar"
+DIR=src/test/data/pa3/sample
+
+java -cp "$CP" chocopy.ChocoPy --pass=..s --run --dir "$DIR/" --test "$@"
+
+for flagfile in "$DIR"/*.py.flags; do
+    [ -e "$flagfile" ] || continue
+    test="${flagfile%.flags}.ast.typed"
+    flags=$(cat "$flagfile")
+    echo "Running $test with $flags"
+    case " $flags " in
+    *" --rvc "*)
+        java -Dchocopy.pa3.flags="$flags" -cp "$CP" chocopy.ChocoPy \
+             --pass=..s "$test" --out /dev/null "$@" ;;
+    *)
+        java -Dchocopy.pa3.flags="$flags" -cp "$CP" chocopy.ChocoPy \
+             --pass=..s --run --test "$test" "$@" ;;
+    esac
+done
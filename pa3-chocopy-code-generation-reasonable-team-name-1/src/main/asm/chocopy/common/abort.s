@@ -1,5 +1,7 @@
 # Runtime support function abort (does not return).
-  mv t0, a0                                # Save exit code in temp
+  mv t2, a0                                # Save exit code in temp
+  jal ra, out.flush                        # Write out buffered output first
+  mv t0, t2                                # Exit code
   li a0, @print_string                     # Code for print_string ecall
   ecall                                    # Print error message in a1
   li a1, 10                                # Load newline character
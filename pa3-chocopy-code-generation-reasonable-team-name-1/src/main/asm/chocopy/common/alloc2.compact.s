@@ -0,0 +1,56 @@
+# Runtime support function alloc2 (realloc), for compact headers.
+        # Prototype address is in a0.
+        # Number of words to allocate is in a1.
+  li a2, 4                                 # Word size in bytes
+  mul a2, a1, a2                           # Calculate number of bytes to allocate
+  add a2, gp, a2                           # Estimate where GP will move
+  bgeu a2, s11, alloc2_15                  # Collect garbage if too large
+alloc2_18:                                 # Space is available
+  lw t5, 0(a0)                             # Get header of object
+  srli t5, t5, 8                           # Get size of object in words
+  addi sp, sp, -12                         # Save arguments and RA
+  sw ra, 8(sp)
+  sw a1, 4(sp)
+  sw a2, 0(sp)
+  slli a2, t5, 2                           # Bytes to copy
+  mv a1, a0                                # Copy from prototype
+  mv a0, gp                                # to the new object
+  jal ra, memcpy
+  lw a2, 0(sp)                             # Restore arguments and RA
+  lw a1, 4(sp)
+  lw ra, 8(sp)
+  addi sp, sp, 12
+  mv a0, gp                                # Save new object's address to return
+  lbu t0, 0(a0)                            # Get type tag
+  slli t1, a1, 8                           # Set size of new object in words
+  or t0, t0, t1                            # (same as requested size)
+  sw t0, 0(a0)
+  mv gp, a2                                # Set next free slot in the heap
+  jr ra                                    # Return to caller
+alloc2_15:                                 # Heap exhausted
+  addi sp, sp, -12                         # Save arguments and RA
+  sw ra, 8(sp)
+  sw a0, 4(sp)
+  sw a1, 0(sp)
+  mv a0, ra                                # Innermost call site, for stack maps
+  jal ra, gc.collect                       # Collect garbage
+  lw a1, 0(sp)                             # Restore number of words
+  slli a2, a1, 2                           # Calculate number of bytes to allocate
+  add a2, gp, a2                           # Estimate where GP will move
+  bltu a2, s11, alloc2_17                  # Done if there is room now
+  lw a0, 8(sp)                             # Innermost call site, for stack maps
+  jal ra, heap.grow                        # Grow the heap
+alloc2_17:
+  lw a1, 0(sp)                             # Restore arguments and RA
+  lw a0, 4(sp)
+  lw ra, 8(sp)
+  addi sp, sp, 12
+  li a2, 4                                 # Word size in bytes
+  mul a2, a1, a2                           # Calculate number of bytes to allocate
+  add a2, gp, a2                           # Estimate where GP will move
+  bltu a2, s11, alloc2_18                  # Retry if there is room now
+alloc2_19:                                 # OOM handler
+  li a0, @error_oom                        # Exit code for: Out of memory
+  la a1, STRING["Out of memory"]           # Load error message as str
+  addi a1, a1, @.__str__                   # Load address of attribute __str__
+  j abort                                  # Abort
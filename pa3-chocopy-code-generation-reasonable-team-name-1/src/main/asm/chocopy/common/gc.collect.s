@@ -0,0 +1,217 @@
+# Runtime support function gc.collect.
+        # Copying (Cheney) garbage collector.  The heap is split into two
+        # semispaces; objects are allocated in [s10, s11) and gc.tospace
+        # holds the start of the other one.  Copies every object reachable
+        # from the roots into the other semispace and makes it current.
+        # Return address of the innermost allocating call is in a0, and
+        # fp is the frame it was made from.
+        # Roots are the registers in the bit mask gc.regmask, the global
+        # variables listed in gc.globals and, for each frame on the
+        # stack, the slots that gc.maps lists for the call site it is
+        # suspended at.  Frames of call sites without a map (runtime
+        # routines) hold no roots.
+        # Preserves all registers but gp, s10 and s11, updating those
+        # that hold pointers.
+  addi sp, sp, -128                        # Save x1..x31, at 4 * number
+  sw ra, 4(sp)
+  sw tp, 16(sp)
+  sw t0, 20(sp)
+  sw t1, 24(sp)
+  sw t2, 28(sp)
+  sw fp, 32(sp)
+  sw s1, 36(sp)
+  sw a0, 40(sp)
+  sw a1, 44(sp)
+  sw a2, 48(sp)
+  sw a3, 52(sp)
+  sw a4, 56(sp)
+  sw a5, 60(sp)
+  sw a6, 64(sp)
+  sw a7, 68(sp)
+  sw s2, 72(sp)
+  sw s3, 76(sp)
+  sw s4, 80(sp)
+  sw s5, 84(sp)
+  sw s6, 88(sp)
+  sw s7, 92(sp)
+  sw s8, 96(sp)
+  sw s9, 100(sp)
+  sw t3, 112(sp)
+  sw t4, 116(sp)
+  sw t5, 120(sp)
+  sw t6, 124(sp)
+  mv s5, fp                                # Innermost frame
+  mv s6, a0                                # Innermost call site
+  mv s1, s10                               # Start of from-space
+  mv s2, gp                                # End of objects in from-space
+  la t0, gc.tospace                        # Start of to-space
+  lw s3, 0(t0)                             # Initialize free pointer
+  mv s4, s3                                # Initialize scan pointer
+
+  la t0, gc.regmask                        # Registers holding pointers
+  lw s7, 0(t0)
+  mv s8, sp                                # Save slot of x0
+gc_1:                                      # Register roots
+  beqz s7, gc_3                            # No more registers
+  andi t0, s7, 1
+  beqz t0, gc_2                            # Skip unless a pointer
+  lw a0, 0(s8)
+  jal ra, gc.forward
+  sw a0, 0(s8)
+gc_2:                                      # Next register
+  srli s7, s7, 1
+  addi s8, s8, 4
+  j gc_1
+
+gc_3:                                      # Global roots
+  la s7, gc.globals
+  lw s8, 0(s7)                             # Number of globals
+gc_4:
+  beqz s8, gc_5                            # No more globals
+  addi s7, s7, 4
+  lw s9, 0(s7)                             # Address of global
+  lw a0, 0(s9)
+  jal ra, gc.forward
+  sw a0, 0(s9)
+  addi s8, s8, -1
+  j gc_4
+
+gc_5:                                      # Stack roots in frame s5
+  la s7, gc.maps                           # Find the map for call site s6
+  lw s8, 0(s7)                             # Number of maps
+gc_6:
+  beqz s8, gc_8                            # No map: no roots in this frame
+  lw t0, 4(s7)                             # Call site of map
+  beq t0, s6, gc_7
+  addi s7, s7, 8
+  addi s8, s8, -1
+  j gc_6
+gc_7:                                      # Found the map
+  lw s7, 8(s7)                             # Slots holding pointers
+  lw s8, 0(s7)                             # Number of slots
+gc_9:
+  beqz s8, gc_8                            # No more slots
+  addi s7, s7, 4
+  lw s9, 0(s7)                             # Offset of slot from frame
+  add s9, s5, s9
+  lw a0, 0(s9)
+  jal ra, gc.forward
+  sw a0, 0(s9)
+  addi s8, s8, -1
+  j gc_9
+gc_8:                                      # Go to caller's frame
+  lw s6, -4(s5)                            # Caller's call site
+  lw s5, -8(s5)                            # Caller's frame
+  bnez s6, gc_5                            # Stop at top level
+
+gc_10:                                     # Scan copied objects
+  bgeu s4, s3, gc_15                       # Done when scan meets free
+  lw t0, 0(s4)                             # Get type tag
+  li t1, -1                                # Load type tag for list objects
+  beq t0, t1, gc_12
+  la t1, gc.layouts                        # Offsets of pointer attributes
+  slli t0, t0, 2
+  add t1, t1, t0
+  lw s7, 0(t1)
+  beqz s7, gc_14                           # None
+gc_11:
+  lw s9, 0(s7)                             # Next offset
+  beqz s9, gc_14                           # Zero ends the list
+  add s9, s4, s9
+  lw a0, 0(s9)
+  jal ra, gc.forward
+  sw a0, 0(s9)
+  addi s7, s7, 4
+  j gc_11
+gc_12:                                     # List
+  lw t0, 8(s4)                             # Element kind, 0 for pointers
+  bnez t0, gc_14
+  lw s8, @.__len__(s4)                     # Number of elements
+  addi s9, s4, @.__elts__
+gc_13:
+  beqz s8, gc_14                           # No more elements
+  lw a0, 0(s9)
+  jal ra, gc.forward
+  sw a0, 0(s9)
+  addi s9, s9, 4
+  addi s8, s8, -1
+  j gc_13
+gc_14:                                     # Next object
+  lw t0, @.__obj_size__(s4)
+  slli t0, t0, 2
+  add s4, s4, t0
+  j gc_10
+
+gc_15:                                     # Flip semispaces
+  sub t0, s11, s10                         # Semispace size
+  la t1, gc.tospace
+  lw t2, 0(t1)
+  sw s10, 0(t1)                            # Next to-space is from-space
+  mv s10, t2                               # Set beginning of heap
+  add s11, s10, t0                         # Set end of heap
+  mv gp, s3                                # Set next free slot in the heap
+  la t1, gc.collections                    # Count collection
+  lw t0, 0(t1)
+  addi t0, t0, 1
+  sw t0, 0(t1)
+  sub t0, s2, s1                           # Bytes in use before
+  sub t2, s3, s10                          # Bytes in use after
+  sub t0, t0, t2
+  la t1, gc.reclaimed                      # Count bytes reclaimed
+  lw t2, 0(t1)
+  add t2, t2, t0
+  sw t2, 0(t1)
+
+  lw ra, 4(sp)                             # Restore x1..x31
+  lw tp, 16(sp)
+  lw t0, 20(sp)
+  lw t1, 24(sp)
+  lw t2, 28(sp)
+  lw fp, 32(sp)
+  lw s1, 36(sp)
+  lw a0, 40(sp)
+  lw a1, 44(sp)
+  lw a2, 48(sp)
+  lw a3, 52(sp)
+  lw a4, 56(sp)
+  lw a5, 60(sp)
+  lw a6, 64(sp)
+  lw a7, 68(sp)
+  lw s2, 72(sp)
+  lw s3, 76(sp)
+  lw s4, 80(sp)
+  lw s5, 84(sp)
+  lw s6, 88(sp)
+  lw s7, 92(sp)
+  lw s8, 96(sp)
+  lw s9, 100(sp)
+  lw t3, 112(sp)
+  lw t4, 116(sp)
+  lw t5, 120(sp)
+  lw t6, 124(sp)
+  addi sp, sp, 128
+  jr ra                                    # Return to caller
+
+gc.forward:                                # Forward pointer in a0
+  bltu a0, s1, gc_18                       # Not in from-space
+  bgeu a0, s2, gc_18
+  lw t0, @.__obj_size__(a0)                # Get size of object in words
+  beqz t0, gc_17                           # Zero if already copied
+  mv t1, a0                                # Initialize src ptr
+  mv t2, s3                                # Initialize dest ptr
+gc_16:                                     # Copy-loop header
+  lw t3, 0(t1)                             # Load next word from src
+  sw t3, 0(t2)                             # Store next word to dest
+  addi t1, t1, 4                           # Increment src
+  addi t2, t2, 4                           # Increment dest
+  addi t0, t0, -1                          # Decrement counter
+  bnez t0, gc_16                           # Loop if more words left to copy
+  sw s3, 0(a0)                             # Leave forwarding address
+  sw zero, @.__obj_size__(a0)              # Mark as copied
+  mv a0, s3                                # Return new address
+  mv s3, t2                                # Bump free pointer
+  jr ra
+gc_17:                                     # Already copied
+  lw a0, 0(a0)                             # Load forwarding address
+gc_18:
+  jr ra
@@ -0,0 +1,23 @@
+# Runtime support function heap.grow, without a garbage collector.
+        # Grows the heap so that a1 more words fit.  Requests a region
+        # heap.growth times as large as the last one (or larger, until
+        # the request fits) from sbrk.  Extends the heap if the region
+        # follows it, and otherwise allocates from the region from now
+        # on, abandoning the rest of the old heap.
+  slli t0, a1, 2                           # Bytes requested
+  la t1, heap.size
+  lw a1, 0(t1)                             # Size of last region
+  la t2, heap.growth
+  lw t2, 0(t2)                             # Growth factor
+heap.grow_1:                               # Grow until the request fits
+  mul a1, a1, t2
+  bltu a1, t0, heap.grow_1
+  sw a1, 0(t1)                             # Remember size of region
+  li a0, @sbrk                             # Code for ecall: sbrk
+  ecall                                    # Request A1 bytes
+  beq a0, s11, heap.grow_2                 # Region follows the heap?
+  mv gp, a0                                # No: allocate from the region
+  mv s11, a0
+heap.grow_2:
+  add s11, s11, a1                         # Set end of heap
+  jr ra                                    # Return to caller
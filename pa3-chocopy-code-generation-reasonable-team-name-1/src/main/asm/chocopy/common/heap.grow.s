@@ -0,0 +1,39 @@
+# Runtime support function heap.grow.
+        # Grows the heap so that a1 more words fit in the current
+        # semispace.  Requests a region heap.growth times as large as
+        # the last one (or larger, until a half holds the live objects
+        # and the request) from sbrk, makes its two halves the new
+        # semispaces and collects garbage into the first.  The old
+        # semispaces are abandoned.
+        # Innermost call site is in a0, as for gc.collect.
+  addi sp, sp, -12                         # Save RA, S1 and call site
+  sw ra, 8(sp)
+  sw s1, 4(sp)
+  sw a0, 0(sp)
+  slli t0, a1, 2                           # Bytes requested
+  sub t1, gp, s10                          # Bytes in use
+  add t0, t0, t1                           # Bytes needed in a semispace
+  la t1, heap.size
+  lw s1, 0(t1)                             # Size of last region
+  la t2, heap.growth
+  lw t2, 0(t2)                             # Growth factor
+heap.grow_1:                               # Grow until a half is enough
+  mul s1, s1, t2
+  srli t3, s1, 1
+  bltu t3, t0, heap.grow_1
+  sw s1, 0(t1)                             # Remember size of region
+  mv a1, s1                                # Request region
+  li a0, @sbrk                             # Code for ecall: sbrk
+  ecall
+  srli s1, s1, 1                           # Size of new semispaces
+  la t0, gc.tospace                        # Collect into the first half
+  sw a0, 0(t0)
+  lw a0, 0(sp)                             # Innermost call site
+  jal ra, gc.collect                       # Copy live objects over
+  add s11, s10, s1                         # Set end of heap
+  la t0, gc.tospace                        # Second half is the other
+  sw s11, 0(t0)                            # semispace
+  lw s1, 4(sp)                             # Restore S1 and RA
+  lw ra, 8(sp)
+  addi sp, sp, 12
+  jr ra                                    # Return to caller
@@ -4,6 +4,7 @@
   sw fp, 8(sp)	
   sw s1, 4(sp)
   addi fp, sp, 16                          # Set fp
+  jal ra, out.flush                        # Show output before reading
 
   li a0, @fill_line_buffer                 # Fill the internal line buffer.
   ecall
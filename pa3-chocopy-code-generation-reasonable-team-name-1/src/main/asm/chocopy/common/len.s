@@ -10,6 +10,8 @@
   beq t0, t1, len_13                       # Go to len(str)
   li t1, -1                                # Load type tag for list objects
   beq t0, t1, len_13                       # Go to len(list)
+  li t1, @growable_list_tag                # Load type tag of growable lists
+  beq t0, t1, len_13                       # Go to len(list), if growable
 len_12:                                    # Invalid argument
   li a0, @error_arg                        # Exit code for: Invalid argument
   la a1, STRING["Invalid argument"]        # Load error message as str
@@ -0,0 +1,57 @@
+# Runtime support function memcpy.
+        # Copies a2 bytes from a1 to a0; the two do not overlap.
+        # Returns the end of the destination in t0 and the end of the
+        # source in t1, which print relies on.
+        # Preserves all registers but t0-t4.
+        # Copies 16 bytes at a time, then words, when source and
+        # destination are equally aligned, and bytes otherwise.
+  mv t0, a0                                # Destination
+  mv t1, a1                                # Source
+  mv t2, a2                                # Bytes left
+  xor t3, t0, t1
+  andi t3, t3, 3
+  bnez t3, memcpy_4                        # Copy bytes unless co-aligned
+memcpy_1:                                  # Copy bytes up to a word boundary
+  andi t3, t0, 3
+  beqz t3, memcpy_2
+  beqz t2, memcpy_5
+  lbu t3, 0(t1)
+  sb t3, 0(t0)
+  addi t0, t0, 1
+  addi t1, t1, 1
+  addi t2, t2, -1
+  j memcpy_1
+memcpy_2:                                  # Copy 16 bytes at a time
+  addi t4, t2, -16
+  bltz t4, memcpy_3
+  lw t3, 0(t1)
+  sw t3, 0(t0)
+  lw t3, 4(t1)
+  sw t3, 4(t0)
+  lw t3, 8(t1)
+  sw t3, 8(t0)
+  lw t3, 12(t1)
+  sw t3, 12(t0)
+  addi t0, t0, 16
+  addi t1, t1, 16
+  mv t2, t4
+  j memcpy_2
+memcpy_3:                                  # Copy words
+  addi t4, t2, -4
+  bltz t4, memcpy_4
+  lw t3, 0(t1)
+  sw t3, 0(t0)
+  addi t0, t0, 4
+  addi t1, t1, 4
+  mv t2, t4
+  j memcpy_3
+memcpy_4:                                  # Copy bytes
+  beqz t2, memcpy_5
+  lbu t3, 0(t1)
+  sb t3, 0(t0)
+  addi t0, t0, 1
+  addi t1, t1, 1
+  addi t2, t2, -1
+  j memcpy_4
+memcpy_5:
+  jr ra                                    # Return to caller
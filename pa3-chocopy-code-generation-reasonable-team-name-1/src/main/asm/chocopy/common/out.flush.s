@@ -0,0 +1,16 @@
+# Runtime support function out.flush.
+        # Writes out the characters buffered in out.buffer by print.
+        # Preserves all registers but a0, t0 and t1.
+  la t0, out.pos
+  lw t1, 0(t0)                             # Next free byte
+  la a0, out.buffer
+  beq t1, a0, out.flush_1                  # Nothing to write
+  sw a0, 0(t0)                             # Empty the buffer
+  sb zero, 0(t1)                           # Terminate the characters
+  mv t1, a1                                # Save A1
+  mv a1, a0                                # Characters to write
+  li a0, @print_string                     # Code for ecall: print_string
+  ecall                                    # Write them all at once
+  mv a1, t1                                # Restore A1
+out.flush_1:
+  jr ra                                    # Return to caller
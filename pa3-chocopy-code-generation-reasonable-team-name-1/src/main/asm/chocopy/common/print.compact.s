@@ -0,0 +1,106 @@
+# Function print, for compact headers.  print.int, print.bool and
+# print.str print the unboxed int or bool, or the str, in A0 instead.
+# Output goes to out.buffer, written out by out.flush when full.
+  lw a0, 0(sp)                           # Load arg
+  beq a0, zero, print_6                  # None is an illegal argument
+  lb t0, 0(a0)                           # Get type tag of arg
+  li t1, 1                               # Load type tag of `int`
+  beq t0, t1, print_7                    # Go to print(int)
+  li t1, 3                               # Load type tag of `str`
+  beq t0, t1, print_8                    # Go to print(str)
+  li t1, 2                               # Load type tag of `bool`
+  beq t0, t1, print_9                    # Go to print(bool)
+print_6:                                 # Invalid argument
+  li a0, 1                               # Exit code for: Invalid argument
+  la a1, STRING["Invalid argument"]      # Load error message as str
+  addi a1, a1, @.__str__                 # Load address of attribute __str__
+  j abort                                # Abort
+
+# Printing bools
+print_9:                                 # Print bool object in A0
+  lw a0, @.__bool__(a0)                  # Load attribute __bool__
+print.bool:                              # Print bool in A0
+  beq a0, zero, print_10                 # Go to: print(False)
+  la a0, STRING["True"]                  # String representation: True
+  j print.str                            # Go to: print(str)
+print_10:                                # Print False object in A0
+  la a0, STRING["False"]                 # String representation: False
+  j print.str                            # Go to: print(str)
+
+# Printing strs.
+print_8:                                 # Print str object in A0
+print.str:                               # Print str in A0
+  lw a2, @.__len__(a0)                   # Number of characters
+  addi a1, a0, @.__str__                 # Address of characters
+  j print_11                             # Print them and a newline
+
+# Printing ints.
+print_7:                                 # Print int object in A0
+  lw a0, @.__int__(a0)                   # Load attribute __int__
+print.int:                               # Print int in A0
+  addi sp, sp, -16                       # Room for RA and 11 characters
+  sw ra, 12(sp)
+  addi a1, sp, 12                        # Digits go right to left
+  mv t0, a0
+  bltz t0, print_12                      # Work with the negated value, which
+  sub t0, zero, t0                       # cannot overflow
+print_12:
+  li t2, 10
+print_13:                                # Next digit
+  div t3, t0, t2
+  mul t4, t3, t2
+  sub t4, t4, t0                         # Digit, from the negative remainder
+  addi t4, t4, 48                        # ASCII code of digit
+  addi a1, a1, -1
+  sb t4, 0(a1)
+  mv t0, t3
+  bnez t0, print_13
+  bgez a0, print_14
+  li t4, 45                              # Minus sign
+  addi a1, a1, -1
+  sb t4, 0(a1)
+print_14:
+  addi a2, sp, 12
+  sub a2, a2, a1                         # Number of characters
+  jal ra, print_11                       # Print them and a newline
+  lw ra, 12(sp)
+  addi sp, sp, 16
+  jr ra                                  # Return None
+
+# Buffering output.
+print_11:                                # Print the A2 characters at A1 and a newline
+  addi sp, sp, -12                       # Save RA, source and count
+  sw ra, 8(sp)
+print_15:                                # Copy as much as fits
+  la t0, out.pos
+  lw a0, 0(t0)                           # Next free byte of the buffer
+  la t1, out.end
+  sub t1, t1, a0                         # Room left
+  bgeu t1, a2, print_16                  # Go on if the rest fits
+  sub t2, a2, t1
+  sw t2, 0(sp)                           # Characters left after filling the buffer
+  mv a2, t1
+  jal ra, memcpy                         # Fill the buffer
+  sw t1, 4(sp)                           # Where the characters left start (memcpy's t1)
+  la t1, out.pos
+  sw t0, 0(t1)
+  jal ra, out.flush                      # Write out the full buffer
+  lw a1, 4(sp)
+  lw a2, 0(sp)
+  j print_15
+print_16:                                # Copy the rest and a newline
+  jal ra, memcpy
+  li t1, 10                              # Newline, in the spare byte past out.end
+  sb t1, 0(t0)
+  addi t0, t0, 1
+  la t1, out.pos
+  sw t0, 0(t1)
+  la t1, out.end
+  bgeu t1, t0, print_17                  # Write out the buffer if past out.end
+  jal ra, out.flush
+print_17:
+  lw ra, 8(sp)
+  addi sp, sp, 12
+print_5:                                 # End of function
+  mv a0, zero                            # Load None
+  jr ra                                  # Return to caller
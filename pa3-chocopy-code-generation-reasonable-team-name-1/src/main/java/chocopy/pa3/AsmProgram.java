@@ -0,0 +1,354 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Machine-level IR: the emitted assembly program as a list of lines.
+ *
+ * CodeGenImpl writes text directly, so machine-level passes parse that
+ * text back into labels, instructions and directives, rewrite the list,
+ * and print it again.  Lines a pass does not touch print the same as
+ * they were emitted, apart from whitespace.
+ */
+public class AsmProgram {
+
+    /** A line of assembly. */
+    public sealed interface Line permits Label, Insn, Directive, Other {}
+
+    /** A label definition NAME, with an optional COMMENT. */
+    public record Label(String name, String comment) implements Line {
+        @Override
+        public String toString() {
+            if (comment == null) {
+                return name + ":";
+            }
+            return String.format("%-42s # %s", name + ":", comment);
+        }
+    }
+
+    /** An instruction OP with operands ARGS and an optional COMMENT.
+     *  Memory operands such as 4(sp) are a single operand. */
+    public record Insn(String op, List<String> args, String comment)
+        implements Line {
+
+        public Insn {
+            args = List.copyOf(args);
+        }
+
+        /** Returns the instruction OP ARGS with comment COMMENT. */
+        public static Insn of(String op, String comment, String... args) {
+            return new Insn(op, List.of(args), comment);
+        }
+
+        /** Returns operand I. */
+        public String arg(int i) {
+            return args.get(i);
+        }
+
+        /** Returns the text of this instruction without its comment. */
+        public String text() {
+            return args.isEmpty() ? op : op + " " + String.join(", ", args);
+        }
+
+        @Override
+        public String toString() {
+            if (comment == null) {
+                return "  " + text();
+            }
+            return String.format("  %-40s # %s", text(), comment);
+        }
+    }
+
+    /** An assembler directive TEXT, such as `.word 3`, with an optional
+     *  COMMENT. */
+    public record Directive(String text, String comment) implements Line {
+
+        /** Returns the directive name, e.g. ".word". */
+        public String name() {
+            int space = text.indexOf(' ');
+            return space < 0 ? text : text.substring(0, space);
+        }
+
+        /** Returns the directive's operand text. */
+        public String operand() {
+            int space = text.indexOf(' ');
+            return space < 0 ? "" : text.substring(space + 1).strip();
+        }
+
+        @Override
+        public String toString() {
+            if (comment == null) {
+                return "  " + text;
+            }
+            return String.format("  %-40s # %s", text, comment);
+        }
+    }
+
+    /** A blank or comment-only line, kept verbatim as TEXT. */
+    public record Other(String text) implements Line {
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /** Pattern for a label definition with an optional comment. */
+    private static final Pattern LABEL_LINE =
+        Pattern.compile("\\s*([A-Za-z_$.@][\\w$.@]*):\\s*(?:#\\s?(.*))?");
+
+    /** Pattern for a symbol that may name a label. */
+    private static final Pattern SYMBOL =
+        Pattern.compile("[A-Za-z_$.@][\\w$.@]*");
+
+    /** Number of operands taken by each instruction the code generator
+     *  emits.  Instructions with a variable number of operands are
+     *  handled in checkArity. */
+    private static final Map<String, Integer> ARITY = new HashMap<>();
+
+    static {
+        for (String op : new String[] {
+                "add", "sub", "and", "or", "xor", "sll", "srl", "sra",
+                "slt", "sltu", "mul", "mulh", "mulhu", "div", "divu", "rem",
+                "remu", "addi", "andi", "ori", "xori", "slli", "srli",
+                "srai", "slti", "sltiu", "beq", "bne", "blt", "bge", "bltu",
+                "bgeu", "bgt", "ble", "bgtu", "bleu" }) {
+            ARITY.put(op, 3);
+        }
+        for (String op : new String[] {
+                "lw", "lh", "lhu", "lb", "lbu", "sw", "sh", "sb", "li", "la",
+                "lui", "auipc", "mv", "not", "neg", "seqz", "snez", "sltz",
+                "sgtz", "beqz", "bnez", "blez", "bgez", "bltz", "bgtz" }) {
+            ARITY.put(op, 2);
+        }
+        for (String op : new String[] { "j", "jr" }) {
+            ARITY.put(op, 1);
+        }
+        for (String op : new String[] { "ecall", "ret", "nop" }) {
+            ARITY.put(op, 0);
+        }
+
+        /* RV32C compressed forms, in two-address syntax where the
+         * destination is also a source (`c.addi rd, imm`). */
+        ARITY.put("c.addi4spn", 3);
+        for (String op : new String[] {
+                "c.lw", "c.sw", "c.lwsp", "c.swsp", "c.addi", "c.addi16sp",
+                "c.li", "c.lui", "c.mv", "c.add", "c.sub", "c.xor", "c.or",
+                "c.and", "c.andi", "c.slli", "c.srli", "c.srai", "c.beqz",
+                "c.bnez" }) {
+            ARITY.put(op, 2);
+        }
+        for (String op : new String[] { "c.j", "c.jal", "c.jr", "c.jalr" }) {
+            ARITY.put(op, 1);
+        }
+        ARITY.put("c.nop", 0);
+    }
+
+    /** The lines of the program, in order. */
+    public final List<Line> lines;
+
+    /** A program consisting of LINES. */
+    public AsmProgram(List<Line> lines) {
+        this.lines = lines;
+    }
+
+    /** Returns the program whose assembly text is TEXT. */
+    public static AsmProgram parse(String text) {
+        List<Line> lines = new ArrayList<>();
+        for (String raw : text.split("\n", -1)) {
+            lines.add(parseLine(raw.stripTrailing()));
+        }
+        if (!lines.isEmpty()
+            && lines.get(lines.size() - 1).equals(new Other(""))) {
+            lines.remove(lines.size() - 1);
+        }
+        return new AsmProgram(lines);
+    }
+
+    /** Returns the parsed form of the single line RAW. */
+    private static Line parseLine(String raw) {
+        String body = raw.strip();
+        if (body.isEmpty() || body.startsWith("#")) {
+            return new Other(raw);
+        }
+        Matcher label = LABEL_LINE.matcher(raw);
+        if (label.matches()) {
+            return new Label(label.group(1), label.group(2));
+        }
+        int hash = commentStart(body);
+        String comment = null;
+        if (hash >= 0) {
+            comment = body.substring(hash + 1).strip();
+            body = body.substring(0, hash).strip();
+        }
+        if (body.startsWith(".")) {
+            return new Directive(body, comment);
+        }
+        String[] words = body.split("[\\s,]+");
+        List<String> args = new ArrayList<>();
+        for (int i = 1; i < words.length; i += 1) {
+            args.add(words[i]);
+        }
+        return new Insn(words[0], args, comment);
+    }
+
+    /** Returns the index of the `#` starting the comment in LINE, ignoring
+     *  any inside string literals, or -1 if there is none. */
+    private static int commentStart(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted && c == '\\') {
+                i += 1;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of instructions in the program. */
+    public int instructionCount() {
+        int count = 0;
+        for (Line line : lines) {
+            if (line instanceof Insn) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check that the program is well formed: labels are defined once,
+     * instructions are known and have the right number of operands and
+     * appear only in text sections, and every label or @-symbol they use
+     * is defined.  Throws IllegalStateException describing the first
+     * problem found.
+     */
+    public void verify() {
+        Set<String> labels = new HashSet<>();
+        Set<String> symbols = new HashSet<>();
+        for (Line line : lines) {
+            if (line instanceof Label label) {
+                if (!labels.add(label.name())) {
+                    throw new IllegalStateException(
+                        "Label defined more than once: " + label.name());
+                }
+            } else if (line instanceof Directive dir
+                       && (dir.name().equals(".equiv")
+                           || dir.name().equals(".set"))) {
+                symbols.add(dir.operand().split("\\s*,\\s*")[0]);
+            }
+        }
+
+        boolean inText = true;
+        for (Line line : lines) {
+            switch (line) {
+            case Directive dir -> {
+                switch (dir.name()) {
+                case ".text" -> inText = true;
+                case ".data" -> inText = false;
+                case ".word" -> {
+                    if (SYMBOL.matcher(dir.operand()).matches()) {
+                        checkLabel(dir.operand(), labels, line);
+                    }
+                }
+                default -> { }
+                }
+            }
+            case Insn insn -> {
+                if (!inText) {
+                    throw new IllegalStateException(
+                        "Instruction outside text section: " + insn.text());
+                }
+                checkArity(insn);
+                for (String arg : insn.args()) {
+                    if (arg.contains("@")) {
+                        String sym = arg.substring(arg.indexOf('@'))
+                            .split("[^\\w$.@]")[0];
+                        if (!symbols.contains(sym)) {
+                            throw new IllegalStateException(
+                                "Undefined symbol " + sym + " in "
+                                + insn.text());
+                        }
+                    }
+                }
+                String target = labelOperand(insn);
+                if (target != null) {
+                    checkLabel(target, labels, line);
+                }
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Throw IllegalStateException unless NAME, used on LINE, is one of
+     *  LABELS. */
+    private static void checkLabel(String name, Set<String> labels,
+                                   Line line) {
+        if (!labels.contains(name)) {
+            throw new IllegalStateException(
+                "Undefined label " + name + " in: " + line);
+        }
+    }
+
+    /** Throw IllegalStateException unless INSN is known and has the right
+     *  number of operands. */
+    private static void checkArity(Insn insn) {
+        int n = insn.args().size();
+        boolean ok = switch (insn.op()) {
+        case "jal" -> n == 1 || n == 2;
+        case "jalr" -> n >= 1 && n <= 3;
+        /* A store to a symbol names the register for its address. */
+        case "sw", "sh", "sb" -> n == 2 || n == 3;
+        default -> ARITY.containsKey(insn.op()) && ARITY.get(insn.op()) == n;
+        };
+        if (!ok) {
+            throw new IllegalStateException(
+                "Malformed instruction: " + insn.text());
+        }
+    }
+
+    /** Returns the label that INSN branches to, jumps to, or loads the
+     *  address of, or null if it has none. */
+    public static String labelOperand(Insn insn) {
+        String op = baseOp(insn.op());
+        if (insn.args().isEmpty()) {
+            return null;
+        }
+        if (op.equals("j") || op.equals("jal") || op.equals("la")
+            || isBranch(op)) {
+            return insn.args().get(insn.args().size() - 1);
+        }
+        return null;
+    }
+
+    /** Returns true iff OP is a conditional branch. */
+    public static boolean isBranch(String op) {
+        op = baseOp(op);
+        return op.startsWith("b") && ARITY.containsKey(op);
+    }
+
+    /** Returns OP without any `c.` prefix for its compressed form. */
+    public static String baseOp(String op) {
+        return op.startsWith("c.") ? op.substring(2) : op;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Line line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+}
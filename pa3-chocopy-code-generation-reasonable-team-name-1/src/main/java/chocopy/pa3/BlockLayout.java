@@ -0,0 +1,328 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.pa3.AsmProgram.Directive;
+import chocopy.pa3.AsmProgram.Insn;
+import chocopy.pa3.AsmProgram.Label;
+import chocopy.pa3.AsmProgram.Line;
+
+/**
+ * Hot/cold block placement for run-time checks.
+ *
+ * The code generator emits each check as
+ *
+ *     bnez a0, Lok         # Ensure not None
+ *     j error.None         # Go to error handler
+ *   Lok:
+ *
+ * so the hot path takes a branch and the cold jump sits inline.  This
+ * pass assumes that checks never fail: it rewrites each such triple
+ * into a single inverted branch to a cold stub, `beqz a0, Lcold`, and
+ * falls through on the hot path.  Stubs (`Lcold: j error.None`) are
+ * shared by all checks of a function that fail to the same handler and
+ * are placed after the function's last instruction, or after an earlier
+ * unconditional jump when the end is out of branch range.
+ *
+ * A jump target is cold if the code at it runs straight into the abort
+ * routine.
+ */
+public class BlockLayout implements Pass.AsmPass {
+
+    /** The label of the runtime routine that aborts the program. */
+    private static final String ABORT = "abort";
+
+    /** Conservative reach of a conditional branch, in bytes. */
+    private static final int BRANCH_RANGE = 4000;
+
+    /** Inverses of the conditional branches. */
+    static final Map<String, String> INVERSE = new HashMap<>();
+
+    static {
+        String[][] pairs = {
+            { "beq", "bne" }, { "blt", "bge" }, { "bltu", "bgeu" },
+            { "bgt", "ble" }, { "bgtu", "bleu" }, { "beqz", "bnez" },
+            { "bltz", "bgez" }, { "bgtz", "blez" },
+        };
+        for (String[] pair : pairs) {
+            INVERSE.put(pair[0], pair[1]);
+            INVERSE.put(pair[1], pair[0]);
+        }
+    }
+
+    /** Number of checks moved out of line. */
+    private int rewrites = 0;
+
+    @Override
+    public String name() {
+        return "block-layout";
+    }
+
+    @Override
+    public String statistics() {
+        return rewrites + " checks moved out of line";
+    }
+
+    /** Returns the number of checks moved out of line by run(). */
+    public int getRewriteCount() {
+        return rewrites;
+    }
+
+    @Override
+    public void run(AsmProgram code) {
+        Set<String> cold = coldLabels(code.lines);
+        Set<String> labels = new HashSet<>();
+        for (Line line : code.lines) {
+            if (line instanceof Label label) {
+                labels.add(label.name());
+            }
+        }
+        LabelMaker stubs = new LabelMaker("cold", labels);
+
+        List<Line> out = new ArrayList<>();
+        int start = 0;
+        for (int end : functionStarts(code.lines)) {
+            out.addAll(layoutFunction(code.lines.subList(start, end),
+                                      cold, stubs));
+            start = end;
+        }
+        out.addAll(layoutFunction(code.lines.subList(start,
+                                                     code.lines.size()),
+                                  cold, stubs));
+        code.lines.clear();
+        code.lines.addAll(out);
+    }
+
+    /**
+     * Returns FUNC with its checks inverted and their stubs appended,
+     * using STUBS to name them.  Jumps to the labels in COLD are
+     * failure paths.
+     */
+    private List<Line> layoutFunction(List<Line> func, Set<String> cold,
+                                      LabelMaker stubs) {
+        /* Indices after which a stub may go: after every unconditional
+         * transfer that is followed by a label or the end, other than
+         * the failure jumps themselves, which may be removed. */
+        List<Integer> islands = new ArrayList<>();
+        for (int i = 0; i < func.size(); i += 1) {
+            if (func.get(i) instanceof Insn insn && isTerminator(func, i)
+                && !(insn.op().equals("j") && cold.contains(insn.arg(0)))
+                && !(nextInsnOrLabel(func, i) instanceof Insn)) {
+                islands.add(i);
+            }
+        }
+        if (islands.isEmpty()) {
+            return func;
+        }
+
+        /* Byte offset of each line, counting pseudo-instructions that
+         * may expand to two instructions as two. */
+        int[] offset = new int[func.size() + 1];
+        for (int i = 0; i < func.size(); i += 1) {
+            offset[i + 1] = offset[i] + size(func.get(i));
+        }
+
+        Map<Integer, Map<String, String>> stubsAt = new HashMap<>();
+        Set<Integer> dropped = new HashSet<>();
+        Map<Integer, Line> replaced = new HashMap<>();
+        for (int i = 0; i < func.size(); i += 1) {
+            if (!(func.get(i) instanceof Insn branch)
+                || !INVERSE.containsKey(branch.op())) {
+                continue;
+            }
+            int jumpIndex = nextIndex(func, i);
+            if (jumpIndex < 0
+                || !(func.get(jumpIndex) instanceof Insn jump)
+                || !jump.op().equals("j")
+                || !cold.contains(jump.arg(0))) {
+                continue;
+            }
+            int labelIndex = nextIndex(func, jumpIndex);
+            if (labelIndex < 0
+                || !(func.get(labelIndex) instanceof Label ok)
+                || !ok.name().equals(AsmProgram.labelOperand(branch))) {
+                continue;
+            }
+            Integer island = null;
+            for (int candidate : islands) {
+                if (candidate > jumpIndex
+                    && offset[candidate + 1] - offset[i] < BRANCH_RANGE) {
+                    island = candidate;
+                    break;
+                }
+            }
+            if (island == null) {
+                continue;
+            }
+
+            String stub = stubsAt
+                .computeIfAbsent(island, k -> new LinkedHashMap<>())
+                .computeIfAbsent(jump.arg(0), k -> stubs.next());
+            List<String> args = new ArrayList<>(branch.args());
+            args.set(args.size() - 1, stub);
+            replaced.put(i, new Insn(INVERSE.get(branch.op()), args,
+                                     branch.comment()));
+            dropped.add(jumpIndex);
+            rewrites += 1;
+        }
+
+        List<Line> out = new ArrayList<>();
+        for (int i = 0; i < func.size(); i += 1) {
+            if (dropped.contains(i)) {
+                continue;
+            }
+            out.add(replaced.getOrDefault(i, func.get(i)));
+            Map<String, String> here = stubsAt.get(i);
+            if (here != null) {
+                for (Map.Entry<String, String> stub : here.entrySet()) {
+                    out.add(new Label(stub.getValue(), "Cold path"));
+                    out.add(Insn.of("j", "Go to error handler",
+                                    stub.getKey()));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns the labels in LINES whose code runs straight into the abort
+     * routine: those followed by instructions without labels or control
+     * transfers up to a `j` to abort or another such label.
+     */
+    private static Set<String> coldLabels(List<Line> lines) {
+        Set<String> cold = new HashSet<>();
+        cold.add(ABORT);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < lines.size(); i += 1) {
+                if (!(lines.get(i) instanceof Label label)
+                    || cold.contains(label.name())) {
+                    continue;
+                }
+                for (int j = i + 1; j < lines.size(); j += 1) {
+                    Line line = lines.get(j);
+                    if (line instanceof Insn insn) {
+                        if (insn.op().equals("j")
+                            && cold.contains(insn.arg(0))) {
+                            cold.add(label.name());
+                            changed = true;
+                        }
+                        if (isControl(insn)) {
+                            break;
+                        }
+                    } else if (line instanceof Label
+                               || line instanceof Directive) {
+                        break;
+                    }
+                }
+            }
+        }
+        return cold;
+    }
+
+    /** Returns the indices in LINES at which a new function starts: the
+     *  `.globl` directive announcing its label. */
+    static List<Integer> functionStarts(List<Line> lines) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (lines.get(i) instanceof Directive dir
+                && (dir.name().equals(".globl") || dir.name().equals(".text")
+                    || dir.name().equals(".data"))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    /** Returns the index of the first instruction or label after index I
+     *  of LINES, or -1 if there is none. */
+    static int nextIndex(List<Line> lines, int i) {
+        for (int j = i + 1; j < lines.size(); j += 1) {
+            if (lines.get(j) instanceof Insn || lines.get(j) instanceof Label) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the first instruction or label after index I of LINES, or
+     *  null if there is none. */
+    private static Line nextInsnOrLabel(List<Line> lines, int i) {
+        int j = nextIndex(lines, i);
+        return j < 0 ? null : lines.get(j);
+    }
+
+    /** Returns true iff control never falls through the instruction at
+     *  index I of LINES. */
+    static boolean isTerminator(List<Line> lines, int i) {
+        Insn insn = (Insn) lines.get(i);
+        switch (AsmProgram.baseOp(insn.op())) {
+        case "j": case "jr": case "ret":
+            return true;
+        case "ecall":
+            /* exit and exit2 do not return. */
+            for (int j = i - 1; j >= 0; j -= 1) {
+                if (lines.get(j) instanceof Insn prev) {
+                    return prev.op().equals("li") && prev.arg(0).equals("a0")
+                        && (prev.arg(1).equals("10")
+                            || prev.arg(1).equals("@exit")
+                            || prev.arg(1).equals("17")
+                            || prev.arg(1).equals("@exit2"));
+                }
+                if (lines.get(j) instanceof Label) {
+                    return false;
+                }
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /** Returns true iff INSN may transfer control elsewhere. */
+    static boolean isControl(Insn insn) {
+        String op = AsmProgram.baseOp(insn.op());
+        return AsmProgram.isBranch(op) || op.equals("j") || op.equals("jal")
+            || op.equals("jr") || op.equals("jalr") || op.equals("ret")
+            || op.equals("ecall");
+    }
+
+    /** Returns an upper bound on the size of LINE in bytes, counting
+     *  a symbolic immediate as too large for one instruction. */
+    static int size(Line line) {
+        return RvcCompression.maxSize(line, Map.of());
+    }
+
+    /** Generator of fresh labels. */
+    static class LabelMaker {
+        /** Prefix of the generated labels. */
+        private final String prefix;
+        /** Labels already in use. */
+        private final Set<String> used;
+        /** Suffix of the next label. */
+        private int next = 0;
+
+        /** A generator of labels PREFIX.N not in USED. */
+        LabelMaker(String prefix, Set<String> used) {
+            this.prefix = prefix;
+            this.used = used;
+        }
+
+        /** Returns a fresh label. */
+        String next() {
+            String name;
+            do {
+                name = prefix + "." + next;
+                next += 1;
+            } while (!used.add(name));
+            return name;
+        }
+    }
+}
@@ -1,24 +1,33 @@
 package chocopy.pa3;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Stack;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import chocopy.common.analysis.SymbolTable;
+import chocopy.common.analysis.types.ListValueType;
 import chocopy.common.analysis.types.Type;
 import chocopy.common.analysis.types.ValueType;
 
 import chocopy.common.astnodes.BooleanLiteral;
+import chocopy.common.astnodes.CallExpr;
 import chocopy.common.astnodes.ClassDef;
 import chocopy.common.astnodes.Declaration;
+import chocopy.common.astnodes.Expr;
 import chocopy.common.astnodes.FuncDef;
 import chocopy.common.astnodes.GlobalDecl;
 import chocopy.common.astnodes.IntegerLiteral;
+import chocopy.common.astnodes.ListExpr;
 import chocopy.common.astnodes.Literal;
 import chocopy.common.astnodes.NonLocalDecl;
 import chocopy.common.astnodes.Program;
@@ -120,12 +129,48 @@ public abstract class CodeGenBase {
     /** Label for built-in routine: heap.init. */
     protected final Label heapInitLabel = new Label("heap.init");
 
+    /** Label for built-in routine: gc.collect. */
+    protected final Label gcCollectLabel = new Label("gc.collect");
+
+    /** Label of the prototype for lists of unboxed ints or bools, whose
+     *  elements the collector does not scan. */
+    protected final Label rawListPrototypeLabel =
+        new Label("$.list.raw$prototype");
+
     /** Error codes. */
     protected final int ERROR_ARG = 1, ERROR_DIV_ZERO = 2, ERROR_OOB = 3,
         ERROR_NONE = 4, ERROR_OOM = 5, ERROR_NYI = 6;
 
-    /** Size of heap memory. */
-    protected final int HEAP_SIZE_BYTES = 1024 * 1024 * 32;
+    /** Label of the word holding the size of the last heap region
+     *  requested from sbrk, initially the size of the whole heap. */
+    protected final Label heapSizeLabel = new Label("heap.size");
+
+    /** Label of the word holding the factor by which each heap region
+     *  exceeds the last. */
+    protected final Label heapGrowthLabel = new Label("heap.growth");
+
+    /** Label of the routine writing out the output buffered by print. */
+    protected final Label outFlushLabel = new Label("out.flush");
+
+    /** Size in bytes of the buffer print writes to. */
+    protected static final int OUT_BUFFER_SIZE = 512;
+
+    /** Label of the table of preallocated int boxes. */
+    protected final Label intCacheLabel = new Label("int.cache");
+
+    /** True iff the emitted code refers to the int cache. */
+    protected boolean intCacheUsed = false;
+
+    /** Bytes of static data that fit below the heap, which venus places
+     *  0x8000 bytes past the start of the data section. */
+    protected static final int STATIC_DATA_LIMIT = 0x8000;
+
+    /** Label for built-in routine: heap.grow. */
+    protected final Label heapGrowLabel = new Label("heap.grow");
+
+    /** Label of the table of dispatch tables by type tag, used with
+     *  --compact-headers. */
+    protected final Label dispatchTablesLabel = new Label("dispatch.tables");
 
     /** Ecall numbers for intrinsic routines. */
     protected final int
@@ -145,7 +190,41 @@ public abstract class CodeGenBase {
     protected final SymbolTable<SymbolInfo> globalSymbols = new SymbolTable<>();
     protected final Map<Label, PhysicalRegister> globalVar = new HashMap<>();
     protected final Stack<PhysicalRegister> emptyRegister = new Stack<>();
-    
+
+    /** Code-generation options. */
+    protected final CodeGenOptions options;
+
+    /**
+     * Stack maps for the garbage collector: for the return address of
+     * each call that may allocate, the offsets from FP of the slots in
+     * the calling frame that hold pointers.
+     */
+    protected final Map<Label, List<Integer>> stackMaps =
+        new LinkedHashMap<>();
+
+    /** Constructor calls and list displays whose object may be placed
+     *  in the frame of the function making it. */
+    protected Set<Expr> stackAllocated = Set.of();
+
+    /** Global str variables that only ever hold interned strs under
+     *  --intern-strings. */
+    protected Set<String> internedGlobals = Set.of();
+
+    /** The str variables that may hold ropes under --ropes. */
+    protected RopeVariables ropes = new RopeVariables();
+
+    /** The class of rope nodes, if any variable may hold a rope. */
+    protected ClassInfo ropeClass = null;
+
+    /** The class of growable lists, if the program appends to a list.
+     *  See GrowableLists. */
+    protected ClassInfo growableListClass = null;
+
+    /** For each constructor call whose allocation is emitted inline,
+     *  the batch of such calls it belongs to. */
+    protected final Map<Expr, List<CallExpr>> inlineAllocations =
+        new IdentityHashMap<>();
+
 
     /**
      * A utility for caching constants and generating labels for constants.
@@ -156,6 +235,20 @@ public abstract class CodeGenBase {
      *  and dispatch table pointer). */
     public static final int HEADER_SIZE = 3;
 
+    /** The object header size with --compact-headers, in words: the type
+     *  tag in the low byte and the size in words above it.  The dispatch
+     *  table is found by type tag in dispatch.tables. */
+    public static final int COMPACT_HEADER_SIZE = 1;
+
+    /** Type tag of lists of unboxed values with --compact-headers, which
+     *  leave no spare header word for the element kind. */
+    protected static final int RAW_LIST_TAG = -2;
+
+    /** Bit set in the size word (with --compact-headers, the header) of
+     *  the str constants under --intern-strings, no two of which are
+     *  equal.  Only objects outside the heap have it. */
+    protected static final int INTERNED = 1 << 31;
+
     /**
      * Initializes a code generator for ChocoPy that uses BACKEND to emit
      * assembly code.
@@ -164,7 +257,16 @@ public abstract class CodeGenBase {
      * classes, methods, and built-in routines.
      */
     public CodeGenBase(RiscVAsmWriter asmWriter) {
+        this(asmWriter, new CodeGenOptions());
+    }
+
+    /**
+     * Initializes a code generator for ChocoPy that uses BACKEND to emit
+     * assembly code as configured by OPTIONS.
+     */
+    public CodeGenBase(RiscVAsmWriter asmWriter, CodeGenOptions options) {
         this.asmWriter = asmWriter;
+        this.options = options;
         wordSize = asmWriter.getWordSize();
 
         initClasses();
@@ -211,32 +313,79 @@ public abstract class CodeGenBase {
         emptyRegister.push(S7);
         emptyRegister.push(S8);
         emptyRegister.push(S9);
-        emptyRegister.push(A3);
-        emptyRegister.push(A4);
-        emptyRegister.push(A5);
-        emptyRegister.push(A6);
-        emptyRegister.push(A7);
-
-
-
+        if (options.rvc) {
+            /* Hand out x13-x15 first: compressed instructions can only
+             * name x8-x15. */
+            emptyRegister.push(A6);
+            emptyRegister.push(A7);
+            emptyRegister.push(A5);
+            emptyRegister.push(A4);
+            emptyRegister.push(A3);
+        } else {
+            emptyRegister.push(A3);
+            emptyRegister.push(A4);
+            emptyRegister.push(A5);
+            emptyRegister.push(A6);
+            emptyRegister.push(A7);
+        }
 
         analyzeProgram(program);
+        if (options.internStrings) {
+            internedGlobals = InternedGlobals.of(program);
+        }
+        if (options.ropes) {
+            ropes = RopeVariables.of(program);
+            if (!ropes.appends.isEmpty()) {
+                initRopeClass();
+            }
+        }
+        if (GrowableLists.in(program)) {
+            initGrowableListClass();
+            /* Lists in frames would need the growable form too. */
+            Set<Expr> allocations =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+            allocations.addAll(stackAllocated);
+            allocations.removeIf(e -> e instanceof ListExpr);
+            stackAllocated = allocations;
+        }
+        asmWriter.defineSym("growable_list_tag", growableListClass == null
+                            ? listClass.getTypeTag()
+                            : growableListClass.getTypeTag());
+        if (options.compactHeaders && nextTypeTag > 128) {
+            throw fatal("Too many classes for --compact-headers: %d",
+                        nextTypeTag);
+        }
 
         asmWriter.startData();
 
         for (ClassInfo classInfo : this.classes) {
             emitPrototype(classInfo);
         }
+        emitRawListPrototype();
 
         for (ClassInfo classInfo : this.classes) {
             emitDispatchTable(classInfo);
         }
+        if (options.compactHeaders) {
+            emitDispatchTables();
+        }
 
         for (GlobalVarInfo global : this.globalVars) {
             asmWriter.emitGlobalLabel(global.getLabel());
             emitConstant(global.getInitialValue(), global.getVarType(),
                          String.format("Initial value of global var: %s",
                             global.getVarName()));
+        }
+
+        List<GlobalVarInfo> cached = new ArrayList<>(this.globalVars);
+        if (options.rvc) {
+            /* Give the hottest globals the best registers. */
+            Map<String, Long> weights = VarUseWeights.of(program);
+            cached.sort(Comparator.comparingLong(
+                (GlobalVarInfo global) ->
+                    -weights.getOrDefault(global.getVarName(), 0L)));
+        }
+        for (GlobalVarInfo global : cached) {
             if (!emptyRegister.isEmpty()) {
                 PhysicalRegister reg = emptyRegister.pop();
                 globalVar.put(global.getLabel(), reg);
@@ -247,14 +396,23 @@ public abstract class CodeGenBase {
 
         Label mainLabel = new Label("main");
         asmWriter.emitGlobalLabel(mainLabel);
-        asmWriter.emitLUI(A0, HEAP_SIZE_BYTES >> 12,
-                        "Initialize heap size (in multiples of 4KB)");
+        asmWriter.emitLA(A0, heapSizeLabel, null);
+        asmWriter.emitLW(A0, A0, 0, "Initialize heap size");
         asmWriter.emitADD(S11, S11, A0, "Save heap size");
         asmWriter.emitJAL(heapInitLabel, "Call heap.init routine");
         asmWriter.emitMV(GP, A0, "Initialize heap pointer");
         asmWriter.emitMV(S10, GP, "Set beginning of heap");
-        asmWriter.emitADD(S11, S10, S11,
-                        "Set end of heap (= start of heap + heap size)");
+        if (options.gc) {
+            asmWriter.emitSRLI(S11, S11, 1,
+                               "Split heap into two semispaces");
+            asmWriter.emitADD(S11, S10, S11,
+                              "Set end of heap (= end of first semispace)");
+            asmWriter.emitLA(T0, new Label("gc.tospace"), null);
+            asmWriter.emitSW(S11, T0, 0, "Second semispace starts there");
+        } else {
+            asmWriter.emitADD(S11, S10, S11,
+                            "Set end of heap (= start of heap + heap size)");
+        }
         asmWriter.emitMV(RA, ZERO, "No normal return from main program.");
         asmWriter.emitMV(FP, ZERO, "No preceding frame.");
 
@@ -273,13 +431,239 @@ public abstract class CodeGenBase {
 
         emitStdFunc("alloc");
         emitStdFunc("alloc2");
+        emitStdFunc("memcpy");
+        emitStdFunc(outFlushLabel);
         emitStdFunc("abort");
         emitStdFunc("heap.init");
+        if (options.gc) {
+            emitStdFunc(heapGrowLabel);
+            emitStdFunc(gcCollectLabel);
+        } else {
+            emitStdFunc(heapGrowLabel, "heap.grow.nogc", LIBRARY_CODE_DIR);
+            asmWriter.emitGlobalLabel(gcCollectLabel);
+            asmWriter.emitJR(RA, "No garbage collector");
+        }
 
         emitCustomCode();
 
+        /* The runtime's own state goes first, so that constants
+         * overrunning the space below the heap cannot overlap it. */
         asmWriter.startData();
+        emitHeapParameters();
+        emitOutputBuffer();
+        if (options.gc) {
+            emitGcTables();
+        }
         emitConstants();
+        emitIntCache();
+        if (asmWriter.getDataSize() >= STATIC_DATA_LIMIT) {
+            throw fatal("Static data takes %d bytes, but the heap starts "
+                        + "at %d", asmWriter.getDataSize(), STATIC_DATA_LIMIT);
+        }
+    }
+
+    /** Emit the boxes of the ints from options.intCacheMin to
+     *  options.intCacheMax, one after another, if the code uses them. */
+    protected void emitIntCache() {
+        if (!intCacheUsed) {
+            return;
+        }
+        asmWriter.emitGlobalLabel(intCacheLabel);
+        for (int value = options.intCacheMin; value <= options.intCacheMax;
+             value += 1) {
+            emitObjectHeader(intClass, getObjectSize(intClass));
+            asmWriter.emitWordLiteral(value,
+                                      "Constant value of attribute: __int__");
+        }
+    }
+
+    /** Emit the initial heap size and the growth factor of the heap. */
+    protected void emitHeapParameters() {
+        asmWriter.emitGlobalLabel(heapSizeLabel);
+        asmWriter.emitWordLiteral(options.heapSize, "Initial heap size");
+        asmWriter.emitGlobalLabel(heapGrowthLabel);
+        asmWriter.emitWordLiteral(options.heapGrowth, "Heap growth factor");
+    }
+
+    /** Emit the buffer of output not yet written out: out.pos holds
+     *  the address of its next free byte, and out.end is where
+     *  out.flush must be called.  Past out.end is room for the newline
+     *  ending the last line and the zero byte out.flush adds. */
+    protected void emitOutputBuffer() {
+        Label buffer = new Label("out.buffer");
+        asmWriter.emitGlobalLabel(new Label("out.pos"));
+        asmWriter.emitWordAddress(buffer, "Next free byte of out.buffer");
+        asmWriter.emitGlobalLabel(buffer);
+        for (int i = 0; i < OUT_BUFFER_SIZE; i += wordSize) {
+            asmWriter.emitWordLiteral(0, null);
+        }
+        asmWriter.emitGlobalLabel(new Label("out.end"));
+        asmWriter.emitWordLiteral(0, "Room for a newline and a zero byte");
+    }
+
+    /** Place the objects made by the constructor calls and list
+     *  displays in ALLOCATIONS in the frames making them. */
+    public void setStackAllocated(Set<Expr> allocations) {
+        stackAllocated = allocations;
+    }
+
+    /** Allocate the objects made by the constructor calls in BATCHES
+     *  inline, checking for room for each batch at once. */
+    public void setInlineAllocations(List<List<CallExpr>> batches) {
+        for (List<CallExpr> batch : batches) {
+            for (CallExpr call : batch) {
+                inlineAllocations.put(call, batch);
+            }
+        }
+    }
+
+    /** Returns true iff values of static type TYPE are represented by
+     *  pointers, as opposed to unboxed ints and bools. */
+    protected static boolean isReference(Type type) {
+        return !type.equals(Type.INT_TYPE) && !type.equals(Type.BOOL_TYPE);
+    }
+
+    /** Record that the call returning to SITE is suspended with pointers
+     *  in the slots at OFFSETS from FP. */
+    protected void addStackMap(Label site, List<Integer> offsets) {
+        stackMaps.put(site, offsets);
+    }
+
+    /** Emit the prototype of an empty list of unboxed values.  It differs
+     *  from that of .list only in its element kind, kept in the otherwise
+     *  unused dispatch-table slot, or with --compact-headers in its type
+     *  tag, RAW_LIST_TAG. */
+    protected void emitRawListPrototype() {
+        asmWriter.emitGlobalLabel(rawListPrototypeLabel);
+        if (options.compactHeaders) {
+            asmWriter.emitWordLiteral(
+                compactHeader(RAW_LIST_TAG, getObjectSize(listClass)),
+                "Type tag for unboxed .list, object size");
+        } else {
+            asmWriter.emitWordLiteral(listClass.getTypeTag(),
+                                      "Type tag for class: .list");
+            asmWriter.emitWordLiteral(getObjectSize(listClass),
+                                      "Object size");
+            asmWriter.emitWordLiteral(1, "Element kind: unboxed");
+        }
+        asmWriter.emitWordLiteral(0, "Initial value of attribute: __len__");
+        alignObject();
+    }
+
+    /**
+     * Emit the tables the garbage collector finds its roots and the
+     * pointers in objects with, and its state:
+     *   gc.layouts: for each type tag, the address of a zero-terminated
+     *       list of offsets of attributes holding pointers, or 0;
+     *   gc.globals: the number of global variables in memory holding
+     *       pointers, then their addresses;
+     *   gc.regmask: bit I is set iff register xI holds a pointer;
+     *   gc.maps: the number of stack maps, then for each the call site
+     *       and the address of the number of slots holding pointers,
+     *       followed by their offsets from FP.
+     */
+    protected void emitGcTables() {
+        ClassInfo[] byTag = new ClassInfo[nextTypeTag];
+        for (ClassInfo classInfo : classes) {
+            if (classInfo.getTypeTag() >= 0) {
+                byTag[classInfo.getTypeTag()] = classInfo;
+            }
+        }
+        List<Label> layouts = new ArrayList<>();
+        for (ClassInfo classInfo : byTag) {
+            List<Integer> offsets = new ArrayList<>();
+            if (classInfo != null && classInfo != intClass
+                && classInfo != boolClass && classInfo != strClass) {
+                for (AttrInfo attr : classInfo.attributes) {
+                    if (isReference(attr.getVarType())) {
+                        offsets.add(getAttrOffset(classInfo,
+                                                  attr.getVarName()));
+                    }
+                }
+            }
+            if (offsets.isEmpty()) {
+                layouts.add(null);
+                continue;
+            }
+            Label label = new Label(String.format("$%s$pointers",
+                                                  classInfo.getClassName()));
+            layouts.add(label);
+            asmWriter.emitGlobalLabel(label);
+            for (int offset : offsets) {
+                asmWriter.emitWordLiteral(offset, "Offset of pointer");
+            }
+            asmWriter.emitWordLiteral(0, "End of offsets");
+        }
+        asmWriter.emitGlobalLabel(new Label("gc.layouts"));
+        for (Label label : layouts) {
+            asmWriter.emitWordAddress(label, null);
+        }
+
+        List<GlobalVarInfo> inMemory = new ArrayList<>();
+        int regMask = 0;
+        for (GlobalVarInfo global : globalVars) {
+            if (!isReference(global.getVarType())) {
+                continue;
+            }
+            PhysicalRegister reg = globalVar.get(global.getLabel());
+            if (reg == null) {
+                inMemory.add(global);
+            } else {
+                regMask |= 1 << registerNumber(reg);
+            }
+        }
+        asmWriter.emitGlobalLabel(new Label("gc.globals"));
+        asmWriter.emitWordLiteral(inMemory.size(), "Number of globals");
+        for (GlobalVarInfo global : inMemory) {
+            asmWriter.emitWordAddress(global.getLabel(),
+                                      "Global var: " + global.getVarName());
+        }
+        asmWriter.emitGlobalLabel(new Label("gc.regmask"));
+        asmWriter.emitWordLiteral(regMask, "Registers holding pointers");
+
+        /* Many call sites share a map. */
+        Map<List<Integer>, Label> descriptors = new LinkedHashMap<>();
+        for (List<Integer> offsets : stackMaps.values()) {
+            descriptors.computeIfAbsent(offsets, k ->
+                new Label("gc.map." + descriptors.size()));
+        }
+        asmWriter.emitGlobalLabel(new Label("gc.maps"));
+        asmWriter.emitWordLiteral(stackMaps.size(), "Number of maps");
+        for (Map.Entry<Label, List<Integer>> e : stackMaps.entrySet()) {
+            asmWriter.emitWordAddress(e.getKey(), "Call site");
+            asmWriter.emitWordAddress(descriptors.get(e.getValue()), null);
+        }
+        for (Map.Entry<List<Integer>, Label> e : descriptors.entrySet()) {
+            asmWriter.emitGlobalLabel(e.getValue());
+            asmWriter.emitWordLiteral(e.getKey().size(), "Number of slots");
+            for (int offset : e.getKey()) {
+                asmWriter.emitWordLiteral(offset, "Offset from FP");
+            }
+        }
+
+        asmWriter.emitGlobalLabel(new Label("gc.tospace"));
+        asmWriter.emitWordLiteral(0, "Start of the other semispace");
+        asmWriter.emitGlobalLabel(new Label("gc.collections"));
+        asmWriter.emitWordLiteral(0, "Number of collections");
+        asmWriter.emitGlobalLabel(new Label("gc.reclaimed"));
+        asmWriter.emitWordLiteral(0, "Bytes reclaimed");
+    }
+
+    /** Returns the number N of REG, which is xN. */
+    protected static int registerNumber(PhysicalRegister reg) {
+        return switch (reg) {
+        case ZERO -> 0;
+        case RA -> 1;
+        case SP -> 2;
+        case GP -> 3;
+        case T0, T1, T2 -> 5 + reg.ordinal() - T0.ordinal();
+        case FP -> 8;
+        case S1 -> 9;
+        case A0, A1, A2, A3, A4, A5, A6, A7 -> 10 + reg.ordinal();
+        case S2, S3, S4, S5, S6, S7, S8, S9, S10, S11 ->
+            18 + reg.ordinal() - S2.ordinal();
+        case T3, T4, T5, T6 -> 28 + reg.ordinal() - T3.ordinal();
+        };
     }
 
     /** Create descriptors and symbols for builtin classes and methods. */
@@ -321,6 +705,41 @@ public abstract class CodeGenBase {
         listClass.setDispatchTableLabel(null);
     }
 
+    /** Create the descriptor of .rope, the class of rope nodes: the
+     *  length of the str a node stands for, where a str keeps its
+     *  length, then its left and right operands.  Rope nodes have no
+     *  methods and never reach code that would dispatch on them. */
+    protected void initRopeClass() {
+        ropeClass = makeClassInfo(".rope", getNextTypeTag(), objectClass);
+        ropeClass.addAttribute(makeAttrInfo("__len__", Type.INT_TYPE,
+                                            new IntegerLiteral(null, null, 0)));
+        ropeClass.addAttribute(makeAttrInfo("left", Type.STR_TYPE, null));
+        ropeClass.addAttribute(makeAttrInfo("right", Type.STR_TYPE, null));
+        classes.add(ropeClass);
+        ropeClass.setDispatchTableLabel(null);
+    }
+
+    /** Create the descriptor of .growable, the class of lists in
+     *  programs that append to lists: the length, the number of elements
+     *  there is room for, and the plain list holding the elements, whose
+     *  own length is kept equal to the list's.  Growable lists have no
+     *  methods, and take the place of every list. */
+    protected void initGrowableListClass() {
+        growableListClass =
+            makeClassInfo(".growable", getNextTypeTag(), objectClass);
+        growableListClass.addAttribute(
+            makeAttrInfo("__len__", Type.INT_TYPE,
+                         new IntegerLiteral(null, null, 0)));
+        growableListClass.addAttribute(
+            makeAttrInfo("__cap__", Type.INT_TYPE,
+                         new IntegerLiteral(null, null, 0)));
+        growableListClass.addAttribute(
+            makeAttrInfo("__items__", new ListValueType(Type.OBJECT_TYPE),
+                         null));
+        classes.add(growableListClass);
+        growableListClass.setDispatchTableLabel(null);
+    }
+
     /** Create descriptors and symbols for builtin functions. */
     protected void initFunctions() {
         printFunc = makeFuncInfo("print", 0, Type.NONE_TYPE,
@@ -361,10 +780,13 @@ public abstract class CodeGenBase {
      *   @error_oom: Out of memory.
      *   @error_nyi: Unimplemented operation.
      * Data-structure byte offsets:
-     *   @.__obj_size__: Offset of size of object.
+     *   @.__obj_size__: Offset of size of object (not with
+     *       --compact-headers, where it is bits 8 and up of the header).
      *   @.__len__: Offset of length in chars or words.
      *   @.__str__: Offset of string data.
      *   @.__elts__: Offset of first list item.
+     *   @growable_list_tag: Type tag of growable lists, or of lists if
+     *       the program has none.
      *   @.__int__: Offset of integer value.
      *   @.__bool__: Offset of boolean (1/0) value.
      */
@@ -379,12 +801,15 @@ public abstract class CodeGenBase {
         asmWriter.defineSym("read_string", READ_STRING_ECALL);
         asmWriter.defineSym("fill_line_buffer", FILL_LINE_BUFFER__ECALL);
 
-        asmWriter.defineSym(".__obj_size__", 4);
-        asmWriter.defineSym(".__len__", 12);
-        asmWriter.defineSym(".__int__", 12);
-        asmWriter.defineSym(".__bool__", 12);
-        asmWriter.defineSym(".__str__", 16);
-        asmWriter.defineSym(".__elts__", 16);
+        int header = headerSize() * wordSize;
+        if (!options.compactHeaders) {
+            asmWriter.defineSym(".__obj_size__", getObjectSizeOffset());
+        }
+        asmWriter.defineSym(".__len__", header);
+        asmWriter.defineSym(".__int__", header);
+        asmWriter.defineSym(".__bool__", header);
+        asmWriter.defineSym(".__str__", header + wordSize);
+        asmWriter.defineSym(".__elts__", header + wordSize);
 
 
         asmWriter.defineSym("error_div_zero", ERROR_DIV_ZERO);
@@ -739,21 +1164,51 @@ public abstract class CodeGenBase {
      *  defined by CLASSINFO. */
     protected void emitPrototype(ClassInfo classInfo) {
         asmWriter.emitGlobalLabel(classInfo.getPrototypeLabel());
-        asmWriter.emitWordLiteral(classInfo.getTypeTag(),
-                                String.format("Type tag for class: %s",
-                                              classInfo.getClassName()));
-        asmWriter.emitWordLiteral(classInfo.attributes.size() + HEADER_SIZE,
-                                "Object size");
-        asmWriter.emitWordAddress(classInfo.getDispatchTableLabel(),
-                                "Pointer to dispatch table");
+        emitObjectHeader(classInfo, getObjectSize(classInfo));
         for (VarInfo attr : classInfo.attributes) {
             String cmnt = String.format("Initial value of attribute: %s",
                                         attr.getVarName());
             emitConstant(attr.getInitialValue(), attr.getVarType(), cmnt);
         }
+        for (int i = headerSize() + classInfo.attributes.size();
+             i < getObjectSize(classInfo); i += 1) {
+            asmWriter.emitWordLiteral(0, "Padding");
+        }
         alignObject();
     }
 
+    /** Emit the header of an instance of CLASSINFO that is SIZE words
+     *  long. */
+    protected void emitObjectHeader(ClassInfo classInfo, int size) {
+        emitObjectHeader(classInfo, size, false);
+    }
+
+    /** Emit the header of an instance of CLASSINFO that is SIZE words
+     *  long, marked INTERNED iff INTERNED. */
+    protected void emitObjectHeader(ClassInfo classInfo, int size,
+                                    boolean interned) {
+        int mark = interned ? INTERNED : 0;
+        if (options.compactHeaders) {
+            asmWriter.emitWordLiteral(
+                compactHeader(classInfo.getTypeTag(), size) | mark,
+                String.format("Type tag for class: %s, object size",
+                              classInfo.getClassName()));
+            return;
+        }
+        asmWriter.emitWordLiteral(classInfo.getTypeTag(),
+                                String.format("Type tag for class: %s",
+                                              classInfo.getClassName()));
+        asmWriter.emitWordLiteral(size | mark, "Object size");
+        asmWriter.emitWordAddress(classInfo.getDispatchTableLabel(),
+                                "Pointer to dispatch table");
+    }
+
+    /** Returns the compact header of an object with type tag TAG that
+     *  is SIZE words long. */
+    protected static int compactHeader(int tag, int size) {
+        return size << 8 | tag & 0xff;
+    }
+
     /** Emit a word containing a constant int representing VALUE */
     protected void emitConstantInt(int value, String comment) {
         asmWriter.emitWordLiteral(value, comment);
@@ -781,37 +1236,27 @@ public abstract class CodeGenBase {
     /** Emit code for all constants. */
     protected void emitConstants() {
         asmWriter.emitGlobalLabel(constants.falseConstant);
-        asmWriter.emitWordLiteral(boolClass.getTypeTag(),
-                                "Type tag for class: bool");
-        asmWriter.emitWordLiteral(boolClass.attributes.size() + HEADER_SIZE,
-                                "Object size");
-        asmWriter.emitWordAddress(boolClass.getDispatchTableLabel(),
-                                "Pointer to dispatch table");
+        emitObjectHeader(boolClass, getObjectSize(boolClass));
         asmWriter.emitWordLiteral(0, "Constant value of attribute: __bool__");
         alignObject();
 
         asmWriter.emitGlobalLabel(constants.trueConstant);
-        asmWriter.emitWordLiteral(boolClass.getTypeTag(),
-                                "Type tag for class: bool");
-        asmWriter.emitWordLiteral(boolClass.attributes.size() + HEADER_SIZE,
-                                "Object size");
-        asmWriter.emitWordAddress(boolClass.getDispatchTableLabel(),
-                                "Pointer to dispatch table");
+        emitObjectHeader(boolClass, getObjectSize(boolClass));
         asmWriter.emitWordLiteral(1, "Constant value of attribute: __bool__");
         alignObject();
 
         for (Map.Entry<String, Label> e : constants.strConstants.entrySet()) {
             String value = e.getKey();
             Label label = e.getValue();
+            if (isCharTableEntry(value)) {
+                continue;
+            }
             int numWordsForCharacters =
                 value.length() / wordSize + 1;
             asmWriter.emitGlobalLabel(label);
-            asmWriter.emitWordLiteral(strClass.getTypeTag(),
-                                    "Type tag for class: str");
-            asmWriter.emitWordLiteral(3 + 1 + numWordsForCharacters,
-                                    "Object size");
-            asmWriter.emitWordAddress(strClass.getDispatchTableLabel(),
-                                    "Pointer to dispatch table");
+            emitObjectHeader(strClass,
+                             headerSize() + 1 + numWordsForCharacters,
+                             options.internStrings);
             this.emitConstantInt(value.length(),
                                     "Constant value of attribute: __len__");
             asmWriter.emitString(value, "Constant value of attribute: __str__");
@@ -822,12 +1267,7 @@ public abstract class CodeGenBase {
             Integer value = e.getKey();
             Label label = e.getValue();
             asmWriter.emitGlobalLabel(label);
-            asmWriter.emitWordLiteral(intClass.getTypeTag(),
-                                    "Type tag for class: int");
-            asmWriter.emitWordLiteral(intClass.attributes.size() + HEADER_SIZE,
-                                    "Object size");
-            asmWriter.emitWordAddress(intClass.getDispatchTableLabel(),
-                                    "Pointer to dispatch table");
+            emitObjectHeader(intClass, getObjectSize(intClass));
             asmWriter.emitWordLiteral(value,
                                     "Constant value of attribute: __int__");
             alignObject();
@@ -835,6 +1275,12 @@ public abstract class CodeGenBase {
     }
 
 
+    /** Returns true iff the str constant VALUE is emitted as an entry
+     *  of a table of strs rather than with the other constants. */
+    protected boolean isCharTableEntry(String value) {
+        return false;
+    }
+
     /** Emit the method dispatching table for CLASSINFO. */
     protected void emitDispatchTable(ClassInfo classInfo) {
         Label dispatchTableLabel = classInfo.getDispatchTableLabel();
@@ -850,6 +1296,22 @@ public abstract class CodeGenBase {
         }
     }
 
+    /** Emit the table of the dispatch tables of all classes, indexed by
+     *  type tag, that compact objects are dispatched through. */
+    protected void emitDispatchTables() {
+        Label[] byTag = new Label[nextTypeTag];
+        for (ClassInfo classInfo : classes) {
+            if (classInfo.getTypeTag() >= 0) {
+                byTag[classInfo.getTypeTag()] =
+                    classInfo.getDispatchTableLabel();
+            }
+        }
+        asmWriter.emitGlobalLabel(dispatchTablesLabel);
+        for (Label label : byTag) {
+            asmWriter.emitWordAddress(label, null);
+        }
+    }
+
     /*------------------------------------------------------------*
      *                                                            *
      *   UTILITY METHODS TO GET BYTE OFFSETS IN OBJECT LAYOUT     *
@@ -859,18 +1321,49 @@ public abstract class CodeGenBase {
      *------------------------------------------------------------*/
 
 
+    /** Returns the size of object headers in words. */
+    protected int headerSize() {
+        return options.compactHeaders ? COMPACT_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /** Returns the size in words of instances of CLASSINFO.  Compact
+     *  objects take at least two words, so that the collector can mark
+     *  one copied with a zero header and leave its new address after
+     *  it. */
+    protected int getObjectSize(ClassInfo classInfo) {
+        int size = headerSize() + classInfo.attributes.size();
+        return options.compactHeaders ? Math.max(size, 2) : size;
+    }
+
+    /** Emit code loading into RD the address of the dispatch table of the
+     *  object in OBJ.  Clobbers T0 with --compact-headers. */
+    protected void emitLoadDispatchTable(PhysicalRegister rd,
+                                         PhysicalRegister obj) {
+        if (!options.compactHeaders) {
+            asmWriter.emitLW(rd, obj, getDispatchTableOffset(),
+                             "Load address of object's dispatch table");
+            return;
+        }
+        asmWriter.emitLB(rd, obj, getTypeTagOffset(), "Load type tag");
+        asmWriter.emitSLLI(rd, rd, 2, null);
+        asmWriter.emitLA(T0, dispatchTablesLabel, null);
+        asmWriter.emitADD(rd, rd, T0, null);
+        asmWriter.emitLW(rd, rd, 0, "Load address of object's dispatch table");
+    }
+
     /** Return offset of the type-tag field in an object.  */
     protected int getTypeTagOffset() {
         return 0 * wordSize;
     }
 
-    /** Return offset of the size field in an object. */
+    /** Return offset of the size field in an object, without
+     *  --compact-headers. */
     protected int getObjectSizeOffset() {
         return 1 * wordSize;
     }
 
     /** Return offset of the start of the pointer to the method-dispatching
-     *  table in an object. */
+     *  table in an object, without --compact-headers. */
     protected int getDispatchTableOffset() {
         return 2 * wordSize;
     }
@@ -881,7 +1374,7 @@ public abstract class CodeGenBase {
         int attrIndex = classInfo.getAttributeIndex(attrName);
         assert attrIndex >= 0
             : "Type checker ensures that attributes are valid";
-        return wordSize * (HEADER_SIZE + attrIndex);
+        return wordSize * (headerSize() + attrIndex);
     }
 
     /** Return the offset of the method named METHODNAME in the
@@ -931,9 +1424,15 @@ public abstract class CodeGenBase {
     }
 
     /** Emit label and body for the function LABEL, taking the
-     *  source from directory LIB (must end in '/'). */
+     *  source from directory LIB (must end in '/').  With
+     *  --compact-headers, a LABEL.compact.s there takes precedence. */
     protected void emitStdFunc(Label label, String lib) {
-        emitStdFunc(label, label.toString(), lib);
+        String sourceFile = label.toString();
+        if (options.compactHeaders
+            && getStandardLibraryCode(sourceFile + ".compact", lib) != null) {
+            sourceFile += ".compact";
+        }
+        emitStdFunc(label, sourceFile, lib);
     }
 
     /** Emit label and body for the function LABEL, taking the
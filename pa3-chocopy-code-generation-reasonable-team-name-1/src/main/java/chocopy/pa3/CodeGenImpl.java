@@ -2,16 +2,22 @@ package chocopy.pa3;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import chocopy.pa3.CodeGenOptions.OptLevel;
 import chocopy.pa3.RiscV.Register;
 import chocopy.pa3.RiscVAsmWriter.PhysicalRegister;
 import chocopy.common.analysis.SymbolTable;
 import chocopy.common.analysis.types.ClassValueType;
 import chocopy.common.analysis.types.ListValueType;
+import chocopy.common.analysis.types.Type;
 import chocopy.common.analysis.types.ValueType;
 import chocopy.common.astnodes.*;
+import chocopy.common.codegen.AttrInfo;
 import chocopy.common.codegen.ClassInfo;
 import chocopy.common.codegen.FuncInfo;
 import chocopy.common.codegen.GlobalVarInfo;
@@ -41,6 +47,12 @@ public class CodeGenImpl extends CodeGenBase {
     public CodeGenImpl(RiscVAsmWriter asmWriter) {
         super(asmWriter);
     }
+
+    /** A code generator emitting code to ASMWRITER as configured by
+     *  OPTIONS. */
+    public CodeGenImpl(RiscVAsmWriter asmWriter, CodeGenOptions options) {
+        super(asmWriter, options);
+    }
     
     private boolean string_exist = false;
     /** Operation on None. */
@@ -49,27 +61,64 @@ public class CodeGenImpl extends CodeGenBase {
     private final Label errorDiv = new Label("error.Div");
     /** Index out of bounds. */
     private final Label errorOob = new Label("error.OOB");
+    /** Invalid argument. */
+    private final Label errorArg = new Label("error.Arg");
 
     private final Label label_int = new Label("makeint");
 
+    /** True iff the code emitted so far calls makeint. */
+    private boolean boxesInts = false;
+
     private final Label label_bool = new Label("makebool");
     
-    private final Label label_conslist = new Label("conslist");
-
     private final Label label_streql = new Label("streql");
-    
-    private final Label label_strneql = new Label("strneql");
 
-    private final Label label_allChars = new Label("allChars");
+    private final Label label_memcpy = new Label("memcpy");
 
-    private final Label label_initchars = new Label("initchars");
+    private final Label label_allChars = new Label("allChars");
     
     private final Label label_concat = new Label("concat");
+
+    /** Concatenation routines needed besides concat, with whether their
+     *  left and right operands hold bytes and whether they hold ints
+     *  to box.  See concatRoutine. */
+    private final Map<Label, boolean[]> concatVariants = new LinkedHashMap<>();
     
     private final Label label_noconv = new Label("noconv");
 
     private final Label label_strcat = new Label("strcat");
 
+    /** Concatenations of three or more strs, or lists, at once. */
+    private final Label label_strcatN = new Label("strcat.n");
+    private final Label label_concatN = new Label("concat.n");
+
+    /** Entry points of print for unboxed ints and bools and for strs,
+     *  passed in A0. */
+    private final Label label_printInt = new Label("print.int");
+    private final Label label_printBool = new Label("print.bool");
+    private final Label label_printStr = new Label("print.str");
+
+    /** Routines appending to and flattening ropes under --ropes. */
+    private final Label label_ropeCat = new Label("rope.cat");
+    private final Label label_ropeFlatten = new Label("rope.flatten");
+
+    /** Routines appending to growable lists of words and of bytes. */
+    private final Label label_listAppend = new Label("list.append");
+    private final Label label_listAppendPacked = new Label("list.append.packed");
+
+    /** The list displays of constants, each copied from the object at
+     *  its label. */
+    private final Map<Label, ListExpr> constantLists = new LinkedHashMap<>();
+
+    /** Most elements of a display of constants copied from static data;
+     *  longer ones are built in place, so as not to fill up the space
+     *  below the heap. */
+    private static final int MAX_CONSTANT_LIST_LENGTH = 32;
+
+    /** True iff strcat.n and concat.n are used. */
+    private boolean strcatN = false;
+    private boolean concatN = false;
+
 
 
 
@@ -98,15 +147,18 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitSW(ZERO, SP, mainlabel+"-4", "Top saved FP is 0.");
         asmWriter.emitSW(ZERO, SP, mainlabel+"-8", "Top saved RA is 0.");
         asmWriter.emitADDI(FP, SP, mainlabel, "Set FP to previous SP.");
-        asmWriter.emitJAL(label_initchars, "Initialize one-character strings.");
-        int stmtNum = 0;
+        stmtsToRiscV.reserveFrameObjects(statements);
         for (Stmt stmt : statements) {
             stmtsToRiscV.dispatchStmt(stmt);
-            stmtNum++;
         }
-        asmWriter.defineSym(mainlabel, stmtNum * 16 * asmWriter.getWordSize());
+        asmWriter.defineSym(mainlabel, Math.max(3, stmtsToRiscV.maxSlot) * asmWriter.getWordSize());
+        asmWriter.emitJAL(outFlushLabel, "Write out buffered output");
+        if (options.gc && options.gcStats) {
+            emitGcReport();
+        }
         asmWriter.emitLI(A0, EXIT_ECALL, "Code for ecall: exit");
         asmWriter.emitEcall(null);
+        stmtsToRiscV.emitColdCode();
     }
 
     /**
@@ -136,6 +188,8 @@ public class CodeGenImpl extends CodeGenBase {
             stmtsToRiscV.dispatchExpr(value);
             asmWriter.emitSW(A0, FP, -(stmtsToRiscV.stack_slot - 1) * asmWriter.getWordSize(), "local variable " + localVar.getVarName());
         }
+        stmtsToRiscV.maxSlot = stmtsToRiscV.stack_slot - 1;
+        stmtsToRiscV.reserveFrameObjects(funcInfo.getStatements());
         for (Stmt stmt : funcInfo.getStatements()) {
             stmtsToRiscV.dispatchStmt(stmt);
         }
@@ -145,7 +199,8 @@ public class CodeGenImpl extends CodeGenBase {
 
         // FIXME: {... reset fp etc. ...}
 
-        asmWriter.defineSym(sizelabel, (2 + 1 + stmtsToRiscV.localNum + stmtsToRiscV.equivEmitted + 1 ) * asmWriter.getWordSize());
+        /* Runtime routines push below SP, so it must be below all slots. */
+        asmWriter.defineSym(sizelabel, Math.max(2 + 1 + stmtsToRiscV.localNum + stmtsToRiscV.equivEmitted + 1, stmtsToRiscV.maxSlot) * asmWriter.getWordSize());
         
         asmWriter.emitLW(RA, FP, -4, "Get return address");
         asmWriter.emitLW(FP, FP, -8, "Use control link to restore caller's fp");
@@ -153,10 +208,98 @@ public class CodeGenImpl extends CodeGenBase {
 
 
         asmWriter.emitJR(RA, "Return to caller");
+        stmtsToRiscV.emitColdCode();
+    }
+
+    /** Returns the label of the prototype for lists of static type TYPE:
+     *  lists of ints and bools hold unboxed values that the collector
+     *  must not scan. */
+    private Label listPrototype(Type type) {
+        if (type.isListType()) {
+            ValueType elementType = ((ListValueType) type).elementType;
+            if (!isReference(elementType)) {
+                return rawListPrototypeLabel;
+            }
+        }
+        return listClass.getPrototypeLabel();
+    }
+
+    /** Returns true iff lists of static type TYPE hold one element per
+     *  byte, as lists of bools do.  Like lists of ints, they use the
+     *  prototype of lists of unboxed values. */
+    private static boolean isPackedList(Type type) {
+        return type.isListType()
+            && ((ListValueType) type).elementType.equals(Type.BOOL_TYPE);
+    }
+
+    /** Returns true iff lists of static type TYPE hold unboxed ints. */
+    private static boolean isIntList(Type type) {
+        return type.isListType()
+            && ((ListValueType) type).elementType.equals(Type.INT_TYPE);
+    }
+
+    /** Returns the routine concatenating lists whose elements are bytes
+     *  iff LEFTPACKED and RIGHTPACKED respectively, and are unboxed ints
+     *  to be boxed iff LEFTBOXED and RIGHTBOXED. */
+    private Label concatRoutine(boolean leftPacked, boolean rightPacked,
+                                boolean leftBoxed, boolean rightBoxed) {
+        if (!leftPacked && !rightPacked && !leftBoxed && !rightBoxed) {
+            return label_concat;
+        }
+        StringBuilder name = new StringBuilder("concat");
+        if (leftPacked && rightPacked) {
+            name.append(".packed");
+        } else if (leftPacked) {
+            name.append(".packed.left");
+        } else if (rightPacked) {
+            name.append(".packed.right");
+        }
+        if (leftBoxed) {
+            name.append(".boxed.left");
+        }
+        if (rightBoxed) {
+            name.append(".boxed.right");
+        }
+        Label label = new Label(name.toString());
+        concatVariants.put(label, new boolean[] {
+                leftPacked, rightPacked, leftBoxed, rightBoxed });
+        return label;
+    }
+
+    /** Returns the size in words of a list of static type TYPE with
+     *  LENGTH elements. */
+    private int getListSize(Type type, int length) {
+        int elementWords = isPackedList(type) ? (length + 3) / 4 : length;
+        return headerSize() + 1 + elementWords;
+    }
+
+    /** Returns the offset of the first element of a list. */
+    private int getElementsOffset() {
+        return getAttrOffset(listClass, "__len__") + asmWriter.getWordSize();
+    }
+
+    /** Emit code printing the number of collections and of bytes they
+     *  reclaimed, for --gc-stats. */
+    private void emitGcReport() {
+        emitGcCounter("GC collections: ", "gc.collections");
+        emitGcCounter("GC bytes reclaimed: ", "gc.reclaimed");
+    }
+
+    /** Emit code printing TITLE and then the word at COUNTER. */
+    private void emitGcCounter(String title, String counter) {
+        asmWriter.emitLA(A1, constants.getStrConstant(title), null);
+        asmWriter.emitADDI(A1, A1, "@.__str__", null);
+        asmWriter.emitLI(A0, PRINT_STRING_ECALL, "Code for ecall: print_string");
+        asmWriter.emitEcall(null);
+        asmWriter.emitLA(A1, new Label(counter), null);
+        asmWriter.emitLW(A1, A1, 0, null);
+        asmWriter.emitLI(A0, PRINT_INT_ECALL, "Code for ecall: print_int");
+        asmWriter.emitEcall(null);
+        asmWriter.emitLI(A1, '\n', null);
+        asmWriter.emitLI(A0, PRINT_CHAR_ECALL, "Code for ecall: print_char");
+        asmWriter.emitEcall(null);
     }
 
-    
-    
 
     /** An analyzer that encapsulates code generation for statements. */
     private class StmtsToRiscV extends AstVisitor {
@@ -203,6 +346,26 @@ public class CodeGenImpl extends CodeGenBase {
         protected int localNum;
         private int stack_slot;
 
+        /** Largest stack slot used so far. */
+        private int maxSlot = 0;
+
+        /** For each temporary stack slot, true iff the value last stored
+         *  in it is a pointer. */
+        private final Map<Integer, Boolean> slotPointers = new TreeMap<>();
+
+        /** Offset from FP of the object made by each stack-allocated
+         *  constructor call or list display. */
+        private final Map<Expr, Integer> frameObjects =
+            new IdentityHashMap<>();
+
+        /** Offsets from FP of the words of objects in the frame that may
+         *  hold pointers. */
+        private final List<Integer> frameObjectPointers = new ArrayList<>();
+
+        /** Emitters of code run rarely, placed after the function's
+         *  return. */
+        private final List<Runnable> coldCode = new ArrayList<>();
+
         /** The descriptor for the current function, or null at the top
          *  level. */
         private FuncInfo funcInfo;
@@ -224,12 +387,375 @@ public class CodeGenImpl extends CodeGenBase {
             epilogue = generateLocalLabel();
         }
 
+        /** Store REG in temporary stack slot SLOT, which then holds a
+         *  pointer iff POINTER, with comment COMMENT. */
+        private void storeSlot(PhysicalRegister reg, int slot,
+                               boolean pointer, String comment) {
+            asmWriter.emitSW(reg, FP, -slot * asmWriter.getWordSize(),
+                             comment);
+            noteSlot(slot, pointer);
+        }
+
+        /** Note that temporary stack slot SLOT now holds a pointer iff
+         *  POINTER. */
+        private void noteSlot(int slot, boolean pointer) {
+            slotPointers.put(slot, pointer);
+            maxSlot = Math.max(maxSlot, slot);
+        }
+
+        /**
+         * Emit the stack map for the call just emitted, which may
+         * allocate, made while temporaries occupy the slots up to TOP.
+         * Labels the return address of the call.
+         */
+        private void emitStackMap(int top) {
+            if (!options.gc) {
+                return;
+            }
+            Label site = generateLocalLabel();
+            asmWriter.emitLocalLabel(site, "Return address (stack map)");
+            addStackMap(site, stackMapOffsets(top));
+        }
+
+        /** Returns the offsets from FP of the slots holding pointers
+         *  while temporaries occupy the slots up to TOP. */
+        private List<Integer> stackMapOffsets(int top) {
+            List<Integer> offsets = new ArrayList<>();
+            if (funcInfo != null) {
+                for (String param : funcInfo.getParams()) {
+                    StackVarInfo info = (StackVarInfo) sym.get(param);
+                    if (isReference(info.getVarType())) {
+                        offsets.add(varOffset(param));
+                    }
+                }
+                for (StackVarInfo local : funcInfo.getLocals()) {
+                    if (isReference(local.getVarType())) {
+                        offsets.add(varOffset(local.getVarName()));
+                    }
+                }
+            }
+            offsets.addAll(frameObjectPointers);
+            for (Map.Entry<Integer, Boolean> e : slotPointers.entrySet()) {
+                if (e.getKey() <= top && e.getValue()) {
+                    offsets.add(-e.getKey() * asmWriter.getWordSize());
+                }
+            }
+            return offsets;
+        }
+
+        /**
+         * Reserve slots past the current ones for the objects of the
+         * stack-allocated sites in STMTS.  Under the collector, clear
+         * the words that will hold pointers, since stack maps list them
+         * before the objects are first made.
+         */
+        private void reserveFrameObjects(List<Stmt> stmts) {
+            for (Stmt stmt : stmts) {
+                switch (stmt) {
+                case AssignStmt s -> reserveFrameObject(s.value);
+                case IfStmt s -> {
+                    reserveFrameObjects(s.thenBody);
+                    reserveFrameObjects(s.elseBody);
+                }
+                case WhileStmt s -> reserveFrameObjects(s.body);
+                case ForStmt s -> {
+                    reserveFrameObject(s.iterable);
+                    reserveFrameObjects(s.body);
+                }
+                default -> { }
+                }
+            }
+        }
+
+        /** Reserve slots for the object made by ALLOCATION, if it is
+         *  stack-allocated.  See reserveFrameObjects. */
+        private void reserveFrameObject(Expr allocation) {
+            if (!stackAllocated.contains(allocation)) {
+                return;
+            }
+            List<Integer> pointerWords = new ArrayList<>();
+            int size;
+            if (allocation instanceof ListExpr list) {
+                size = getListSize(list.getInferredType(), list.elements.size());
+                if (listPrototype(list.getInferredType())
+                    != rawListPrototypeLabel) {
+                    for (int i = headerSize() + 1; i < size; i++) {
+                        pointerWords.add(i);
+                    }
+                }
+            } else {
+                ClassInfo classInfo =
+                    (ClassInfo) sym.get(((CallExpr) allocation).function.name);
+                size = getObjectSize(classInfo);
+                for (AttrInfo attr : classInfo.attributes) {
+                    if (isReference(attr.getVarType())) {
+                        pointerWords.add(getAttrOffset(classInfo, attr.getVarName())
+                                         / asmWriter.getWordSize());
+                    }
+                }
+            }
+            stack_slot += size;
+            maxSlot = Math.max(maxSlot, stack_slot - 1);
+            int offset = -(stack_slot - 1) * asmWriter.getWordSize();
+            frameObjects.put(allocation, offset);
+            if (options.gc) {
+                for (int word : pointerWords) {
+                    int wordOffset = offset + word * asmWriter.getWordSize();
+                    asmWriter.emitSW(ZERO, FP, wordOffset, "Clear pointer in frame object");
+                    frameObjectPointers.add(wordOffset);
+                }
+            }
+        }
+
+        /** Copy the first WORDS words of the object at T0 to the frame
+         *  object at OFFSET from FP. */
+        private void copyToFrame(int words, int offset) {
+            copyWords(words, FP, offset, "Copy prototype into frame");
+        }
+
+        /** Copy the first WORDS words of the object at T0 to OFFSET from
+         *  BASE, unrolled, commenting the first with COMMENT. */
+        private void copyWords(int words, PhysicalRegister base, int offset,
+                               String comment) {
+            for (int i = 0; i < words; i++) {
+                asmWriter.emitLW(T1, T0, i * asmWriter.getWordSize(), i == 0 ? comment : null);
+                asmWriter.emitSW(T1, base, offset + i * asmWriter.getWordSize(), null);
+            }
+        }
+
+        /**
+         * Allocate an object of class CLASSINFO made by CALL on the heap
+         * inline, leaving its address in A0.  The first heap allocation
+         * of CALL's batch checks for room for the whole batch; when the
+         * heap is full it branches to an out-of-line call of alloc2 that
+         * collects or grows the heap until the batch fits, then discards
+         * the object alloc2 made and retries.  The later allocations of
+         * the batch just bump GP.
+         */
+        private void emitInlineAllocation(CallExpr call, ClassInfo classInfo) {
+            int words = getObjectSize(classInfo);
+            int batchWords = batchWords(call);
+            if (batchWords > 0) {
+                Label retry = generateLocalLabel();
+                Label full = generateLocalLabel();
+                Label site = generateLocalLabel();
+                if (options.gc) {
+                    addStackMap(site, stackMapOffsets(stack_slot - 1));
+                }
+                asmWriter.emitLocalLabel(retry, null);
+                asmWriter.emitADDI(T1, GP, batchWords * asmWriter.getWordSize(),
+                                   "Where GP will move for " + batchWords + " words");
+                asmWriter.emitBGEU(T1, S11, full, "Collect garbage if too large");
+                coldCode.add(() -> {
+                    asmWriter.emitLocalLabel(full, "Heap full");
+                    asmWriter.emitLA(A0, classInfo.getPrototypeLabel(), "Load pointer to prototype of: " + classInfo.getClassName());
+                    asmWriter.emitLI(A1, batchWords, "Words needed");
+                    asmWriter.emitJAL(new Label("alloc2"), "Make room");
+                    if (options.gc) {
+                        asmWriter.emitLocalLabel(site, "Return address (stack map)");
+                    }
+                    asmWriter.emitMV(GP, A0, "Discard the object made");
+                    asmWriter.emitJ(retry, "Retry");
+                });
+            }
+            asmWriter.emitLA(T0, classInfo.getPrototypeLabel(), "Load pointer to prototype of: " + classInfo.getClassName());
+            copyWords(words, GP, 0, "Copy prototype to heap");
+            asmWriter.emitMV(A0, GP, "New object in A0");
+            asmWriter.emitADDI(GP, GP, words * asmWriter.getWordSize(), "Set next free slot in the heap");
+        }
+
+        /** Returns the number of words allocated on the heap by the
+         *  batch of CALL if CALL is its first heap allocation, else 0. */
+        private int batchWords(CallExpr call) {
+            int words = 0;
+            for (CallExpr site : inlineAllocations.get(call)) {
+                if (stackAllocated.contains(site)) {
+                    continue;
+                }
+                if (words == 0 && site != call) {
+                    return 0;
+                }
+                words += getObjectSize((ClassInfo) sym.get(site.function.name));
+            }
+            return words;
+        }
+
+        /**
+         * Emit the body of INIT, the __init__ of class CLASSINFO, on the
+         * object in A0 in place of a call, if it only assigns literals
+         * to attributes of self that need no boxing.  Returns true iff
+         * it did.
+         */
+        private boolean emitInlineInit(ClassInfo classInfo, FuncInfo init) {
+            if (!init.getLocals().isEmpty() || init.getParams().size() != 1) {
+                return false;
+            }
+            String self = init.getParams().get(0);
+            for (Stmt stmt : init.getStatements()) {
+                if (!(stmt instanceof AssignStmt s) || s.targets.size() != 1
+                    || !(s.targets.get(0) instanceof MemberExpr target)
+                    || !(target.object instanceof Identifier object)
+                    || !object.name.equals(self)
+                    || !(s.value instanceof Literal value)
+                    || isReference(value.getInferredType())
+                       && !(value instanceof NoneLiteral || value instanceof StringLiteral)
+                    || !isReference(value.getInferredType())
+                       && isReference(attrType(classInfo, target.member.name))) {
+                    return false;
+                }
+            }
+            for (Stmt stmt : init.getStatements()) {
+                AssignStmt s = (AssignStmt) stmt;
+                String attr = ((MemberExpr) s.targets.get(0)).member.name;
+                PhysicalRegister value = T1;
+                switch (s.value) {
+                case IntegerLiteral v -> asmWriter.emitLI(T1, v.value, "Inline " + init.getFuncName());
+                case BooleanLiteral v -> asmWriter.emitLI(T1, v.value ? 1 : 0, "Inline " + init.getFuncName());
+                case StringLiteral v -> asmWriter.emitLA(T1, constants.getStrConstant(v.value), "Inline " + init.getFuncName());
+                default -> value = ZERO;
+                }
+                asmWriter.emitSW(value, A0, getAttrOffset(classInfo, attr),
+                                 "Set attribute: " + classInfo.getClassName() + "." + attr);
+            }
+            return true;
+        }
+
+        /** Returns the declared type of attribute NAME of CLASSINFO. */
+        private Type attrType(ClassInfo classInfo, String name) {
+            for (AttrInfo attr : classInfo.attributes) {
+                if (attr.getVarName().equals(name)) {
+                    return attr.getVarType();
+                }
+            }
+            throw new IllegalStateException("No attribute " + name);
+        }
+
+        /** Returns true iff E is a str known to be interned under
+         *  --intern-strings.  See InternedGlobals. */
+        private boolean isInterned(Expr e) {
+            if (!options.internStrings) {
+                return false;
+            }
+            return switch (e) {
+            case StringLiteral s -> true;
+            case IndexExpr ie -> ie.list.getInferredType().equals(Type.STR_TYPE);
+            case Identifier id -> sym.get(id.name) instanceof GlobalVarInfo
+                && internedGlobals.contains(id.name);
+            case IfExpr ie -> isInterned(ie.thenExpr) && isInterned(ie.elseExpr);
+            default -> false;
+            };
+        }
+
+        /** Leave in A0 the XOR of the values of the operands of
+         *  BINARYEXPR, which is zero iff they are the same object. */
+        private void emitIdentityCompare(BinaryExpr binaryExpr) {
+            dispatchExpr(binaryExpr.left);
+            storeSlot(A0, stack_slot, true, "Save left expression value.");
+            stack_slot++;
+            dispatchExpr(binaryExpr.right);
+            stack_slot--;
+            asmWriter.emitLW(T0, FP, -stack_slot * asmWriter.getWordSize(), "Load left expression value.");
+            asmWriter.emitXOR(A0, T0, A0, "Compare interned strs by identity");
+        }
+
+        /**
+         * Returns the operands of the chain of `+` of strs or lists that
+         * BINARYEXPR ends, left to right, following left operands.  The
+         * chain stops at a list operand whose elements would need
+         * converting to those of the result, which only concat's
+         * conversion routines do.
+         */
+        private List<Expr> concatOperands(BinaryExpr binaryExpr) {
+            List<Expr> operands = new ArrayList<>();
+            Type type = binaryExpr.getInferredType();
+            if (!type.equals(Type.STR_TYPE) && !type.isListType()) {
+                return operands;
+            }
+            Expr e = binaryExpr;
+            BinaryExpr last = null;
+            while (e instanceof BinaryExpr b && b.operator.equals("+")
+                   && fitsConcat(b.getInferredType(), type)
+                   && fitsConcat(b.right.getInferredType(), type)) {
+                operands.add(0, b.right);
+                last = b;
+                e = b.left;
+            }
+            if (last != null && !fitsConcat(e.getInferredType(), type)) {
+                /* Concatenate the innermost `+` on its own. */
+                operands.set(0, last);
+            } else if (last != null) {
+                operands.add(0, e);
+            }
+            return operands;
+        }
+
+        /** Returns true iff a value of static type OPERAND may be copied
+         *  unconverted into the concatenation of static type RESULT. */
+        private boolean fitsConcat(Type operand, Type result) {
+            if (result.equals(Type.STR_TYPE)) {
+                return operand.equals(Type.STR_TYPE);
+            }
+            return operand.equals(Type.EMPTY_TYPE)
+                || operand.isListType()
+                   && isPackedList(operand) == isPackedList(result)
+                   && isIntList(operand) == isIntList(result);
+        }
+
+        /** Emit the concatenation of OPERANDS, strs or lists, into a
+         *  value of static type TYPE with one call of strcat.n or
+         *  concat.n, which allocates the result once. */
+        private void emitConcatN(Type type, List<Expr> operands) {
+            int base = stack_slot;
+            for (int i = 0; i < operands.size(); i++) {
+                dispatchExpr(operands.get(i));
+                storeSlot(A0, stack_slot, true, "Push operand " + i + " of concatenation.");
+                stack_slot++;
+            }
+            asmWriter.emitADDI(SP, FP, -(stack_slot - 1) * asmWriter.getWordSize(), "Set SP to last argument.");
+            asmWriter.emitLI(A2, operands.size(), "Number of operands");
+            if (type.isListType()) {
+                concatN = true;
+                asmWriter.emitLA(A0, listPrototype(type), "Load prototype of result");
+                asmWriter.emitLI(A1, isPackedList(type) ? 0 : 2, "log2 of element size");
+                asmWriter.emitJAL(label_concatN, "Concatenate lists.");
+            } else {
+                strcatN = true;
+                asmWriter.emitJAL(label_strcatN, "Concatenate strs.");
+            }
+            emitStackMap(stack_slot - 1);
+            asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
+            stack_slot = base;
+            if (type.isListType()) {
+                emitWrapList();
+            }
+        }
+
+        /** Emit the out-of-line code gathered in coldCode. */
+        private void emitColdCode() {
+            for (Runnable code : coldCode) {
+                code.run();
+            }
+            coldCode.clear();
+        }
+
+        /** Returns the offset from FP of parameter or local NAME of the
+         *  current function. */
+        private int varOffset(String name) {
+            return (funcInfo.getParams().size() - 1
+                    - funcInfo.getVarIndex(name)) * asmWriter.getWordSize();
+        }
+
         public void visit(ExprStmt stmt) {
             dispatchExpr(stmt.expr);
         }
         @Override
         public void visit(AssignStmt assignStmt) {
-            dispatchExpr(assignStmt.value);
+            RopeVariables.Append append = ropes.appends.get(assignStmt);
+            if (append != null) {
+                emitRopeAppend(append);
+            } else {
+                dispatchExpr(assignStmt.value);
+            }
 
             for (Expr target : assignStmt.targets) {
                 if(target instanceof Identifier){
@@ -273,10 +799,10 @@ public class CodeGenImpl extends CodeGenBase {
                     IndexExpr indexexpr = (IndexExpr)target;
                     Label checkOOBLabel = generateLocalLabel();
                     Label noErrorLabel = generateLocalLabel();
-                    asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Push on stack slot " + stack_slot);
+                    storeSlot(A0, stack_slot, isReference(assignStmt.value.getInferredType()), "Push on stack slot " + stack_slot);
                     stack_slot++;
                     dispatchExpr(indexexpr.list);
-                    asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Push on stack slot " + stack_slot);
+                    storeSlot(A0, stack_slot, true, "Push on stack slot " + stack_slot);
                     stack_slot++;
                     dispatchExpr(indexexpr.index);
                     stack_slot--;
@@ -295,15 +821,21 @@ public class CodeGenImpl extends CodeGenBase {
                     asmWriter.emitJ(errorOob, "Go to error handler");
         
                     asmWriter.emitLocalLabel(noErrorLabel, "Index within bounds");
-                    asmWriter.emitADDI(A0, A0, 4, "Compute list element offset in words");
-                    asmWriter.emitLI(T2, 4, "Word size in bytes");
-                    asmWriter.emitMUL(A0, A0, T2, "Compute list element offset in bytes");
-                    asmWriter.emitADD(A0, T0, A0, "Pointer to list element");
-                    asmWriter.emitSW(T1, A0, 0, "Set list element");
+                    emitLoadItems(T0);
+                    if (isPackedList(indexexpr.list.getInferredType())) {
+                        asmWriter.emitADD(A0, T0, A0, "Pointer to list element, less offset");
+                        asmWriter.emitSB(T1, A0, getElementsOffset(), "Set list element");
+                    } else {
+                        asmWriter.emitADDI(A0, A0, headerSize() + 1, "Compute list element offset in words");
+                        asmWriter.emitLI(T2, 4, "Word size in bytes");
+                        asmWriter.emitMUL(A0, A0, T2, "Compute list element offset in bytes");
+                        asmWriter.emitADD(A0, T0, A0, "Pointer to list element");
+                        asmWriter.emitSW(T1, A0, 0, "Set list element");
+                    }
                 }
                 else{
                     MemberExpr memberexpr = (MemberExpr) target;
-                    asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Push on stack slot 3");
+                    storeSlot(A0, stack_slot, isReference(assignStmt.value.getInferredType()), "Push on stack slot 3");
                     stack_slot++;
                     dispatchExpr(memberexpr.object);
                     stack_slot--;
@@ -354,10 +886,10 @@ public class CodeGenImpl extends CodeGenBase {
             }
         }
         private boolean is_special_int(Expr expr, int value) {
-            return expr instanceof Literal && (((IntegerLiteral) expr).value) == value;
+            return expr instanceof IntegerLiteral lit && lit.value == value;
         }
         private boolean isPowerOfTwo(Expr expr) {
-            if (expr instanceof Literal ) {
+            if (expr instanceof IntegerLiteral) {
                 int value = ((IntegerLiteral) expr).value;
                 return value > 0 && (value & (value - 1)) == 0;
             }
@@ -392,7 +924,7 @@ public class CodeGenImpl extends CodeGenBase {
             } else if (binaryExpr.operator.equals("**")) {
                 if (is_special_int(binaryExpr.right, 2)) {
                     dispatchExpr(binaryExpr.left);
-                    asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Save x for x ** 2");
+                    storeSlot(A0, stack_slot, false, "Save x for x ** 2");
                     stack_slot++;
                     dispatchExpr(binaryExpr.left); 
                     stack_slot--;
@@ -404,9 +936,10 @@ public class CodeGenImpl extends CodeGenBase {
             if (!binaryExpr.operator.equals("and") && !binaryExpr.operator.equals("or")
             && !binaryExpr.left.getInferredType().equals(ClassValueType.STR_TYPE) && !binaryExpr.right.getInferredType().equals(ClassValueType.STR_TYPE)
             && !binaryExpr.left.getInferredType().isListType() && !binaryExpr.right.getInferredType().isListType()
+            && !binaryExpr.getInferredType().isListType()
             ) {
                 dispatchExpr(binaryExpr.left);
-                asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Save left expression value.");
+                storeSlot(A0, stack_slot, isReference(binaryExpr.left.getInferredType()), "Save left expression value.");
                 stack_slot++;
                 dispatchExpr(binaryExpr.right);
                 stack_slot--;
@@ -416,36 +949,54 @@ public class CodeGenImpl extends CodeGenBase {
 
             switch (binaryExpr.operator) {
                 case "+":
-                    if((binaryExpr.left.getInferredType().isListType() && binaryExpr.right.getInferredType().isListType()) ||
+                    List<Expr> operands = concatOperands(binaryExpr);
+                    if (operands.size() > 2) {
+                        emitConcatN(binaryExpr.getInferredType(), operands);
+                    }
+                    else if(binaryExpr.getInferredType().isListType() ||
                     (binaryExpr.left.getInferredType().equals(ClassValueType.STR_TYPE) && binaryExpr.right.getInferredType().equals(ClassValueType.STR_TYPE))
                     ){
-                        if(binaryExpr.left.getInferredType().isListType() && binaryExpr.right.getInferredType().isListType()){
-                            asmWriter.emitLA(T0, label_noconv, "Identity conversion");
-                            asmWriter.emitSW(T0, FP, -stack_slot * asmWriter.getWordSize(), "Push argument 3 from last.");
+                        Label concat = label_concat;
+                        if(binaryExpr.getInferredType().isListType()){
+                            Type type = binaryExpr.getInferredType();
+                            boolean packed = isPackedList(type);
+                            boolean leftPacked = packed || isPackedList(binaryExpr.left.getInferredType());
+                            boolean rightPacked = packed || isPackedList(binaryExpr.right.getInferredType());
+                            boolean boxed = listPrototype(type) != rawListPrototypeLabel;
+                            boolean leftBoxed = boxed && isIntList(binaryExpr.left.getInferredType());
+                            boolean rightBoxed = boxed && isIntList(binaryExpr.right.getInferredType());
+                            concat = concatRoutine(leftPacked, rightPacked, leftBoxed, rightBoxed);
+                            asmWriter.emitLA(T0, leftPacked && !packed ? label_bool : label_noconv,
+                                             "Conversion of left elements");
+                            storeSlot(T0, stack_slot, false, "Push argument 3 from last.");
                             stack_slot++;
-                            asmWriter.emitLA(T0, label_noconv, "Identity conversion");
-                            asmWriter.emitSW(T0, FP, -stack_slot * asmWriter.getWordSize(), "Push argument 2 from last.");
+                            asmWriter.emitLA(T0, rightPacked && !packed ? label_bool : label_noconv,
+                                             "Conversion of right elements");
+                            storeSlot(T0, stack_slot, false, "Push argument 2 from last.");
                             stack_slot++;
                         }
                            
                 
                         dispatchExpr(binaryExpr.left);
-                        asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Push argument 1 from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument 1 from last.");
                         stack_slot++;
                         dispatchExpr(binaryExpr.right);
-                        asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "Push argument 0 from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument 0 from last.");
                         asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument.");
                         stack_slot++;
-                        if(binaryExpr.left.getInferredType().isListType() && binaryExpr.right.getInferredType().isListType()){
-                            asmWriter.emitJAL(label_concat, "Call runtime concatenation routine.");
+                        if(binaryExpr.getInferredType().isListType()){
+                            asmWriter.emitLA(A0, listPrototype(binaryExpr.getInferredType()), "Load prototype of result");
+                            asmWriter.emitJAL(concat, "Call runtime concatenation routine.");
                         }
                         else{
                             asmWriter.emitJAL(label_strcat, "Call runtime concatenation routine.");
                         }
+                        emitStackMap(stack_slot - 1);
 
                         asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
-                        if(binaryExpr.left.getInferredType().isListType() && binaryExpr.right.getInferredType().isListType()){
+                        if(binaryExpr.getInferredType().isListType()){
                             stack_slot-=4;
+                            emitWrapList();
                         }
                         else{
                             stack_slot-=2;
@@ -472,12 +1023,16 @@ public class CodeGenImpl extends CodeGenBase {
                         asmWriter.emitXOR(A0, T0, A0, "Operator =="); 
                         asmWriter.emitSEQZ(A0, A0, "Operator == (..contd)");
                     }
+                    else if (isInterned(binaryExpr.left) && isInterned(binaryExpr.right)) {
+                        emitIdentityCompare(binaryExpr);
+                        asmWriter.emitSEQZ(A0, A0, "Operator == on interned strs");
+                    }
                     else {
                         dispatchExpr(binaryExpr.left);
-                        asmWriter.emitSW(A0, FP,-stack_slot * asmWriter.getWordSize(), "Push argument 1 from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument 1 from last.");
                         stack_slot++;
                         dispatchExpr(binaryExpr.right);
-                        asmWriter.emitSW(A0, FP,-stack_slot * asmWriter.getWordSize(), "Push argument 0 from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument 0 from last.");
                         asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument111.");
                         stack_slot--;
                         asmWriter.emitJAL(label_streql, null);
@@ -495,15 +1050,20 @@ public class CodeGenImpl extends CodeGenBase {
                         asmWriter.emitXOR(A0, T0, A0, "Operator !="); 
                         asmWriter.emitSNEZ(A0, A0, "Operator != (..contd)");
                     }
+                    else if (isInterned(binaryExpr.left) && isInterned(binaryExpr.right)) {
+                        emitIdentityCompare(binaryExpr);
+                        asmWriter.emitSNEZ(A0, A0, "Operator != on interned strs");
+                    }
                     else {
                         dispatchExpr(binaryExpr.left);
-                        asmWriter.emitSW(A0, FP,-stack_slot * asmWriter.getWordSize(), "Push argument  1  from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument  1  from last.");
                         stack_slot++;
                         dispatchExpr(binaryExpr.right);
-                        asmWriter.emitSW(A0, FP,-stack_slot * asmWriter.getWordSize(), "Push argument  0  from last.");
+                        storeSlot(A0, stack_slot, true, "Push argument  0  from last.");
                         asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument222.");
                         stack_slot--;
-                        asmWriter.emitJAL(label_strneql, null);
+                        asmWriter.emitJAL(label_streql, null);
+                        asmWriter.emitSEQZ(A0, A0, "Operator !=");
                         asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top.");
                     }
                     break;
@@ -549,7 +1109,6 @@ public class CodeGenImpl extends CodeGenBase {
                     asmWriter.emitBEQZ(A0, falseLabel, "Short-circuit 'and' if left is false");
                     // else caculate right
                     dispatchExpr(binaryExpr.right);
-                    asmWriter.emitAND(A0,A0,T0,"and operation");
                     asmWriter.emitLocalLabel(falseLabel, null);
                     break;
                     
@@ -560,7 +1119,6 @@ public class CodeGenImpl extends CodeGenBase {
                     asmWriter.emitBNEZ(A0, trueLabel, "Short-circuit 'or' if left is true");
                     // else caculate right
                     dispatchExpr(binaryExpr.right);
-                    asmWriter.emitAND(A0, A0, T0, "or operation");
                     asmWriter.emitLocalLabel(trueLabel, null);
                     break;
 
@@ -600,16 +1158,32 @@ public class CodeGenImpl extends CodeGenBase {
                 if (Class.getClassName() == "int" || Class.getClassName() == "bool") {
                     asmWriter.emitMV(A0, ZERO, "Special cases: int and bool unboxed.");
                 } else {
-                    
-                    asmWriter.emitLA(A0, Class.getPrototypeLabel(), "Load pointer to prototype of: " + Class.getClassName());
-                    asmWriter.emitJAL(objectAllocLabel, "Allocate new object in A0");
-                    asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Push on stack slot " + stack_slot);
+                    Integer offset = frameObjects.get(callExpr);
+                    if (offset != null) {
+                        asmWriter.emitLA(T0, Class.getPrototypeLabel(), "Load pointer to prototype of: " + Class.getClassName());
+                        copyToFrame(getObjectSize(Class), offset);
+                        asmWriter.emitADDI(A0, FP, offset, "New object in frame");
+                    } else if (inlineAllocations.containsKey(callExpr)) {
+                        emitInlineAllocation(callExpr, Class);
+                    } else {
+                        asmWriter.emitLA(A0, Class.getPrototypeLabel(), "Load pointer to prototype of: " + Class.getClassName());
+                        asmWriter.emitJAL(objectAllocLabel, "Allocate new object in A0");
+                        emitStackMap(stack_slot - 1);
+                    }
+                    /* The class is exact, so its __init__ is known. */
+                    FuncInfo init = Class.methods.get(Class.getMethodIndex("__init__"));
+                    if (init.getFuncName().equals("object.__init__")) {
+                        return;
+                    }
+                    if (options.level != OptLevel.O0 && emitInlineInit(Class, init)) {
+                        return;
+                    }
+                    storeSlot(A0, stack_slot, true, "Push on stack slot " + stack_slot);
                     stack_slot++;
-                    asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Push argument 0 from last.");
+                    storeSlot(A0, stack_slot, true, "Push argument 0 from last.");
                     asmWriter.emitADDI(SP, FP, -(stack_slot) * asmWriter.getWordSize(), "Set SP to last argument.");
-                    asmWriter.emitLW(A1, A0, getDispatchTableOffset(), "Load address of object's dispatch table");
-                    asmWriter.emitLW(A1, A1, getMethodOffset(Class, "__init__"), "Load address of method: " + Class.getClassName() + "__init__");
-                    asmWriter.emitJALR(A1, "Invoke method: " + Class.getClassName()+ "__init__");
+                    asmWriter.emitJAL(init.getCodeLabel(), "Invoke method: " + init.getFuncName());
+                    emitStackMap(stack_slot);
                     asmWriter.emitADDI(SP, FP, "-"+size_label, "Set SP to stack frame top.");
                     stack_slot--;
                     asmWriter.emitLW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Pop stack slot " + stack_slot);
@@ -617,6 +1191,16 @@ public class CodeGenImpl extends CodeGenBase {
             }
             else{
                 FuncInfo function = (FuncInfo)calleeFunctionInfo;
+                Label print = printEntry(function, callExpr);
+                if (print != null) {
+                    dispatchExpr(callExpr.args.get(0));
+                    asmWriter.emitJAL(print, "Invoke function: print");
+                    return;
+                }
+                if (isInlineLen(function, callExpr)) {
+                    emitInlineLen(callExpr.args.get(0));
+                    return;
+                }
                 if (funcInfo != null && !callName.equals(function.getFuncName())) {
                     int jump = funcInfo.getDepth() - function.getDepth() + 1;
                     asmWriter.emitMV(T0, FP, "Get static link to " + funcInfo.getFuncName());
@@ -628,7 +1212,9 @@ public class CodeGenImpl extends CodeGenBase {
                         asmWriter.emitLW(T0, T0, offset, "Get static link to " + curFuncInfo.getFuncName());
                         curFuncInfo = curFuncInfo.getParentFuncInfo();
                     }
-                    asmWriter.emitSW(T0, FP, -(stack_slot) * asmWriter.getWordSize(), "Push Static link");
+                    storeSlot(T0, stack_slot, false, "Push Static link");
+                } else {
+                    noteSlot(stack_slot, false);
                 }
 
     
@@ -648,13 +1234,17 @@ public class CodeGenImpl extends CodeGenBase {
                     if (flag) {
                         stack_slot = ori_stack_slot;
                     }
+                    boolean pointer = isReference(e.getInferredType());
                     if (e.getInferredType().equals(ClassValueType.INT_TYPE) && param_info.getVarType().equals(ClassValueType.OBJECT_TYPE)) {
-                        asmWriter.emitJAL(label_int, "Box integer");
+                        emitBoxInt();
+                        emitStackMap(stack_slot - 1);
+                        pointer = true;
                     }
                     if (e.getInferredType().equals(ClassValueType.BOOL_TYPE) && param_info.getVarType().equals(ClassValueType.OBJECT_TYPE)) {
                         asmWriter.emitJAL(label_bool, "Box boolean");
+                        pointer = true;
                     }
-                    asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(),
+                    storeSlot(A0, stack_slot, pointer,
                             "Push argument " + i + " from last.");
                     stack_slot++;
                     
@@ -668,6 +1258,7 @@ public class CodeGenImpl extends CodeGenBase {
                     equivEmitted = argSize;
                 }
                 asmWriter.emitJAL(function.getCodeLabel(), "Invoke function: " + callName);
+                emitStackMap(stack_slot);
                 asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top.");
                 stack_slot-=argSize;
             }
@@ -676,6 +1267,10 @@ public class CodeGenImpl extends CodeGenBase {
         @Override
         public void visit(MethodCallExpr methodCallExpr) 
         {
+            if (GrowableLists.isAppend(methodCallExpr)) {
+                emitAppendCall(methodCallExpr);
+                return;
+            }
             dispatchExpr(methodCallExpr.method.object);
             int methodargSize = methodCallExpr.args.size();
             
@@ -684,11 +1279,15 @@ public class CodeGenImpl extends CodeGenBase {
             asmWriter.emitJ(errorNone, "Go to error handler");
             asmWriter.emitLocalLabel(label, "Not None");
             stack_slot = stack_slot + methodargSize + 1;
-            asmWriter.emitSW(A0, FP, (methodargSize - stack_slot) * asmWriter.getWordSize(),"Push argument %d from last." + methodargSize);
+            for (int slot = stack_slot - methodargSize - 1; slot <= stack_slot; slot++) {
+                noteSlot(slot, false);
+            }
+            storeSlot(A0, stack_slot - methodargSize, true, "Push argument %d from last." + methodargSize);
 
             for (int i = 0; i < methodargSize; i++) {
-                dispatchExpr(methodCallExpr.args.get(i));
-                asmWriter.emitSW(A0, FP, (methodargSize - i - 1 - stack_slot) * asmWriter.getWordSize(), null);
+                Expr arg = methodCallExpr.args.get(i);
+                dispatchExpr(arg);
+                storeSlot(A0, stack_slot - methodargSize + i + 1, isReference(arg.getInferredType()), null);
             }
             asmWriter.emitLW(A0, FP, (methodargSize- stack_slot) * asmWriter.getWordSize(),"Peek stack slot " + (stack_slot - (methodargSize + 1)));
             ClassInfo classInfo = null;
@@ -696,11 +1295,12 @@ public class CodeGenImpl extends CodeGenBase {
                 classInfo = (ClassInfo)globalSymbols.get(((CallExpr)methodCallExpr.method.object).getInferredType().className());
             else 
                 classInfo = (ClassInfo)globalSymbols.get(methodCallExpr.method.object.getInferredType().className());
-            asmWriter.emitLW(A1, A0, getDispatchTableOffset(), "Load address of object's dispatch table");
+            emitLoadDispatchTable(A1, A0);
             asmWriter.emitLW(A1, A1, getMethodOffset(classInfo, methodCallExpr.method.member.name), 
                 String.format("Load address of method: %s.%s", classInfo.getClassName(), methodCallExpr.method.member.name));
             asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument.");
             asmWriter.emitJALR(A1, "Invoke method: " + classInfo.getClassName() + "." + methodCallExpr.method.member.name);
+            emitStackMap(stack_slot);
             asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
             stack_slot -= methodargSize+1;
     
@@ -709,23 +1309,213 @@ public class CodeGenImpl extends CodeGenBase {
         
         @Override
         public void visit(ListExpr listexpr) {
+            Type type = listexpr.getInferredType();
             int listSize = listexpr.elements.size();
+            boolean packed = isPackedList(type);
+            Label prototype = listPrototype(type);
+            int size = getListSize(type, listSize);
+
+            Integer offset = frameObjects.get(listexpr);
+            if (offset != null) {
+                if (options.compactHeaders) {
+                    int tag = prototype == rawListPrototypeLabel
+                        ? RAW_LIST_TAG : listClass.getTypeTag();
+                    asmWriter.emitLI(T1, compactHeader(tag, size), "Type tag and object size");
+                    asmWriter.emitSW(T1, FP, offset + getTypeTagOffset(), null);
+                } else {
+                    asmWriter.emitLA(T0, prototype, "Load prototype of list");
+                    copyToFrame(HEADER_SIZE, offset);
+                    asmWriter.emitLI(T1, size, "Object size");
+                    asmWriter.emitSW(T1, FP, offset + getObjectSizeOffset(), null);
+                }
+                asmWriter.emitLI(T1, listSize, "Load list length");
+                asmWriter.emitSW(T1, FP, offset + getAttrOffset(listClass, "__len__"), null);
+                for (int i = 0; i < listSize; i++) {
+                    emitListElement(listexpr.elements.get(i), type);
+                    if (packed) {
+                        asmWriter.emitSB(A0, FP, offset + getElementsOffset() + i, "Set element " + i);
+                    } else {
+                        asmWriter.emitSW(A0, FP, offset + getElementsOffset() + i * asmWriter.getWordSize(), "Set element " + i);
+                    }
+                }
+                asmWriter.emitADDI(A0, FP, offset, "New list in frame");
+                return;
+            }
+
+            if (listSize == 0) {
+                asmWriter.emitLA(A0, prototype, "Empty list");
+                emitWrapList();
+                return;
+            }
+            if (isConstantList(listexpr)) {
+                Label label = new Label("const_list_" + constantLists.size());
+                constantLists.put(label, listexpr);
+                for (Expr element : listexpr.elements) {
+                    if (element instanceof StringLiteral str) {
+                        constants.getStrConstant(str.value);
+                    }
+                }
+                asmWriter.emitLA(A0, label, "Load constant list");
+                asmWriter.emitJAL(objectAllocLabel, "Copy constant list");
+                emitStackMap(stack_slot - 1);
+                emitWrapList();
+                return;
+            }
+
+            asmWriter.emitLA(A0, prototype, "Load prototype of list");
+            asmWriter.emitLI(A1, size, "List size in words");
+            asmWriter.emitJAL(new Label("alloc2"), "Allocate list");
+            emitStackMap(stack_slot - 1);
+            asmWriter.emitLI(T0, listSize, "Load list length");
+            asmWriter.emitSW(T0, A0, "@.__len__", null);
+            if (isReference(((ListValueType) type).elementType)
+                && listexpr.elements.stream().anyMatch(this::mayAllocate)) {
+                /* The collector scans the list while elements are made. */
+                for (int i = 0; i < listSize; i++) {
+                    storeElement(ZERO, A0, i, false, null);
+                }
+            }
+            int slot = stack_slot;
+            storeSlot(A0, slot, true, "Save new list");
+            stack_slot++;
             for (int i = 0; i < listSize; i++) {
-                dispatchExpr(listexpr.elements.get(i));
-                
-                asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Load global var: ");
-                stack_slot++;
+                emitListElement(listexpr.elements.get(i), type);
+                asmWriter.emitLW(T0, FP, -slot * asmWriter.getWordSize(), "Load new list");
+                storeElement(A0, T0, i, packed, "Set element " + i);
             }
-            
+            asmWriter.emitLW(A0, FP, -slot * asmWriter.getWordSize(), "Load new list");
+            stack_slot--;
+            emitWrapList();
+        }
 
-            asmWriter.emitLI(A0, listSize, "Load list length");
-            asmWriter.emitSW(A0, FP, -(stack_slot) * asmWriter.getWordSize(), "Load global var: ");
-            asmWriter.emitADDI(SP, FP, -(stack_slot) * asmWriter.getWordSize(), "Set SP to last argument444.");
+        /** Emit code making the plain list in A0 a growable list with no
+         *  room beyond its length, if lists are growable. */
+        private void emitWrapList() {
+            if (growableListClass == null) {
+                return;
+            }
+            storeSlot(A0, stack_slot, true, "Save list of elements");
+            stack_slot++;
+            asmWriter.emitLA(A0, growableListClass.getPrototypeLabel(),
+                             "Load prototype of growable list");
+            asmWriter.emitJAL(objectAllocLabel, "Allocate growable list");
+            emitStackMap(stack_slot - 1);
+            stack_slot--;
+            asmWriter.emitLW(T0, FP, -stack_slot * asmWriter.getWordSize(), "Load list of elements");
+            asmWriter.emitLW(T1, T0, "@.__len__", null);
+            asmWriter.emitSW(T0, A0, getAttrOffset(growableListClass, "__items__"), null);
+            asmWriter.emitSW(T1, A0, "@.__len__", null);
+            asmWriter.emitSW(T1, A0, getAttrOffset(growableListClass, "__cap__"), null);
+        }
 
-            asmWriter.emitJAL(label_conslist, "Move values to new list object");
+        /** Emit CALL, a call of append on a list, which leaves None in
+         *  A0. */
+        private void emitAppendCall(MethodCallExpr call) {
+            Type type = call.method.object.getInferredType();
+            dispatchExpr(call.method.object);
+            storeSlot(A0, stack_slot, true, "Push argument 1 from last.");
+            stack_slot++;
+            emitListElement(call.args.get(0), type);
+            storeSlot(A0, stack_slot, isReference(((ListValueType) type).elementType),
+                      "Push argument 0 from last.");
+            asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument.");
+            asmWriter.emitLA(A0, listPrototype(type), "Load prototype of list of elements");
+            asmWriter.emitJAL(isPackedList(type) ? label_listAppendPacked : label_listAppend,
+                              "Invoke method: append");
+            emitStackMap(stack_slot);
+            asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
+            stack_slot--;
+        }
 
-            asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top.");
-            stack_slot-=listSize;
+        /** Returns the entry point of print for the argument of CALLEXPR,
+         *  a call of FUNCTION, if it is print and the argument's static
+         *  type is int, bool or str, so that it need not be boxed and
+         *  its type tag tested; otherwise null. */
+        private Label printEntry(FuncInfo function, CallExpr callExpr) {
+            if (function != printFunc) {
+                return null;
+            }
+            Type type = callExpr.args.get(0).getInferredType();
+            if (type.equals(Type.INT_TYPE)) {
+                return label_printInt;
+            } else if (type.equals(Type.BOOL_TYPE)) {
+                return label_printBool;
+            } else if (type.equals(Type.STR_TYPE)) {
+                return label_printStr;
+            }
+            return null;
+        }
+
+        /** Returns true iff CALLEXPR, a call of FUNCTION, is a call of len
+         *  whose argument's static type is str or a list type, so that
+         *  its length can be loaded without testing its type tag. */
+        private boolean isInlineLen(FuncInfo function, CallExpr callExpr) {
+            if (function != lenFunc) {
+                return false;
+            }
+            Type type = callExpr.args.get(0).getInferredType();
+            return type.equals(Type.STR_TYPE) || type.isListType();
+        }
+
+        /** Emit code computing in A0 the length of ARG, a str or list,
+         *  aborting as len does if it is None. */
+        private void emitInlineLen(Expr arg) {
+            dispatchExpr(arg);
+            if (arg.getInferredType().isListType()) {
+                Label notNone = generateLocalLabel();
+                asmWriter.emitBNEZ(A0, notNone, "Ensure list is not None");
+                asmWriter.emitJ(errorArg, "None is an illegal argument");
+                asmWriter.emitLocalLabel(notNone, "Get length of list");
+            }
+            asmWriter.emitLW(A0, A0, "@.__len__", "Load attribute: __len__");
+        }
+
+        /** Emit code computing in A0 the value of ELEMENT as an element of
+         *  a list of static type TYPE, boxing ints and bools that go into
+         *  lists of objects. */
+        private void emitListElement(Expr element, Type type) {
+            dispatchExpr(element);
+            if (!isReference(((ListValueType) type).elementType)) {
+                return;
+            }
+            if (element.getInferredType().equals(Type.INT_TYPE)) {
+                emitBoxInt();
+                emitStackMap(stack_slot - 1);
+            } else if (element.getInferredType().equals(Type.BOOL_TYPE)) {
+                asmWriter.emitJAL(label_bool, "Box boolean");
+            }
+        }
+
+        /** Returns true iff evaluating E as a list element may allocate,
+         *  so that the collector may run. */
+        private boolean mayAllocate(Expr e) {
+            return switch (e) {
+            case BooleanLiteral b -> false;
+            case NoneLiteral n -> false;
+            case StringLiteral s -> false;
+            case IntegerLiteral i -> false;
+            case Identifier id -> ropes.reads.contains(id);
+            default -> true;
+            } || e.getInferredType().equals(Type.INT_TYPE);
+        }
+
+        /** Store RS as element INDEX of the list at BASE, a byte iff
+         *  BYTES, using T1 if the offset does not fit an immediate. */
+        private void storeElement(PhysicalRegister rs, PhysicalRegister base,
+                                  int index, boolean bytes, String comment) {
+            int offset = getElementsOffset()
+                + (bytes ? index : index * asmWriter.getWordSize());
+            if (offset >= 2048) {
+                asmWriter.emitLI(T1, offset, null);
+                asmWriter.emitADD(T1, base, T1, null);
+                base = T1;
+                offset = 0;
+            }
+            if (bytes) {
+                asmWriter.emitSB(rs, base, offset, comment);
+            } else {
+                asmWriter.emitSW(rs, base, offset, comment);
+            }
         }
 
         @Override
@@ -735,7 +1525,7 @@ public class CodeGenImpl extends CodeGenBase {
                 Label noErrorLabel = generateLocalLabel();
                 if(indexexpr.list.getInferredType().isListType()){
                     dispatchExpr(indexexpr.list);
-                    asmWriter.emitSW(A0,FP,-stack_slot * asmWriter.getWordSize(),"Push on stack slot 5");
+                    storeSlot(A0, stack_slot, true, "Push on stack slot 5");
                     stack_slot++;
                     dispatchExpr(indexexpr.index);
                     stack_slot--;
@@ -755,16 +1545,22 @@ public class CodeGenImpl extends CodeGenBase {
         
                     // list item selection
                     asmWriter.emitLocalLabel(noErrorLabel, "Index within bound, so compute list selection");
-                    asmWriter.emitADDI(A0, A0, 4, "Word size in bytes");
-                    asmWriter.emitLI(T0, 4, "Word size in bytes");
-                    asmWriter.emitMUL(A0, A0, T0, "Compute list element offset in bytes");
-                    asmWriter.emitADD(A0, A1, A0, "Pointer to list element");
-                    // read value of list element
-                    asmWriter.emitLW(A0, A0, 0, "Get list element");
+                    emitLoadItems(A1);
+                    if (isPackedList(indexexpr.list.getInferredType())) {
+                        asmWriter.emitADD(A0, A1, A0, "Pointer to list element, less offset");
+                        asmWriter.emitLBU(A0, A0, getElementsOffset(), "Get list element");
+                    } else {
+                        asmWriter.emitADDI(A0, A0, headerSize() + 1, "Compute list element offset in words");
+                        asmWriter.emitLI(T0, 4, "Word size in bytes");
+                        asmWriter.emitMUL(A0, A0, T0, "Compute list element offset in bytes");
+                        asmWriter.emitADD(A0, A1, A0, "Pointer to list element");
+                        // read value of list element
+                        asmWriter.emitLW(A0, A0, 0, "Get list element");
+                    }
                 }
                 else{
                     dispatchExpr(indexexpr.list);
-                    asmWriter.emitSW(A0,FP,-stack_slot * asmWriter.getWordSize(),"Push on stack slot 5");
+                    storeSlot(A0, stack_slot, true, "Push on stack slot 5");
                     stack_slot++;
                     dispatchExpr(indexexpr.index);
                     stack_slot--;
@@ -774,15 +1570,14 @@ public class CodeGenImpl extends CodeGenBase {
                     asmWriter.emitJ(errorOob, "Throw index out of bound error");
                     asmWriter.emitLocalLabel(noErrorLabel, "Index within bound, so compute list selection");
                     stack_slot++;
-                    asmWriter.emitSW(A0,FP,-stack_slot * asmWriter.getWordSize(),"Push on stack slot 4");
+                    storeSlot(A0, stack_slot, false, "Push on stack slot 4");
                     asmWriter.emitLW(T0,FP,-stack_slot * asmWriter.getWordSize(),"Pop on stack slot 4");
                     stack_slot--;
                     asmWriter.emitLW(A1,FP,-stack_slot * asmWriter.getWordSize(),"Pop on stack slot 2");
-                    asmWriter.emitADDI(T0, T0, 16, "Word size in bytes");
+                    asmWriter.emitADDI(T0, T0, getAttrOffset(strClass, "__str__"), "Convert index to offset to char in bytes");
                     asmWriter.emitADD(T0, A1, T0, "Get pointer to char");
                     asmWriter.emitLBU(T0, T0, 0, "Load character");
-                    asmWriter.emitLI(T1, 20, "Word size in bytes");
-                    asmWriter.emitMUL(T0, T0, T1, "Multiply by size of string object");
+                    emitCharTableOffset(T0, A0);
                     asmWriter.emitLA(A0,label_allChars,"Index into single-char table");
                     string_exist=true;
                     asmWriter.emitADD(A0, A0, T0, "Get pointer to char");
@@ -887,6 +1682,59 @@ public class CodeGenImpl extends CodeGenBase {
                     asmWriter.emitLW(A0, ((GlobalVarInfo) symbolInfo).getLabel(), "Load global var: " + varName);
                 }
             }
+            if (ropes.reads.contains(identifier)) {
+                emitFlattenRope(varName);
+            }
+        }
+
+        /** Emit code flattening the value in A0 of rope variable NAME,
+         *  of the current scope, if it is a rope, storing the str made
+         *  back into NAME. */
+        private void emitFlattenRope(String name) {
+            Label flat = generateLocalLabel();
+            emitLoadTypeTag(T0, A0);
+            asmWriter.emitLI(T1, ropeClass.getTypeTag(), "Type tag of .rope");
+            asmWriter.emitBNE(T0, T1, flat, "Already a str");
+            storeSlot(A0, stack_slot, true, "Push argument 0 from last.");
+            asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument.");
+            stack_slot++;
+            asmWriter.emitJAL(label_ropeFlatten, "Flatten rope");
+            emitStackMap(stack_slot - 1);
+            asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
+            stack_slot--;
+            SymbolInfo info = sym.get(name);
+            if (info instanceof StackVarInfo) {
+                asmWriter.emitSW(A0, FP, varOffset(name), "Store local var: " + name);
+            } else {
+                Label label = ((GlobalVarInfo) info).getLabel();
+                PhysicalRegister reg = globalVar.get(label);
+                if (reg != null) {
+                    asmWriter.emitMV(reg, A0, "Store global var: " + name);
+                } else {
+                    asmWriter.emitSW(A0, label, T0, "Store global var: " + name);
+                }
+            }
+            asmWriter.emitLocalLabel(flat, null);
+        }
+
+        /** Emit code appending the operands of APPEND to its unflattened
+         *  rope variable with rope.cat, leaving the result in A0. */
+        private void emitRopeAppend(RopeVariables.Append append) {
+            dispatchExpr(append.base());
+            storeSlot(A0, stack_slot, true, "Push argument 1 from last.");
+            stack_slot++;
+            if (append.operands().size() == 1) {
+                dispatchExpr(append.operands().get(0));
+            } else {
+                emitConcatN(Type.STR_TYPE, append.operands());
+            }
+            storeSlot(A0, stack_slot, true, "Push argument 0 from last.");
+            asmWriter.emitADDI(SP, FP, -stack_slot * asmWriter.getWordSize(), "Set SP to last argument.");
+            stack_slot++;
+            asmWriter.emitJAL(label_ropeCat, "Call rope concatenation routine.");
+            emitStackMap(stack_slot - 1);
+            asmWriter.emitADDI(SP, FP, "-" + size_label, "Set SP to stack frame top");
+            stack_slot -= 2;
         }
 
 
@@ -918,9 +1766,9 @@ public class CodeGenImpl extends CodeGenBase {
                 asmWriter.emitLocalLabel(notNoneLabel, "not None");
             }
 
-            asmWriter.emitSW(A0, FP, -stack_slot * asmWriter.getWordSize(), "push on stack slot" + stack_slot);
+            storeSlot(A0, stack_slot, true, "push on stack slot" + stack_slot);
             asmWriter.emitMV(T1, ZERO, "initialize for loop index");
-            asmWriter.emitSW(T1, FP, -(stack_slot + 1) * asmWriter.getWordSize(), "push on stack" + stack_slot + 1);
+            storeSlot(T1, stack_slot + 1, false, "push on stack" + stack_slot + 1);
             stack_slot++;
             stack_slot++;
 
@@ -929,10 +1777,19 @@ public class CodeGenImpl extends CodeGenBase {
             asmWriter.emitLW(T0, FP, -(stack_slot - 2) * asmWriter.getWordSize(), "pop stack" + stack_slot);
             asmWriter.emitLW(T2, T0, "@.__len__", "Get attribute __len__");
             asmWriter.emitBGEU(T1, T2, exitLabel, "exit loop");
-            if(forStmt.iterable.getInferredType().isListType()){
+            if (forStmt.iterable.getInferredType().isListType()) {
+                emitLoadItems(T0);
+            }
+            if (isPackedList(forStmt.iterable.getInferredType())) {
+                asmWriter.emitADD(T2, T0, T1, "Pointer to list element, less offset");
                 asmWriter.emitADDI(T1, T1, 1, "increment index");
                 asmWriter.emitSW(T1, FP, -(stack_slot - 1) * asmWriter.getWordSize(), "Push on stack");
-                asmWriter.emitADDI(T1, T1, 3, "Compute list element offset in words");
+                asmWriter.emitLBU(T0, T2, getElementsOffset(), "Get list element");
+            }
+            else if(forStmt.iterable.getInferredType().isListType()){
+                asmWriter.emitADDI(T1, T1, 1, "increment index");
+                asmWriter.emitSW(T1, FP, -(stack_slot - 1) * asmWriter.getWordSize(), "Push on stack");
+                asmWriter.emitADDI(T1, T1, headerSize(), "Compute list element offset in words");
                 asmWriter.emitLI(T2, 4, "Word size in bytes");
                 asmWriter.emitMUL(T1, T1, T2, "Compute list element offset in bytes");
                 asmWriter.emitADD(T1, T0, T1, "Pointer to list element");
@@ -943,11 +1800,10 @@ public class CodeGenImpl extends CodeGenBase {
                 asmWriter.emitLW(A1, FP, -(stack_slot - 2) * asmWriter.getWordSize(), "peek stack");
                 asmWriter.emitADDI(T1, T0, 1, "increment index");
                 asmWriter.emitSW(T1, FP, -(stack_slot - 1) * asmWriter.getWordSize(), "Push on stack");
-                asmWriter.emitADDI(T0, T0, 16, "Convert index to offset to char in bytes");
+                asmWriter.emitADDI(T0, T0, getAttrOffset(strClass, "__str__"), "Convert index to offset to char in bytes");
                 asmWriter.emitADD(T0, A1, T0, "Pointer to list element");
                 asmWriter.emitLBU(T0, T0, 0, "Load character");
-                asmWriter.emitLI(T1, 20, "Load character");
-                asmWriter.emitMUL(T0, T0, T1, "Multiply by size of string object");
+                emitCharTableOffset(T0, A0);
                 asmWriter.emitLA(A0, label_allChars, "Index into single-char table");
                 string_exist=true;
                 asmWriter.emitADD(T0, A0, T0, "Pointer to list element");
@@ -1031,24 +1887,37 @@ public class CodeGenImpl extends CodeGenBase {
      *
      */
     protected void emitCustomCode() {
-        emitErrorFunc(errorNone, "Operation on None");
-        emitErrorFunc(errorDiv, "Division by zero");
-        emitErrorFunc(errorOob, "Index out of bounds");
         emitMakeBool();
-        emitMakeInt();
-        emitConsList();
         emitStreql();
-        emitStrneql();
-        if(string_exist){
-            emitInitChars();
+        emitConcat(label_concat, false, false, false, false);
+        concatVariants.forEach((label, layout) ->
+                               emitConcat(label, layout[0], layout[1],
+                                          layout[2], layout[3]));
+        if (strcatN) {
+            emitConcatN(label_strcatN, true);
         }
-        else{
-            emitInitChars_2();
+        if (concatN) {
+            emitConcatN(label_concatN, false);
         }
-        emitConcat();
         emitNoconv();
         emitStrcat();
-        
+        if (ropeClass != null) {
+            emitRopeCat();
+            emitRopeFlatten();
+        }
+        if (growableListClass != null) {
+            emitListAppend(label_listAppend, false);
+            emitListAppend(label_listAppendPacked, true);
+        }
+        if (boxesInts) {
+            emitMakeInt();
+        }
+
+        /* Error handlers are cold: keep them out of the way at the end. */
+        emitErrorFunc(errorNone, "Operation on None");
+        emitErrorFunc(errorDiv, "Division by zero");
+        emitErrorFunc(errorOob, "Index out of bounds");
+        emitErrorFunc(errorArg, "Invalid argument");
     }
 
     /** Emit an error routine labeled ERRLABEL that aborts with message MSG. */
@@ -1060,6 +1929,9 @@ public class CodeGenImpl extends CodeGenBase {
         else if(errLabel==errorDiv){
             asmWriter.emitLI(A0, ERROR_DIV_ZERO, "Exit code for: " + msg);  
         }
+        else if(errLabel==errorArg){
+            asmWriter.emitLI(A0, ERROR_ARG, "Exit code for: " + msg);
+        }
         else{
             asmWriter.emitLI(A0, ERROR_OOB, "Exit code for: " + msg);
         }
@@ -1070,203 +1942,261 @@ public class CodeGenImpl extends CodeGenBase {
                          "Load address of attribute __str__");
         asmWriter.emitJ(abortLabel, "Abort");
     }
+    /** Returns log2 of the size in bytes of instances of CLASSINFO, a
+     *  power of two. */
+    private int objectSizeLog2(ClassInfo classInfo) {
+        return Integer.numberOfTrailingZeros(getObjectSize(classInfo)
+                                             * asmWriter.getWordSize());
+    }
+
     private void emitMakeBool() {
         Label falseConstantLabel = constants.getBoolConstant(false);
         asmWriter.emitGlobalLabel(label_bool);
-        asmWriter.emitSLLI(A0, A0, 4, null);
+        asmWriter.emitSLLI(A0, A0, objectSizeLog2(boolClass), null);
         asmWriter.emitLA(T0, falseConstantLabel, null);
         asmWriter.emitADD(A0, A0, T0, null);
         asmWriter.emitJR(RA, null);
     }
 
+    /** Emit a call of makeint, boxing the int in A0. */
+    private void emitBoxInt() {
+        asmWriter.emitJAL(label_int, "Box integer");
+        boxesInts = true;
+    }
+
+    /** Box the int in A0.  Ints in the range of the int cache have a
+     *  preallocated box, found by indexing like makebool.  Others are
+     *  allocated, keeping a frame so that the collector can walk past
+     *  it to the caller.  Emitted only if something calls it, and last
+     *  of the routines that may. */
     private void emitMakeInt() {
         asmWriter.emitGlobalLabel(label_int);
-        asmWriter.emitADDI(SP, SP, -8, null);
-        asmWriter.emitSW(RA, SP, 4, null);
+        if (options.intCacheMin <= options.intCacheMax) {
+            intCacheUsed = true;
+            Label allocate = generateLocalLabel();
+            asmWriter.emitLI(T1, options.intCacheMin, "Least cached int");
+            asmWriter.emitSUB(T0, A0, T1, "Index into int cache");
+            asmWriter.emitLI(T1, options.intCacheMax - options.intCacheMin + 1,
+                             "Number of cached ints");
+            asmWriter.emitBGEU(T0, T1, allocate, "Allocate if not cached");
+            asmWriter.emitSLLI(T0, T0, objectSizeLog2(intClass), null);
+            asmWriter.emitLA(A0, intCacheLabel, null);
+            asmWriter.emitADD(A0, A0, T0, null);
+            asmWriter.emitJR(RA, null);
+            asmWriter.emitLocalLabel(allocate, null);
+        }
+        asmWriter.emitADDI(SP, SP, -12, null);
+        asmWriter.emitSW(RA, SP, 8, null);
+        asmWriter.emitSW(FP, SP, 4, null);
         asmWriter.emitSW(A0, SP, 0, null);
-        asmWriter.emitMV(T5, RA, null);
-        asmWriter.emitMV(T4, A0, null);
+        asmWriter.emitADDI(FP, SP, 12, null);
         ClassInfo intClass = (ClassInfo) globalSymbols.get("int");
         asmWriter.emitLA(A0, intClass.getPrototypeLabel(), null);
         asmWriter.emitJAL(new Label("alloc"), null);
-        asmWriter.emitLW(T0, SP, 0, null);
+        asmWriter.emitLW(T0, FP, -12, null);
         asmWriter.emitSW(T0, A0, getAttrOffset(intClass, "__int__"), null);
-        asmWriter.emitMV(RA, T5, null);
-        asmWriter.emitADDI(SP, SP, 8, null);
+        asmWriter.emitLW(RA, FP, -4, null);
+        asmWriter.emitLW(FP, FP, -8, null);
+        asmWriter.emitADDI(SP, SP, 12, null);
         asmWriter.emitJR(RA, null);
     }
 
-    private void emitConsList() {
-        asmWriter.emitGlobalLabel(label_conslist); 
-    
-        asmWriter.emitADDI(SP, SP, -8, null);
-        asmWriter.emitSW(RA, SP, 4, null);
-        asmWriter.emitSW(FP, SP, 0, null);
-        asmWriter.emitADDI(FP, SP, 8, null);
-    
-        asmWriter.emitLW(A1, FP, 0, null); 
-    
-        ClassInfo listClass = (ClassInfo) globalSymbols.get(".list");
-        asmWriter.emitLA(A0, listClass.getPrototypeLabel(), null);
-    
-        Label doneLabel = generateLocalLabel();
-        asmWriter.emitBEQZ(A1, doneLabel, null);
-    
-        asmWriter.emitADDI(A1, A1, 4, null); 
-        asmWriter.emitJAL(new Label("alloc2"), null);
-    
-        asmWriter.emitLW(T0, FP, 0, null); 
-        asmWriter.emitSW(T0, A0, "@.__len__", null);
-    
-        asmWriter.emitSLLI(T1, T0, 2, null); 
-        asmWriter.emitADD(T1, T1, FP, null); 
-        asmWriter.emitADDI(T2, A0, "@.__elts__", null); 
-    
-        Label loopLabel = generateLocalLabel();
-        asmWriter.emitLocalLabel(loopLabel,null);
-        asmWriter.emitLW(T3, T1, 0, null); 
-        asmWriter.emitSW(T3, T2, 0, null); 
-        asmWriter.emitADDI(T1, T1, -4, null); 
-        asmWriter.emitADDI(T2, T2, 4, null);  
-        asmWriter.emitADDI(T0, T0, -1, null); 
-        asmWriter.emitBNEZ(T0, loopLabel, null); 
-    
-        asmWriter.emitLocalLabel(doneLabel,null);
-        asmWriter.emitLW(RA, FP, -4, null); 
-        asmWriter.emitLW(FP, FP, -8, null); 
-        asmWriter.emitADDI(SP, SP, 8, null); 
-        asmWriter.emitJR(RA, null); 
-    }
-    
+    /**
+     * Emit streql, which returns in A0 1 if the strs that are its two
+     * arguments on the stack are equal and 0 otherwise.  Identical
+     * strs are equal, and strs of different lengths or, under
+     * --intern-strings, both INTERNED are not; others are compared a
+     * word of characters at a time, masking off the bytes of the last
+     * word past the end, which need not be zero.
+     */
     private void emitStreql() {
         asmWriter.emitGlobalLabel(label_streql);
-        asmWriter.emitADDI(SP, SP, -8, null);
-        asmWriter.emitSW(RA, SP, 4, null);
-        asmWriter.emitSW(FP, SP, 0, null);
-        asmWriter.emitADDI(FP, SP, 8, null);
-    
-        asmWriter.emitLW(A1, FP, 4, null); 
-        asmWriter.emitLW(A2, FP, 0, null); 
-    
-        asmWriter.emitLW(T0, A1, "@.__len__", null); 
-        asmWriter.emitLW(T1, A2, "@.__len__", null); 
-        Label notEqualLabel = generateLocalLabel();
-        asmWriter.emitBNE(T0, T1, notEqualLabel, null); 
-    
-        Label loopLabel = generateLocalLabel();
-        Label doneLabel = generateLocalLabel();
-        asmWriter.emitLocalLabel(loopLabel, null);
-        asmWriter.emitBEQZ(T0, doneLabel, null); 
-    
-        asmWriter.emitLBU(T2, A1, 16, null); 
-        asmWriter.emitLBU(T3, A2, 16, null); 
-        asmWriter.emitBNE(T2, T3, notEqualLabel, null); 
-    
-        asmWriter.emitADDI(A1, A1, 1, null); 
-        asmWriter.emitADDI(A2, A2, 1, null); 
-        asmWriter.emitADDI(T0, T0, -1, null); 
-        asmWriter.emitJ(loopLabel, null); 
-    
-        Label endLabel = generateLocalLabel();
-        asmWriter.emitLocalLabel(doneLabel, null);
-        asmWriter.emitLI(A0, 1, null); 
-        asmWriter.emitJ(endLabel, null); 
-    
-        asmWriter.emitLocalLabel(notEqualLabel, null);
-        asmWriter.emitXOR(A0, A0, A0, null); 
-    
-        asmWriter.emitLocalLabel(endLabel, null);
-        asmWriter.emitLW(RA, FP, -4, null); 
-        asmWriter.emitLW(FP, FP, -8, null); 
-        asmWriter.emitADDI(SP, SP, 8, null); 
-        asmWriter.emitJR(RA, null); 
+        Label equal = generateLocalLabel();
+        Label notEqual = generateLocalLabel();
+        Label loop = generateLocalLabel();
+        Label tail = generateLocalLabel();
+        int chars = getAttrOffset(strClass, "__str__");
+
+        asmWriter.emitLW(A1, SP, 4, "Load left argument");
+        asmWriter.emitLW(A2, SP, 0, "Load right argument");
+        asmWriter.emitLI(A0, 1, null);
+        asmWriter.emitBEQ(A1, A2, equal, "Same object");
+        asmWriter.emitLW(T0, A1, "@.__len__", null);
+        asmWriter.emitLW(T1, A2, "@.__len__", null);
+        asmWriter.emitBNE(T0, T1, notEqual, "Lengths differ");
+        if (options.internStrings) {
+            int sizeWord = options.compactHeaders ? 0 : asmWriter.getWordSize();
+            asmWriter.emitLW(T1, A1, sizeWord, null);
+            asmWriter.emitLW(T2, A2, sizeWord, null);
+            asmWriter.emitAND(T1, T1, T2, null);
+            asmWriter.emitBLTZ(T1, notEqual, "Distinct interned strs");
+        }
+        asmWriter.emitADDI(A1, A1, chars, null);
+        asmWriter.emitADDI(A2, A2, chars, null);
+        asmWriter.emitADDI(T0, T0, -asmWriter.getWordSize(), "Bytes left after the next word");
+        asmWriter.emitBLTZ(T0, tail, null);
+        asmWriter.emitLocalLabel(loop, "Compare a word of characters");
+        asmWriter.emitLW(T1, A1, 0, null);
+        asmWriter.emitLW(T2, A2, 0, null);
+        asmWriter.emitBNE(T1, T2, notEqual, null);
+        asmWriter.emitADDI(A1, A1, asmWriter.getWordSize(), null);
+        asmWriter.emitADDI(A2, A2, asmWriter.getWordSize(), null);
+        asmWriter.emitADDI(T0, T0, -asmWriter.getWordSize(), null);
+        asmWriter.emitBGEZ(T0, loop, null);
+        asmWriter.emitLocalLabel(tail, "Compare the last 0-3 characters");
+        asmWriter.emitADDI(T0, T0, asmWriter.getWordSize(), null);
+        asmWriter.emitBEQZ(T0, equal, null);
+        asmWriter.emitLW(T1, A1, 0, null);
+        asmWriter.emitLW(T2, A2, 0, null);
+        asmWriter.emitXOR(T1, T1, T2, null);
+        asmWriter.emitSLLI(T0, T0, 3, "Bits in the characters left");
+        asmWriter.emitLI(T2, 1, null);
+        asmWriter.emitSLL(T2, T2, T0, null);
+        asmWriter.emitADDI(T2, T2, -1, "Mask of the characters left");
+        asmWriter.emitAND(T1, T1, T2, null);
+        asmWriter.emitSEQZ(A0, T1, null);
+        asmWriter.emitJR(RA, null);
+        asmWriter.emitLocalLabel(notEqual, null);
+        asmWriter.emitMV(A0, ZERO, null);
+        asmWriter.emitLocalLabel(equal, null);
+        asmWriter.emitJR(RA, null);
     }
 
-    private void emitStrneql() {
-        asmWriter.emitGlobalLabel(label_strneql);
-    
-        asmWriter.emitADDI(SP, SP, -8, null);
-        asmWriter.emitSW(RA, SP, 4, null);
-        asmWriter.emitSW(FP, SP, 0, null);
-        asmWriter.emitADDI(FP, SP, 8, null);
-    
-        asmWriter.emitLW(A1, FP, 4, null); 
-        asmWriter.emitLW(A2, FP, 0, null); 
-    
-        asmWriter.emitLW(T0, A1, "@.__len__", null); 
-        asmWriter.emitLW(T1, A2, "@.__len__", null); 
-        Label notEqualLabel = generateLocalLabel();
-        asmWriter.emitBNE(T0, T1, notEqualLabel, null); 
-    
-        Label loopLabel = generateLocalLabel();
-        Label endLabel = generateLocalLabel();
-        asmWriter.emitLocalLabel(loopLabel, null);
-    
-        asmWriter.emitLBU(T2, A1, 16, null); 
-        asmWriter.emitLBU(T3, A2, 16, null); 
-        asmWriter.emitBNE(T2, T3, notEqualLabel, null); 
-    
-        asmWriter.emitADDI(A1, A1, 1, null); 
-        asmWriter.emitADDI(A2, A2, 1, null); 
-        asmWriter.emitADDI(T0, T0, -1, null); 
-        asmWriter.emitBGTZ(T0, loopLabel, null); 
-        asmWriter.emitXOR(A0, A0, A0, null); 
-
-        asmWriter.emitJ(endLabel, null); 
-    
-        asmWriter.emitLocalLabel(notEqualLabel, null);
-        asmWriter.emitLI(A0, 1, null); 
-    
-        asmWriter.emitLocalLabel(endLabel, null);
-    
-        asmWriter.emitLW(RA, FP, -4, null); 
-        asmWriter.emitLW(FP, FP, -8, null); 
-        asmWriter.emitADDI(SP, SP, 8, null); 
-        asmWriter.emitJR(RA, null); 
+    /** Emit code multiplying the character in REG by the size of a
+     *  one-character str, the distance in bytes between the strings of
+     *  allChars, using TEMP.  Sizes with two bits set, as with both
+     *  header layouts, take two shifts and an add. */
+    private void emitCharTableOffset(PhysicalRegister reg,
+                                     PhysicalRegister temp) {
+        int size = getObjectSize(strClass) * asmWriter.getWordSize();
+        int low = Integer.numberOfTrailingZeros(size);
+        int high = 31 - Integer.numberOfLeadingZeros(size);
+        if (low == high) {
+            asmWriter.emitSLLI(reg, reg, low, "Multiply by size of single-char str");
+        } else if (Integer.bitCount(size) == 2) {
+            asmWriter.emitSLLI(temp, reg, high, "Multiply by size of single-char str");
+            asmWriter.emitSLLI(reg, reg, low, null);
+            asmWriter.emitADD(reg, reg, temp, null);
+        } else {
+            asmWriter.emitLI(temp, size, "Size of single-char str");
+            asmWriter.emitMUL(reg, reg, temp, null);
+        }
     }
 
-    private void emitInitChars() {
-        asmWriter.emitGlobalLabel(label_initchars);
-
-        asmWriter.emitLA(A0, new Label("$str$prototype"), null);
-        asmWriter.emitLW(T0, A0, 0, null);  
-        asmWriter.emitLW(T1, A0, 4, null); 
-        asmWriter.emitLW(T2, A0, 8, null); 
-        asmWriter.emitLI(T3, 1, null);    
-        asmWriter.emitLA(A0, label_allChars, null); 
-        asmWriter.emitLI(T4, 256, null);                 
-        asmWriter.emitMV(T5, ZERO, null);                
-    
-        Label loopLabel = generateLocalLabel();
+    @Override
+    protected void emitConstants() {
+        if (string_exist || options.internStrings) {
+            emitAllChars();
+        }
+        super.emitConstants();
+        constantLists.forEach(this::emitConstantList);
+    }
 
-        // Loop start
-        asmWriter.emitLocalLabel(loopLabel, null);
-    
-        asmWriter.emitSW(T0, A0, 0, null);  // Store first word
-        asmWriter.emitSW(T1, A0, 4, null); // Store second word
-        asmWriter.emitSW(T2, A0, 8, null); // Store third word
-        asmWriter.emitSW(T3, A0, 12, null); 
-        asmWriter.emitSW(T5, A0, 16, null); 
-    
-        //next object
-        asmWriter.emitADDI(A0, A0, 20, null); 
-        asmWriter.emitADDI(T5, T5, 1, null); 
-    
-        asmWriter.emitBNE(T4, T5, loopLabel, null); 
-        asmWriter.emitJR(RA, null); 
+    /** Returns true iff the elements of LISTEXPR are all constants that
+     *  need no boxing as its elements, and there are at most
+     *  MAX_CONSTANT_LIST_LENGTH of them. */
+    private boolean isConstantList(ListExpr listexpr) {
+        if (listexpr.elements.size() > MAX_CONSTANT_LIST_LENGTH) {
+            return false;
+        }
+        boolean raw = listPrototype(listexpr.getInferredType())
+            == rawListPrototypeLabel;
+        for (Expr element : listexpr.elements) {
+            boolean constant = switch (element) {
+            case IntegerLiteral i -> raw;
+            case BooleanLiteral b -> true;
+            case StringLiteral str -> true;
+            case NoneLiteral n -> true;
+            default -> false;
+            };
+            if (!constant) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        asmWriter.emitInsn(".data");
-        asmWriter.emitInsn(".align 2");
-        asmWriter.emitInsn(".globl allChars");
-        asmWriter.emitLocalLabel(label_allChars, "all chars label");
-        asmWriter.emitInsn(".space 5120");
-        asmWriter.emitInsn(".text");
+    /** Emit at LABEL the list made by LISTEXPR, a display of constants,
+     *  for copying into the heap. */
+    private void emitConstantList(Label label, ListExpr listexpr) {
+        Type type = listexpr.getInferredType();
+        boolean raw = listPrototype(type) == rawListPrototypeLabel;
+        int length = listexpr.elements.size();
+        int size = getListSize(type, length);
+        asmWriter.emitGlobalLabel(label);
+        if (options.compactHeaders) {
+            asmWriter.emitWordLiteral(
+                compactHeader(raw ? RAW_LIST_TAG : listClass.getTypeTag(), size),
+                "Type tag for .list, object size");
+        } else {
+            asmWriter.emitWordLiteral(listClass.getTypeTag(),
+                                      "Type tag for class: .list");
+            asmWriter.emitWordLiteral(size, "Object size");
+            asmWriter.emitWordLiteral(raw ? 1 : 0, "Element kind");
+        }
+        asmWriter.emitWordLiteral(length, "Constant value of attribute: __len__");
+        if (isPackedList(type)) {
+            for (int i = 0; i < length; i += 4) {
+                int word = 0;
+                for (int j = i; j < Math.min(i + 4, length); j++) {
+                    if (((BooleanLiteral) listexpr.elements.get(j)).value) {
+                        word |= 1 << (8 * (j - i));
+                    }
+                }
+                asmWriter.emitWordLiteral(word, "Elements " + i + " on");
+            }
+        } else {
+            for (Expr element : listexpr.elements) {
+                switch (element) {
+                case IntegerLiteral i ->
+                    asmWriter.emitWordLiteral(i.value, null);
+                case BooleanLiteral b when raw ->
+                    asmWriter.emitWordLiteral(b.value ? 1 : 0, null);
+                case BooleanLiteral b ->
+                    asmWriter.emitWordAddress(constants.getBoolConstant(b.value), null);
+                case StringLiteral str ->
+                    asmWriter.emitWordAddress(constants.getStrConstant(str.value), null);
+                default -> asmWriter.emitWordLiteral(0, "None");
+                }
+            }
+        }
+        alignObject();
+    }
 
+    @Override
+    protected boolean isCharTableEntry(String value) {
+        return options.internStrings && value.length() == 1;
     }
 
+    /** Emit allChars, the table of the 256 one-character strs, as
+     *  consecutive constants.  Under --intern-strings these are the
+     *  one-character str constants. */
+    private void emitAllChars() {
+        alignObject();
+        asmWriter.emitGlobalLabel(label_allChars);
+        for (int c = 0; c < 256; c++) {
+            Label label = constants.strConstants.get(String.valueOf((char) c));
+            if (label != null && options.internStrings) {
+                asmWriter.emitGlobalLabel(label);
+            }
+            emitObjectHeader(strClass, getObjectSize(strClass), options.internStrings);
+            asmWriter.emitWordLiteral(1, "Constant value of attribute: __len__");
+            asmWriter.emitWordLiteral(c, "Constant value of attribute: __str__");
+        }
+    }
 
-    private void emitConcat() {
-        asmWriter.emitGlobalLabel(label_concat);
+    /** Emit the routine LABEL concatenating two lists into one made from
+     *  the prototype in A0.  The elements of the left and right lists
+     *  are bytes iff LEFTPACKED and RIGHTPACKED; those of the result are
+     *  bytes iff both are, and are otherwise the words returned by the
+     *  conversion routines passed for each operand.  The left and right
+     *  elements are instead unboxed ints that get boxed with makeint
+     *  iff LEFTBOXED and RIGHTBOXED. */
+    private void emitConcat(Label label, boolean leftPacked,
+                            boolean rightPacked, boolean leftBoxed,
+                            boolean rightBoxed) {
+        boolean packed = leftPacked && rightPacked;
+        asmWriter.emitGlobalLabel(label);
     
         // Prologue
         asmWriter.emitADDI(SP, SP, -32, null);
@@ -1278,6 +2208,7 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitSW(S3, FP, -20, null);
         asmWriter.emitSW(S4, FP, -24, null);
         asmWriter.emitSW(S5, FP, -28, null);
+        asmWriter.emitSW(A0, FP, -32, null);
     
         // Check if any of the input lists is null
         asmWriter.emitLW(T0, FP, 4, null);
@@ -1290,49 +2221,46 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitLW(T0, T0, "@.__len__", null);
         asmWriter.emitLW(T1, T1, "@.__len__", null);
         asmWriter.emitADD(S5, T0, T1, null);
-        asmWriter.emitADDI(A1, S5, 4, null);
-        asmWriter.emitLA(A0, new Label("$.list$prototype"), null);
+        if (packed) {
+            asmWriter.emitADDI(A1, S5, 3, null);
+            asmWriter.emitSRLI(A1, A1, 2, null);
+            asmWriter.emitADDI(A1, A1, headerSize() + 1, null);
+        } else {
+            asmWriter.emitADDI(A1, S5, headerSize() + 1, null);
+        }
+        asmWriter.emitLW(A0, FP, -32, null);
         asmWriter.emitJAL(new Label("alloc2"), null);
         asmWriter.emitSW(S5, A0, "@.__len__", null);
+        if (leftBoxed || rightBoxed) {
+            emitClearElements(A0, S5);
+            asmWriter.emitSW(A0, FP, -32, "Result, a root while boxing");
+        }
         asmWriter.emitMV(S5, A0, null);
     
         // Prepare pointers
         asmWriter.emitADDI(S3, S5, "@.__elts__", null);
         asmWriter.emitLW(S1, FP, 4, null);
         asmWriter.emitLW(S2, S1, "@.__len__", null);
-        asmWriter.emitADDI(S1, S1, "@.__elts__", null);
-        asmWriter.emitLW(S4, FP, 12, null);
-    
-        Label concatLoop1 = generateLocalLabel();
-        Label concatLoop2 = generateLocalLabel();
-        Label concatLoop3 = generateLocalLabel();
-        Label concatEnd = generateLocalLabel();
-        asmWriter.emitLocalLabel(concatLoop1, null);
-        asmWriter.emitBEQZ(S2, concatLoop2, null);
-        asmWriter.emitLW(A0, S1, 0, null);
-        asmWriter.emitJALR(RA, S4, 0, null);
-        asmWriter.emitSW(A0, S3, 0, null);
-        asmWriter.emitADDI(S2, S2, -1, null);
-        asmWriter.emitADDI(S1, S1, 4, null);
-        asmWriter.emitADDI(S3, S3, 4, null);
-        asmWriter.emitJ(concatLoop1, null);
-    
-        asmWriter.emitLocalLabel(concatLoop2, null);
+        if (leftBoxed) {
+            emitBoxElements(4);
+        } else {
+            emitLoadItems(S1);
+            asmWriter.emitADDI(S1, S1, "@.__elts__", null);
+            asmWriter.emitLW(S4, FP, 12, null);
+            emitCopyElements(leftPacked, packed);
+        }
+
         asmWriter.emitLW(S1, FP, 0, null);
         asmWriter.emitLW(S2, S1, "@.__len__", null);
-        asmWriter.emitADDI(S1, S1, "@.__elts__", null);
-        asmWriter.emitLW(S4, FP, 8, null);
-        asmWriter.emitLocalLabel(concatLoop3, null);
-        asmWriter.emitBEQZ(S2, concatEnd, null);
-        asmWriter.emitLW(A0, S1, 0, null);
-        asmWriter.emitJALR(RA, S4, 0, null);
-        asmWriter.emitSW(A0, S3, 0, null);
-        asmWriter.emitADDI(S2, S2, -1, null);
-        asmWriter.emitADDI(S1, S1, 4, null);
-        asmWriter.emitADDI(S3, S3, 4, null);
-        asmWriter.emitJ(concatLoop3, null);
-    
-        asmWriter.emitLocalLabel(concatEnd, null);
+        if (rightBoxed) {
+            emitBoxElements(0);
+        } else {
+            emitLoadItems(S1);
+            asmWriter.emitADDI(S1, S1, "@.__elts__", null);
+            asmWriter.emitLW(S4, FP, 8, null);
+            emitCopyElements(rightPacked, packed);
+        }
+
         asmWriter.emitMV(A0, S5, null);
     
         asmWriter.emitLW(S1, FP, -12, null);
@@ -1348,16 +2276,382 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitLocalLabel(concatNoneLabel, null);
         asmWriter.emitJ(new Label("error.None"), null);
     }
-    
-    private void emitInitChars_2() {
-        asmWriter.emitGlobalLabel(label_initchars);
-        asmWriter.emitJR(RA,null);
+
+    /**
+     * Emit the routine LABEL concatenating the strs, if STR, or else the
+     * lists that are its A2 arguments on the stack, at least one, into
+     * a new object.  Lists are made from the prototype in A0 and have
+     * elements of 2**A1 bytes, as do the arguments, which may not be
+     * None.  strs get a terminating zero byte.
+     */
+    private void emitConcatN(Label label, boolean str) {
+        String data = str ? "@.__str__" : "@.__elts__";
+        asmWriter.emitGlobalLabel(label);
+        asmWriter.emitADDI(SP, SP, -28, null);
+        asmWriter.emitSW(RA, SP, 24, null);
+        asmWriter.emitSW(FP, SP, 20, null);
+        asmWriter.emitADDI(FP, SP, 28, null);
+        asmWriter.emitSW(S1, FP, -12, null);
+        asmWriter.emitSW(S2, FP, -16, null);
+        asmWriter.emitSW(S3, FP, -20, null);
+        if (str) {
+            asmWriter.emitLA(A0, strClass.getPrototypeLabel(), null);
+            asmWriter.emitMV(S2, ZERO, "Elements are bytes");
+        } else {
+            asmWriter.emitMV(S2, A1, "log2 of element size");
+        }
+        asmWriter.emitSLLI(S3, A2, 2, null);
+        asmWriter.emitADD(S3, FP, S3, "Past the first argument");
+
+        Label sum = generateLocalLabel();
+        asmWriter.emitMV(T1, FP, null);
+        asmWriter.emitMV(T2, ZERO, null);
+        asmWriter.emitLocalLabel(sum, "Sum the lengths");
+        asmWriter.emitLW(T3, T1, 0, null);
+        if (!str) {
+            asmWriter.emitBEQZ(T3, errorNone, null);
+        }
+        asmWriter.emitLW(T3, T3, "@.__len__", null);
+        asmWriter.emitADD(T2, T2, T3, null);
+        asmWriter.emitADDI(T1, T1, 4, null);
+        asmWriter.emitBNE(T1, S3, sum, null);
+        asmWriter.emitSW(T2, FP, -24, "Total length");
+        asmWriter.emitSLL(A1, T2, S2, null);
+        asmWriter.emitADDI(A1, A1, str ? 4 : 3, str ? "Round up, leaving a zero byte" : "Round up");
+        asmWriter.emitSRLI(A1, A1, 2, null);
+        asmWriter.emitADDI(A1, A1, headerSize() + 1, null);
+        asmWriter.emitJAL(new Label("alloc2"), null);
+        asmWriter.emitLW(T2, FP, -24, null);
+        asmWriter.emitSW(T2, A0, "@.__len__", null);
+        asmWriter.emitMV(S1, A0, null);
+        asmWriter.emitADDI(A0, A0, data, null);
+
+        Label copy = generateLocalLabel();
+        asmWriter.emitLocalLabel(copy, "Copy each argument, first to last");
+        asmWriter.emitADDI(S3, S3, -4, null);
+        asmWriter.emitLW(A1, S3, 0, null);
+        asmWriter.emitLW(A2, A1, "@.__len__", null);
+        if (!str) {
+            emitLoadItems(A1);
+        }
+        asmWriter.emitSLL(A2, A2, S2, null);
+        asmWriter.emitADDI(A1, A1, data, null);
+        asmWriter.emitJAL(label_memcpy, null);
+        asmWriter.emitMV(A0, T0, null);
+        asmWriter.emitBNE(S3, FP, copy, null);
+        if (str) {
+            asmWriter.emitSB(ZERO, T0, 0, null);
+        }
+
+        asmWriter.emitMV(A0, S1, null);
+        asmWriter.emitLW(S1, FP, -12, null);
+        asmWriter.emitLW(S2, FP, -16, null);
+        asmWriter.emitLW(S3, FP, -20, null);
+        asmWriter.emitLW(RA, FP, -4, null);
+        asmWriter.emitLW(FP, FP, -8, null);
+        asmWriter.emitADDI(SP, SP, 28, null);
+        asmWriter.emitJR(RA, null);
+    }
+
+    /** Emit code copying the S2 elements at S1 to S3 and advancing S3
+     *  past them, for concatenation.  The source elements are bytes iff
+     *  FROMPACKED, and the destination's iff TOPACKED; the elements are
+     *  copied with memcpy unless a word destination needs each element
+     *  converted by the routine in S4.  (Otherwise that routine is
+     *  noconv.) */
+    private void emitCopyElements(boolean fromPacked, boolean toPacked) {
+        if (fromPacked == toPacked) {
+            asmWriter.emitMV(A0, S3, null);
+            asmWriter.emitMV(A1, S1, null);
+            if (fromPacked) {
+                asmWriter.emitMV(A2, S2, null);
+            } else {
+                asmWriter.emitSLLI(A2, S2, 2, null);
+            }
+            asmWriter.emitJAL(label_memcpy, "Copy elements");
+            asmWriter.emitMV(S3, T0, null);
+            return;
+        }
+        Label loop = generateLocalLabel();
+        Label done = generateLocalLabel();
+        asmWriter.emitLocalLabel(loop, null);
+        asmWriter.emitBEQZ(S2, done, null);
+        emitCopyElement(fromPacked, toPacked);
+        asmWriter.emitADDI(S2, S2, -1, null);
+        asmWriter.emitJ(loop, null);
+        asmWriter.emitLocalLabel(done, null);
+    }
+
+    /** Emit code zeroing the LENGTH elements of the list of words in
+     *  LIST, so that the collector finds only None in those not yet
+     *  stored.  Clobbers T0 and T1. */
+    private void emitClearElements(PhysicalRegister list,
+                                   PhysicalRegister length) {
+        Label loop = generateLocalLabel();
+        Label done = generateLocalLabel();
+        asmWriter.emitADDI(T0, list, "@.__elts__", null);
+        asmWriter.emitSLLI(T1, length, 2, null);
+        asmWriter.emitADD(T1, T0, T1, "End of elements");
+        asmWriter.emitLocalLabel(loop, null);
+        asmWriter.emitBEQ(T0, T1, done, null);
+        asmWriter.emitSW(ZERO, T0, 0, null);
+        asmWriter.emitADDI(T0, T0, 4, null);
+        asmWriter.emitJ(loop, null);
+        asmWriter.emitLocalLabel(done, null);
+    }
+
+    /** Emit code boxing the S2 ints of the list at OFFSET from FP into
+     *  the result of concatenation at S3, in S5, advancing S3 past them.
+     *  makeint may collect garbage, so the lists are reloaded from the
+     *  frame after each call, whose stack map holds the result, and
+     *  positions in them are kept as offsets. */
+    private void emitBoxElements(int offset) {
+        Label loop = generateLocalLabel();
+        Label done = generateLocalLabel();
+        Label site = generateLocalLabel();
+        boxesInts = true;
+        addStackMap(site, List.of(-32));
+        asmWriter.emitSUB(S3, S3, S5, "Offset of next result element");
+        asmWriter.emitADDI(S1, ZERO, "@.__elts__", "Offset of next int");
+        asmWriter.emitLocalLabel(loop, null);
+        asmWriter.emitBEQZ(S2, done, null);
+        asmWriter.emitLW(A0, FP, offset, null);
+        emitLoadItems(A0);
+        asmWriter.emitADD(A0, A0, S1, null);
+        asmWriter.emitLW(A0, A0, 0, null);
+        asmWriter.emitJAL(label_int, "Box integer");
+        asmWriter.emitLocalLabel(site, "Return address (stack map)");
+        asmWriter.emitLW(S5, FP, -32, "Result, possibly moved");
+        asmWriter.emitADD(T0, S5, S3, null);
+        asmWriter.emitSW(A0, T0, 0, null);
+        asmWriter.emitADDI(S1, S1, 4, null);
+        asmWriter.emitADDI(S3, S3, 4, null);
+        asmWriter.emitADDI(S2, S2, -1, null);
+        asmWriter.emitJ(loop, null);
+        asmWriter.emitLocalLabel(done, null);
+        asmWriter.emitADD(S3, S5, S3, null);
+    }
+
+    /** Emit code copying the element at S1 to S3 and advancing both, for
+     *  concatenation.  The source is a byte iff FROMPACKED, and the
+     *  destination iff TOPACKED; a word destination gets the element
+     *  converted by the routine in S4. */
+    private void emitCopyElement(boolean fromPacked, boolean toPacked) {
+        if (fromPacked) {
+            asmWriter.emitLBU(A0, S1, 0, null);
+        } else {
+            asmWriter.emitLW(A0, S1, 0, null);
+        }
+        if (toPacked) {
+            asmWriter.emitSB(A0, S3, 0, null);
+        } else {
+            asmWriter.emitJALR(RA, S4, 0, null);
+            asmWriter.emitSW(A0, S3, 0, null);
+        }
+        asmWriter.emitADDI(S1, S1, fromPacked ? 1 : 4, null);
+        asmWriter.emitADDI(S3, S3, toPacked ? 1 : 4, null);
     }
+    
     private void emitNoconv() {
         asmWriter.emitGlobalLabel(label_noconv);
         asmWriter.emitJR(RA,null);
     }
 
+    /** Emit code replacing the list in R, not None, by the plain list
+     *  holding its elements, if lists are growable. */
+    private void emitLoadItems(PhysicalRegister r) {
+        if (growableListClass != null) {
+            asmWriter.emitLW(r, r, getAttrOffset(growableListClass, "__items__"),
+                             "Load list of elements");
+        }
+    }
+
+    /**
+     * Emit the routine LABEL appending its argument 0 to its argument 1,
+     * a growable list, whose elements are bytes iff PACKED.  A full list
+     * first gets a plain list of twice its capacity, and at least 4,
+     * made from the prototype in A0 and holding a copy of its elements,
+     * so that appending n elements copies fewer than 2n.
+     */
+    private void emitListAppend(Label label, boolean packed) {
+        int cap = getAttrOffset(growableListClass, "__cap__");
+        int items = getAttrOffset(growableListClass, "__items__");
+        Label store = generateLocalLabel();
+        Label grow = generateLocalLabel();
+        Label atLeast4 = generateLocalLabel();
+        asmWriter.emitGlobalLabel(label);
+        asmWriter.emitLW(T0, SP, 4, "Load list");
+        asmWriter.emitBEQZ(T0, errorNone, null);
+        asmWriter.emitLW(T1, T0, "@.__len__", null);
+        asmWriter.emitLW(T2, T0, cap, null);
+        asmWriter.emitBEQ(T1, T2, grow, "No room left");
+        asmWriter.emitLocalLabel(store, "Store the element at index T1");
+        asmWriter.emitLW(T2, T0, items, null);
+        asmWriter.emitLW(T3, SP, 0, "Load element");
+        if (packed) {
+            asmWriter.emitADD(T4, T2, T1, null);
+            asmWriter.emitSB(T3, T4, getElementsOffset(), null);
+        } else {
+            asmWriter.emitSLLI(T4, T1, 2, null);
+            asmWriter.emitADD(T4, T2, T4, null);
+            asmWriter.emitSW(T3, T4, getElementsOffset(), null);
+        }
+        asmWriter.emitADDI(T1, T1, 1, null);
+        asmWriter.emitSW(T1, T0, "@.__len__", null);
+        asmWriter.emitSW(T1, T2, "@.__len__", null);
+        asmWriter.emitMV(A0, ZERO, "Return None");
+        asmWriter.emitJR(RA, null);
+
+        asmWriter.emitLocalLabel(grow, "Make room");
+        asmWriter.emitADDI(SP, SP, -16, null);
+        asmWriter.emitSW(RA, SP, 12, null);
+        asmWriter.emitSW(FP, SP, 8, null);
+        asmWriter.emitADDI(FP, SP, 16, null);
+        asmWriter.emitSLLI(T2, T2, 1, null);
+        asmWriter.emitLI(T3, 4, null);
+        asmWriter.emitBGE(T2, T3, atLeast4, null);
+        asmWriter.emitMV(T2, T3, null);
+        asmWriter.emitLocalLabel(atLeast4, null);
+        asmWriter.emitSW(T2, FP, -12, "New capacity");
+        if (packed) {
+            asmWriter.emitADDI(A1, T2, 3, null);
+            asmWriter.emitSRLI(A1, A1, 2, null);
+            asmWriter.emitADDI(A1, A1, headerSize() + 1, null);
+        } else {
+            asmWriter.emitADDI(A1, T2, headerSize() + 1, null);
+        }
+        asmWriter.emitJAL(objectAllocResizeLabel, null);
+        asmWriter.emitLW(T0, FP, 4, "Reload list");
+        asmWriter.emitLW(A1, T0, items, null);
+        asmWriter.emitSW(A0, T0, items, null);
+        asmWriter.emitLW(T1, FP, -12, null);
+        asmWriter.emitSW(T1, T0, cap, null);
+        asmWriter.emitLW(A2, A1, "@.__len__", null);
+        asmWriter.emitSW(A2, A0, "@.__len__", null);
+        if (!packed) {
+            asmWriter.emitSLLI(A2, A2, 2, null);
+        }
+        asmWriter.emitADDI(A0, A0, "@.__elts__", null);
+        asmWriter.emitADDI(A1, A1, "@.__elts__", null);
+        asmWriter.emitJAL(label_memcpy, "Copy elements");
+        asmWriter.emitLW(T0, FP, 4, null);
+        asmWriter.emitLW(T1, T0, "@.__len__", null);
+        asmWriter.emitLW(RA, FP, -4, null);
+        asmWriter.emitLW(FP, FP, -8, null);
+        asmWriter.emitADDI(SP, SP, 16, null);
+        asmWriter.emitJ(store, null);
+    }
+
+    /** Emit code loading into RD the type tag of the object in OBJ. */
+    private void emitLoadTypeTag(PhysicalRegister rd, PhysicalRegister obj) {
+        if (options.compactHeaders) {
+            asmWriter.emitLB(rd, obj, getTypeTagOffset(), "Load type tag");
+        } else {
+            asmWriter.emitLW(rd, obj, getTypeTagOffset(), "Load type tag");
+        }
+    }
+
+    /**
+     * Emit rope.cat, which appends its argument 0, a str, to its
+     * argument 1, a str or rope, like strcat.  A result shorter than
+     * options.ropeThreshold, or an append of the empty str, is left to
+     * strcat; since a rope is never shorter, strcat only sees a rope
+     * when it is to return it unchanged.  Otherwise the result is a new
+     * rope node.
+     */
+    private void emitRopeCat() {
+        Label flat = generateLocalLabel();
+        asmWriter.emitGlobalLabel(label_ropeCat);
+        asmWriter.emitLW(T0, SP, 4, null);
+        asmWriter.emitLW(T0, T0, "@.__len__", null);
+        asmWriter.emitLW(T1, SP, 0, null);
+        asmWriter.emitLW(T1, T1, "@.__len__", null);
+        asmWriter.emitBEQZ(T1, flat, "Nothing to append");
+        asmWriter.emitADD(T2, T0, T1, "Length of result");
+        asmWriter.emitLI(T3, options.ropeThreshold, "Rope threshold");
+        asmWriter.emitBLT(T2, T3, flat, "Short enough to copy");
+
+        asmWriter.emitADDI(SP, SP, -12, null);
+        asmWriter.emitSW(RA, SP, 8, null);
+        asmWriter.emitSW(FP, SP, 4, null);
+        asmWriter.emitADDI(FP, SP, 12, null);
+        asmWriter.emitSW(T2, FP, -12, null);
+        asmWriter.emitLA(A0, ropeClass.getPrototypeLabel(), null);
+        asmWriter.emitJAL(objectAllocLabel, "Allocate rope node");
+        asmWriter.emitLW(T0, FP, -12, null);
+        asmWriter.emitSW(T0, A0, getAttrOffset(ropeClass, "__len__"), null);
+        asmWriter.emitLW(T0, FP, 4, null);
+        asmWriter.emitSW(T0, A0, getAttrOffset(ropeClass, "left"), null);
+        asmWriter.emitLW(T0, FP, 0, null);
+        asmWriter.emitSW(T0, A0, getAttrOffset(ropeClass, "right"), null);
+        asmWriter.emitLW(RA, FP, -4, null);
+        asmWriter.emitLW(FP, FP, -8, null);
+        asmWriter.emitADDI(SP, SP, 12, null);
+        asmWriter.emitJR(RA, null);
+
+        asmWriter.emitLocalLabel(flat, null);
+        asmWriter.emitJ(label_strcat, null);
+    }
+
+    /**
+     * Emit rope.flatten, which returns the str that its argument 0, a
+     * rope, stands for.  Ropes grow only on the left, so the right
+     * operands are strs, copied into place from last to first while
+     * following the left operands, down to the first, a str.
+     */
+    private void emitRopeFlatten() {
+        Label loop = generateLocalLabel();
+        Label last = generateLocalLabel();
+        asmWriter.emitGlobalLabel(label_ropeFlatten);
+        asmWriter.emitADDI(SP, SP, -16, null);
+        asmWriter.emitSW(RA, SP, 12, null);
+        asmWriter.emitSW(FP, SP, 8, null);
+        asmWriter.emitADDI(FP, SP, 16, null);
+        asmWriter.emitLW(T0, FP, 0, null);
+        asmWriter.emitLW(A1, T0, "@.__len__", null);
+        asmWriter.emitADDI(A1, A1, 4, "Round up, leaving a zero byte");
+        asmWriter.emitSRLI(A1, A1, 2, null);
+        asmWriter.emitADDI(A1, A1, headerSize() + 1, null);
+        asmWriter.emitLA(A0, strClass.getPrototypeLabel(), null);
+        asmWriter.emitJAL(new Label("alloc2"), null);
+        asmWriter.emitMV(T5, A0, "Result, kept by memcpy");
+        asmWriter.emitLW(T0, FP, 0, null);
+        asmWriter.emitSW(T0, FP, -16, "Node to copy from");
+        asmWriter.emitLW(T1, T0, "@.__len__", null);
+        asmWriter.emitSW(T1, T5, "@.__len__", null);
+        asmWriter.emitADDI(T2, T5, "@.__str__", null);
+        asmWriter.emitADD(T2, T2, T1, null);
+        asmWriter.emitSB(ZERO, T2, 0, "Terminating zero byte");
+        asmWriter.emitSW(T2, FP, -12, "End of characters to copy");
+
+        asmWriter.emitLocalLabel(loop, "Copy each right operand, last to first");
+        asmWriter.emitLW(T0, FP, -16, null);
+        emitLoadTypeTag(T1, T0);
+        asmWriter.emitLI(T2, ropeClass.getTypeTag(), null);
+        asmWriter.emitBNE(T1, T2, last, null);
+        asmWriter.emitLW(T1, T0, getAttrOffset(ropeClass, "left"), null);
+        asmWriter.emitSW(T1, FP, -16, null);
+        asmWriter.emitLW(A1, T0, getAttrOffset(ropeClass, "right"), null);
+        asmWriter.emitLW(A2, A1, "@.__len__", null);
+        asmWriter.emitADDI(A1, A1, "@.__str__", null);
+        asmWriter.emitLW(A0, FP, -12, null);
+        asmWriter.emitSUB(A0, A0, A2, null);
+        asmWriter.emitSW(A0, FP, -12, null);
+        asmWriter.emitJAL(label_memcpy, null);
+        asmWriter.emitJ(loop, null);
+
+        asmWriter.emitLocalLabel(last, "Copy the first operand");
+        asmWriter.emitLW(A2, T0, "@.__len__", null);
+        asmWriter.emitADDI(A1, T0, "@.__str__", null);
+        asmWriter.emitADDI(A0, T5, "@.__str__", null);
+        asmWriter.emitJAL(label_memcpy, null);
+        asmWriter.emitMV(A0, T5, null);
+        asmWriter.emitLW(RA, FP, -4, null);
+        asmWriter.emitLW(FP, FP, -8, null);
+        asmWriter.emitADDI(SP, SP, 16, null);
+        asmWriter.emitJR(RA, null);
+    }
+
     private void emitStrcat() {
         asmWriter.emitGlobalLabel(label_strcat);
     
@@ -1381,45 +2675,28 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitSW(T1, FP, -12, null);          
         asmWriter.emitADDI(T1, T1, 4, null);         
         asmWriter.emitSRLI(T1, T1, 2, null);          
-        asmWriter.emitADDI(A1, T1, 4, null);  
+        asmWriter.emitADDI(A1, T1, headerSize() + 1, null);  
         asmWriter.emitLA(A0, new Label("$str$prototype"), null);
         asmWriter.emitJAL(new Label("alloc2"), null);                     
     
-        asmWriter.emitLW(T0, FP, -12, null);         
-        asmWriter.emitSW(T0, A0, "@.__len__", null); 
-        asmWriter.emitADDI(T2, A0, "@.__str__", null);        
-    
-        asmWriter.emitLW(T0, FP, 4, null);           
-        asmWriter.emitLW(T1, T0, "@.__len__", null);
-        asmWriter.emitADDI(T0, T0, "@.__str__", null);  
-        Label strcat_1 = generateLocalLabel();
-        Label strcat_2 = generateLocalLabel();
-        asmWriter.emitLocalLabel(strcat_1, null);
-        asmWriter.emitBEQZ(T1, strcat_2, null);      
-        asmWriter.emitLBU(T3, T0, 0, null);          
-        asmWriter.emitSB(T3, T2, 0, null);           
-        asmWriter.emitADDI(T1, T1, -1, null);        
-        asmWriter.emitADDI(T0, T0, 1, null);         
-        asmWriter.emitADDI(T2, T2, 1, null);         
-        asmWriter.emitJ(strcat_1, null);            
-        asmWriter.emitLocalLabel(strcat_2, null);
-    
-        asmWriter.emitLW(T0, FP, 0, null);           
-        asmWriter.emitLW(T1, T0, "@.__len__", null);         
-        asmWriter.emitADDI(T0, T0, "@.__str__", null);        
-        Label strcat_3 = generateLocalLabel();
-        Label strcat_6 = generateLocalLabel();
-        asmWriter.emitLocalLabel(strcat_3, null);
-        asmWriter.emitBEQZ(T1, strcat_6, null);      
-        asmWriter.emitLBU(T3, T0, 0, null);          
-        asmWriter.emitSB(T3, T2, 0, null);           
-        asmWriter.emitADDI(T1, T1, -1, null);        
-        asmWriter.emitADDI(T0, T0, 1, null);        
-        asmWriter.emitADDI(T2, T2, 1, null);         
-        asmWriter.emitJ(strcat_3, null);            
-
-    
+        asmWriter.emitLW(T0, FP, -12, null);
+        asmWriter.emitSW(T0, A0, "@.__len__", null);
+        asmWriter.emitMV(T5, A0, null);
+        asmWriter.emitLW(A1, FP, 4, null);
+        asmWriter.emitLW(A2, A1, "@.__len__", null);
+        asmWriter.emitADDI(A1, A1, "@.__str__", null);
+        asmWriter.emitADDI(A0, T5, "@.__str__", null);
+        asmWriter.emitJAL(label_memcpy, "Copy left characters");
+        asmWriter.emitLW(A1, FP, 0, null);
+        asmWriter.emitLW(A2, A1, "@.__len__", null);
+        asmWriter.emitADDI(A1, A1, "@.__str__", null);
+        asmWriter.emitMV(A0, T0, null);
+        asmWriter.emitJAL(label_memcpy, "Copy right characters");
+        asmWriter.emitSB(ZERO, T0, 0, null);
+        asmWriter.emitMV(A0, T5, null);
         Label strcat_7 = generateLocalLabel();
+        asmWriter.emitJ(strcat_7, null);
+
         asmWriter.emitLocalLabel(strcat_4, null);
         asmWriter.emitLW(A0, FP, 0, null);
         asmWriter.emitJ(strcat_7, null);
@@ -1427,8 +2704,6 @@ public class CodeGenImpl extends CodeGenBase {
         asmWriter.emitLocalLabel(strcat_5, null);
         asmWriter.emitLW(A0, FP, 4, null);          
         asmWriter.emitJ(strcat_7, null);
-        asmWriter.emitLocalLabel(strcat_6, null);
-        asmWriter.emitSB(ZERO, T2, 0, null);
         asmWriter.emitLocalLabel(strcat_7, null);
         asmWriter.emitLW(RA, FP, -4, null);          
         asmWriter.emitLW(FP, FP, -8, null);          
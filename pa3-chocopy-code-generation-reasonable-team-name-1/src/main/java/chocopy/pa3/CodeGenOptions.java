@@ -0,0 +1,234 @@
+package chocopy.pa3;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Code-generation options.
+ *
+ * The ChocoPy driver only passes --debug through to the code generator,
+ * so the remaining flags are read from the system property
+ * {@value #FLAGS_PROPERTY}, which holds a whitespace-separated list of
+ * flags, e.g.
+ *
+ *     java -Dchocopy.pa3.flags="-O2 --pass-disable=dce" -cp ...
+ *
+ * Recognized flags:
+ *   -O0, -O1, -O2, -Os     optimization level (default -O2)
+ *   --pass-enable=P[,P...]  run the named passes regardless of level
+ *   --pass-disable=P[,P...] never run the named passes
+ *   --time-passes           report the time taken by each pass
+ *   --rvc                   emit RV32C compressed instructions
+ *   --no-gc                 use the whole heap with no garbage collector
+ *   --gc-stats              report garbage collections at exit
+ *   --heap-size=N[K|M]      initial heap size in bytes (default 1M),
+ *                           rounded up to a multiple of 4K
+ *   --heap-growth=N         factor by which the heap grows when full
+ *                           (default 2, at least 2)
+ *   --int-cache=LO..HI      box the ints from LO to HI as preallocated
+ *                           constants (default -5..256; at most
+ *                           65536 of them)
+ *   --no-int-cache          allocate every int box
+ *   --compact-headers       give objects a one-word header packing the
+ *                           type tag and size, finding dispatch tables
+ *                           by type tag
+ *   --intern-strings        make str constants unique, so that strs known
+ *                           to be constants compare by identity
+ *   --ropes                 let str variables appended to with `s = s + t`
+ *                           hold unflattened concatenations
+ *   --rope-threshold=N      length from which such an append makes a
+ *                           rope rather than a str (default 64)
+ *   --debug                 as on the command line
+ */
+public class CodeGenOptions {
+
+    /** System property holding additional code-generation flags. */
+    public static final String FLAGS_PROPERTY = "chocopy.pa3.flags";
+
+    /** Optimization levels. */
+    public enum OptLevel {
+        /** No optimization, for fast compiles. */
+        O0,
+        /** Cheap optimizations on the AST. */
+        O1,
+        /** All optimizations for speed. */
+        O2,
+        /** Optimizations for code size. */
+        Os
+    }
+
+    /** Selected optimization level. */
+    public OptLevel level = OptLevel.O2;
+
+    /** Names of passes enabled with --pass-enable. */
+    public final Set<String> enabledPasses = new LinkedHashSet<>();
+
+    /** Names of passes disabled with --pass-disable. */
+    public final Set<String> disabledPasses = new LinkedHashSet<>();
+
+    /** True iff pass timings should be reported. */
+    public boolean timePasses = false;
+
+    /** True iff compressed instructions may be emitted. */
+    public boolean rvc = false;
+
+    /** True iff the heap is managed by the copying collector. */
+    public boolean gc = true;
+
+    /** True iff collection statistics are printed at exit. */
+    public boolean gcStats = false;
+
+    /** Initial heap size in bytes, a multiple of 4K. */
+    public int heapSize = 1024 * 1024;
+
+    /** Factor by which each extension of the heap exceeds the last. */
+    public int heapGrowth = 2;
+
+    /** Least int with a preallocated box. */
+    public int intCacheMin = -5;
+
+    /** Greatest int with a preallocated box, less than intCacheMin if
+     *  there are none. */
+    public int intCacheMax = 256;
+
+    /** True iff object headers are a single word holding the type tag
+     *  in its low byte and the size in words above it. */
+    public boolean compactHeaders = false;
+
+    /** True iff str constants, one-character strs included, are unique
+     *  and marked in their headers. */
+    public boolean internStrings = false;
+
+    /** True iff appends to str variables may make ropes. */
+    public boolean ropes = false;
+
+    /** Least length of the result of an append that makes a rope. */
+    public int ropeThreshold = 64;
+
+    /** True iff --debug was given. */
+    public boolean debug = false;
+
+    /**
+     * Returns the options given by ARGS, with --debug set iff DEBUG.
+     * Throws IllegalArgumentException on an unrecognized flag.
+     */
+    public static CodeGenOptions parse(String[] args, boolean debug) {
+        CodeGenOptions options = new CodeGenOptions();
+        options.debug = debug;
+        for (String arg : args) {
+            if (!arg.isEmpty()) {
+                options.parseFlag(arg);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Returns the options given by the {@value #FLAGS_PROPERTY} system
+     * property, with --debug set iff DEBUG.
+     */
+    public static CodeGenOptions fromSystemProperties(boolean debug) {
+        String flags = System.getProperty(FLAGS_PROPERTY, "").strip();
+        return parse(flags.split("\\s+"), debug);
+    }
+
+    /** Apply the single flag ARG. */
+    private void parseFlag(String arg) {
+        switch (arg) {
+        case "-O0" -> level = OptLevel.O0;
+        case "-O1" -> level = OptLevel.O1;
+        case "-O2" -> level = OptLevel.O2;
+        case "-Os" -> level = OptLevel.Os;
+        case "--time-passes" -> timePasses = true;
+        case "--debug" -> debug = true;
+        case "--no-gc" -> gc = false;
+        case "--gc-stats" -> gcStats = true;
+        case "--no-int-cache" -> intCacheMax = intCacheMin - 1;
+        case "--compact-headers" -> compactHeaders = true;
+        case "--intern-strings" -> internStrings = true;
+        case "--ropes" -> ropes = true;
+        case "--rvc" -> {
+            rvc = true;
+            enabledPasses.add("rvc");
+        }
+        default -> {
+            if (arg.startsWith("--pass-enable=")) {
+                addPasses(enabledPasses, arg);
+            } else if (arg.startsWith("--pass-disable=")) {
+                addPasses(disabledPasses, arg);
+            } else if (arg.startsWith("--heap-size=")) {
+                int size = parseSize(arg);
+                heapSize = (size + 4095) & ~4095;
+            } else if (arg.startsWith("--int-cache=")) {
+                parseIntCache(arg);
+            } else if (arg.startsWith("--rope-threshold=")) {
+                ropeThreshold = parseSize(arg);
+            } else if (arg.startsWith("--heap-growth=")) {
+                heapGrowth = parseSize(arg);
+                if (heapGrowth < 2) {
+                    throw new IllegalArgumentException(
+                        "Heap growth factor must be at least 2: " + arg);
+                }
+            } else {
+                throw new IllegalArgumentException(
+                    "Unrecognized code generation flag: " + arg);
+            }
+        }
+        }
+    }
+
+    /** Set the range of preallocated int boxes from ARG, of the form
+     *  --int-cache=LO..HI with LO <= HI. */
+    private void parseIntCache(String arg) {
+        String[] bounds = arg.substring(arg.indexOf('=') + 1).split("\\.\\.");
+        try {
+            if (bounds.length == 2) {
+                int min = Integer.parseInt(bounds[0]);
+                int max = Integer.parseInt(bounds[1]);
+                long span = (long) max - min;
+                if (span >= 0 && span < 1 << 16) {
+                    intCacheMin = min;
+                    intCacheMax = max;
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            /* Reported below. */
+        }
+        throw new IllegalArgumentException("Invalid range in flag: " + arg);
+    }
+
+    /** Returns the positive number after the `=` in ARG, which may end
+     *  in K or M for multiples of 1024 or 1024 * 1024. */
+    private static int parseSize(String arg) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        int unit = 1;
+        if (value.endsWith("K") || value.endsWith("k")) {
+            unit = 1024;
+        } else if (value.endsWith("M") || value.endsWith("m")) {
+            unit = 1024 * 1024;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(value) * unit;
+            if (size > 0 && size <= (1 << 30)) {
+                return (int) size;
+            }
+        } catch (NumberFormatException e) {
+            /* Reported below. */
+        }
+        throw new IllegalArgumentException("Invalid size in flag: " + arg);
+    }
+
+    /** Add the comma-separated pass names after the `=` in ARG to
+     *  PASSES. */
+    private static void addPasses(Set<String> passes, String arg) {
+        for (String name : arg.substring(arg.indexOf('=') + 1).split(",")) {
+            if (!name.isEmpty()) {
+                passes.add(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,807 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import chocopy.common.analysis.types.Type;
+import chocopy.common.analysis.types.ValueType;
+import chocopy.common.astnodes.*;
+
+/**
+ * Sparse conditional constant propagation over the typed AST.
+ *
+ * Each function body (methods and nested functions included) and the
+ * top level is analyzed separately. Every int or bool variable that only
+ * the region itself can write is given a lattice value (a constant or
+ * BOTTOM) at each program point, and branches are only followed when
+ * their condition may take that value, so a constant threaded through
+ * an `if` or `while` keeps its value past the join. Loops are iterated
+ * to a fixpoint. The results are then used to rewrite the tree:
+ * constant reads become literals, constant expressions are folded,
+ * and `if`/`while`/if-expressions with constant conditions lose their
+ * dead arm. Statements that were never reached are dropped.
+ *
+ * The structured AST is reducible by construction, so walking it in
+ * order with joins at the end of each `if` and at each loop head visits
+ * the same facts as SSA form with phi nodes at the dominance frontiers.
+ */
+public class ConstantPropagation implements Pass.AstPass {
+
+    /** Lattice bottom: the variable may hold more than one value. */
+    private static final Object BOTTOM = new Object() {
+        @Override
+        public String toString() {
+            return "BOTTOM";
+        }
+    };
+
+    /** Globals of type int or bool that no statement ever writes, mapped
+     *  to their initial value. */
+    private final Map<String, Object> immutableGlobals = new HashMap<>();
+
+    /** Initial values of all int and bool globals. */
+    private final Map<String, Object> globalInits = new HashMap<>();
+
+    /** Names declared `global` in some function. */
+    private final Set<String> globalDeclared = new HashSet<>();
+
+    /** Lattice values seen at each variable read, joined over all visits. */
+    private final Map<Identifier, Object> readFacts = new IdentityHashMap<>();
+
+    /** Statements reached by the analysis. */
+    private final Set<Stmt> reached =
+        java.util.Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Number of expressions folded and statements removed. */
+    private int rewrites = 0;
+
+    @Override
+    public String name() {
+        return "constprop";
+    }
+
+    @Override
+    public String statistics() {
+        return rewrites + " rewrites";
+    }
+
+    /** Returns the number of rewrites performed by run(). */
+    public int getRewriteCount() {
+        return rewrites;
+    }
+
+    /** Analyze and rewrite PROGRAM in place. */
+    @Override
+    public void run(Program program) {
+        collectGlobals(program);
+
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                optimizeFunction(funcDef, null);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        optimizeFunction(method, null);
+                    }
+                }
+            }
+        }
+
+        Region top = new Region(null, null);
+        Map<String, Object> env = new HashMap<>();
+        for (Map.Entry<String, Object> e : globalInits.entrySet()) {
+            if (!globalDeclared.contains(e.getKey())) {
+                top.tracked.add(e.getKey());
+                env.put(e.getKey(), e.getValue());
+            }
+        }
+        new Analyzer(top).execBlock(program.statements, env);
+        rewriteBlock(program.statements);
+    }
+
+    /*-----------------------------------------------------------*/
+    /*                                                           */
+    /*                     REGIONS AND GLOBALS                   */
+    /*                                                           */
+    /*-----------------------------------------------------------*/
+
+    /** A function body or the top level, with its variable scoping. */
+    private static class Region {
+        /** The function, or null for the top level. */
+        final FuncDef funcDef;
+        /** The enclosing function region, or null. */
+        final Region parent;
+        /** Parameters and local variables. */
+        final Set<String> locals = new HashSet<>();
+        /** Names declared global in this function. */
+        final Set<String> globals = new HashSet<>();
+        /** Variables given a lattice value in this region. */
+        final Set<String> tracked = new HashSet<>();
+
+        Region(FuncDef funcDef, Region parent) {
+            this.funcDef = funcDef;
+            this.parent = parent;
+        }
+    }
+
+    /** Record global initial values and the globals that functions may
+     *  write, for PROGRAM. */
+    private void collectGlobals(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof VarDef varDef && isScalar(varDef)) {
+                globalInits.put(varDef.var.identifier.name,
+                                literalValue(varDef.value));
+            }
+        }
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                collectGlobalDecls(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        collectGlobalDecls(method);
+                    }
+                }
+            }
+        }
+        Set<String> written = new HashSet<>();
+        collectWrites(program.statements, written);
+        for (Map.Entry<String, Object> e : globalInits.entrySet()) {
+            if (!written.contains(e.getKey())
+                && !globalDeclared.contains(e.getKey())) {
+                immutableGlobals.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Add the names FUNCDEF or its nested functions declare global. */
+    private void collectGlobalDecls(FuncDef funcDef) {
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof GlobalDecl globalDecl) {
+                globalDeclared.add(globalDecl.variable.name);
+            } else if (decl instanceof FuncDef nested) {
+                collectGlobalDecls(nested);
+            }
+        }
+    }
+
+    /** Add the names of variables assigned in STMTS to WRITTEN. */
+    private static void collectWrites(List<Stmt> stmts, Set<String> written) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (target instanceof Identifier id) {
+                        written.add(id.name);
+                    }
+                }
+            }
+            case ForStmt s -> {
+                written.add(s.identifier.name);
+                collectWrites(s.body, written);
+            }
+            case WhileStmt s -> collectWrites(s.body, written);
+            case IfStmt s -> {
+                collectWrites(s.thenBody, written);
+                collectWrites(s.elseBody, written);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Add names declared nonlocal anywhere inside FUNCDEF to OUT. */
+    private static void collectNonlocals(FuncDef funcDef, Set<String> out) {
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof NonLocalDecl nonLocalDecl) {
+                out.add(nonLocalDecl.variable.name);
+            } else if (decl instanceof FuncDef nested) {
+                collectNonlocals(nested, out);
+            }
+        }
+    }
+
+    /** Analyze and rewrite FUNCDEF nested in PARENT, then the functions
+     *  nested in it. */
+    private void optimizeFunction(FuncDef funcDef, Region parent) {
+        Region region = new Region(funcDef, parent);
+        Map<String, Object> env = new HashMap<>();
+        Set<String> captured = new HashSet<>();
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                collectNonlocals(nested, captured);
+            }
+        }
+
+        for (TypedVar param : funcDef.params) {
+            String name = param.identifier.name;
+            region.locals.add(name);
+            if (isScalar(ValueType.annotationToValueType(param.type))
+                && !captured.contains(name)) {
+                region.tracked.add(name);
+                env.put(name, BOTTOM);
+            }
+        }
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof VarDef varDef) {
+                String name = varDef.var.identifier.name;
+                region.locals.add(name);
+                if (isScalar(varDef) && !captured.contains(name)) {
+                    region.tracked.add(name);
+                    env.put(name, literalValue(varDef.value));
+                }
+            } else if (decl instanceof GlobalDecl globalDecl) {
+                region.globals.add(globalDecl.variable.name);
+            } else if (decl instanceof NonLocalDecl nonLocalDecl) {
+                region.locals.add(nonLocalDecl.variable.name);
+            } else if (decl instanceof FuncDef nested) {
+                region.locals.add(nested.name.name);
+            }
+        }
+
+        new Analyzer(region).execBlock(funcDef.statements, env);
+        rewriteBlock(funcDef.statements);
+
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                optimizeFunction(nested, region);
+            }
+        }
+    }
+
+    /*-----------------------------------------------------------*/
+    /*                                                           */
+    /*                          ANALYSIS                         */
+    /*                                                           */
+    /*-----------------------------------------------------------*/
+
+    /** Abstract interpreter for one region. Environments map tracked
+     *  variables to lattice values; a null environment is unreachable. */
+    private class Analyzer {
+        /** The region being analyzed. */
+        private final Region region;
+
+        Analyzer(Region region0) {
+            region = region0;
+        }
+
+        /** Returns the environment after executing STMTS from ENV. */
+        Map<String, Object> execBlock(List<Stmt> stmts,
+                                      Map<String, Object> env) {
+            for (Stmt stmt : stmts) {
+                if (env == null) {
+                    break;
+                }
+                env = exec(stmt, env);
+            }
+            return env;
+        }
+
+        /** Returns the environment after executing STMT from ENV. */
+        private Map<String, Object> exec(Stmt stmt, Map<String, Object> env) {
+            reached.add(stmt);
+            switch (stmt) {
+            case ExprStmt s -> {
+                eval(s.expr, env);
+                return env;
+            }
+            case AssignStmt s -> {
+                Object value = eval(s.value, env);
+                Map<String, Object> out = new HashMap<>(env);
+                for (Expr target : s.targets) {
+                    if (target instanceof Identifier id) {
+                        if (region.tracked.contains(id.name)) {
+                            out.put(id.name, value);
+                        }
+                    } else if (target instanceof IndexExpr ie) {
+                        eval(ie.list, env);
+                        eval(ie.index, env);
+                    } else if (target instanceof MemberExpr me) {
+                        eval(me.object, env);
+                    }
+                }
+                return out;
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    eval(s.value, env);
+                }
+                return null;
+            }
+            case IfStmt s -> {
+                Object cond = eval(s.condition, env);
+                Map<String, Object> thenOut = null, elseOut = null;
+                if (cond != Boolean.FALSE) {
+                    thenOut = execBlock(s.thenBody, env);
+                }
+                if (cond != Boolean.TRUE) {
+                    elseOut = execBlock(s.elseBody, env);
+                }
+                return join(thenOut, elseOut);
+            }
+            case WhileStmt s -> {
+                Map<String, Object> head = env;
+                while (true) {
+                    Object cond = eval(s.condition, head);
+                    if (cond == Boolean.FALSE) {
+                        return head;
+                    }
+                    Map<String, Object> next =
+                        join(env, execBlock(s.body, head));
+                    if (next.equals(head)) {
+                        return cond == Boolean.TRUE ? null : head;
+                    }
+                    head = next;
+                }
+            }
+            case ForStmt s -> {
+                eval(s.iterable, env);
+                Map<String, Object> head = env;
+                while (true) {
+                    Map<String, Object> body = new HashMap<>(head);
+                    if (region.tracked.contains(s.identifier.name)) {
+                        body.put(s.identifier.name, BOTTOM);
+                    }
+                    Map<String, Object> next =
+                        join(env, execBlock(s.body, body));
+                    if (next.equals(head)) {
+                        return head;
+                    }
+                    head = next;
+                }
+            }
+            default -> {
+                return env;
+            }
+            }
+        }
+
+        /** Returns the lattice value of E in ENV, recording read facts. */
+        private Object eval(Expr e, Map<String, Object> env) {
+            switch (e) {
+            case IntegerLiteral lit -> {
+                return lit.value;
+            }
+            case BooleanLiteral lit -> {
+                return lit.value;
+            }
+            case Identifier id -> {
+                Object value = lookup(id.name, env);
+                readFacts.merge(id, value, ConstantPropagation::meet);
+                return value;
+            }
+            case UnaryExpr u -> {
+                return foldUnary(u.operator, eval(u.operand, env));
+            }
+            case BinaryExpr b -> {
+                Object left = eval(b.left, env);
+                if (b.operator.equals("and") && left == Boolean.FALSE
+                    || b.operator.equals("or") && left == Boolean.TRUE) {
+                    return left;
+                }
+                Object right = eval(b.right, env);
+                if (left == BOTTOM || right == BOTTOM) {
+                    return BOTTOM;
+                }
+                return foldBinary(b.operator, left, right);
+            }
+            case IfExpr ie -> {
+                Object cond = eval(ie.condition, env);
+                if (cond == Boolean.TRUE) {
+                    return eval(ie.thenExpr, env);
+                } else if (cond == Boolean.FALSE) {
+                    return eval(ie.elseExpr, env);
+                }
+                eval(ie.thenExpr, env);
+                eval(ie.elseExpr, env);
+                return BOTTOM;
+            }
+            case CallExpr c -> {
+                for (Expr arg : c.args) {
+                    eval(arg, env);
+                }
+                return BOTTOM;
+            }
+            case MethodCallExpr c -> {
+                eval(c.method.object, env);
+                for (Expr arg : c.args) {
+                    eval(arg, env);
+                }
+                return BOTTOM;
+            }
+            case MemberExpr m -> {
+                eval(m.object, env);
+                return BOTTOM;
+            }
+            case IndexExpr ie -> {
+                eval(ie.list, env);
+                eval(ie.index, env);
+                return BOTTOM;
+            }
+            case ListExpr l -> {
+                for (Expr elt : l.elements) {
+                    eval(elt, env);
+                }
+                return BOTTOM;
+            }
+            default -> {
+                return BOTTOM;
+            }
+            }
+        }
+
+        /** Returns the lattice value of variable NAME in ENV. */
+        private Object lookup(String name, Map<String, Object> env) {
+            if (region.tracked.contains(name)) {
+                return env.get(name);
+            }
+            if (region.funcDef == null) {
+                return immutableGlobals.getOrDefault(name, BOTTOM);
+            }
+            for (Region r = region; r != null; r = r.parent) {
+                if (r.globals.contains(name)) {
+                    break;
+                }
+                if (r.locals.contains(name)) {
+                    return BOTTOM;
+                }
+            }
+            return immutableGlobals.getOrDefault(name, BOTTOM);
+        }
+    }
+
+    /** Returns the join of environments A and B. */
+    private static Map<String, Object> join(Map<String, Object> a,
+                                            Map<String, Object> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        Map<String, Object> out = new HashMap<>(a);
+        for (Map.Entry<String, Object> e : b.entrySet()) {
+            out.merge(e.getKey(), e.getValue(), ConstantPropagation::meet);
+        }
+        return out;
+    }
+
+    /** Returns the meet of lattice values A and B. */
+    private static Object meet(Object a, Object b) {
+        return Objects.equals(a, b) ? a : BOTTOM;
+    }
+
+    /*-----------------------------------------------------------*/
+    /*                                                           */
+    /*                          FOLDING                          */
+    /*                                                           */
+    /*-----------------------------------------------------------*/
+
+    /** Returns OPERATOR applied to constant OPERAND, or BOTTOM. */
+    static Object foldUnary(String operator, Object operand) {
+        if (operator.equals("-") && operand instanceof Integer i) {
+            return -i;
+        }
+        if (operator.equals("not") && operand instanceof Boolean b) {
+            return !b;
+        }
+        return BOTTOM;
+    }
+
+    /** Returns OPERATOR applied to constants LEFT and RIGHT, or BOTTOM
+     *  if the result is not a compile-time constant (including operations
+     *  that would raise an error at run time). */
+    static Object foldBinary(String operator, Object left, Object right) {
+        if (left instanceof Integer l && right instanceof Integer r) {
+            switch (operator) {
+            case "+": return l + r;
+            case "-": return l - r;
+            case "*": return l * r;
+            case "//":
+                return l >= 0 && r > 0 ? (Object) (l / r) : BOTTOM;
+            case "%":
+                return l >= 0 && r > 0 ? (Object) (l % r) : BOTTOM;
+            case "<": return l < r;
+            case "<=": return l <= r;
+            case ">": return l > r;
+            case ">=": return l >= r;
+            case "==": return l.intValue() == r.intValue();
+            case "!=": return l.intValue() != r.intValue();
+            default: return BOTTOM;
+            }
+        }
+        if (left instanceof Boolean l && right instanceof Boolean r) {
+            switch (operator) {
+            case "and": return l && r;
+            case "or": return l || r;
+            case "==": return l == r;
+            case "!=": return l != r;
+            default: return BOTTOM;
+            }
+        }
+        return BOTTOM;
+    }
+
+    /** Returns the constant denoted by literal LIT, or BOTTOM. */
+    private static Object literalValue(Literal lit) {
+        if (lit instanceof IntegerLiteral i) {
+            return i.value;
+        }
+        if (lit instanceof BooleanLiteral b) {
+            return b.value;
+        }
+        return BOTTOM;
+    }
+
+    /** Returns true iff VARDEF declares an int or bool. */
+    private static boolean isScalar(VarDef varDef) {
+        return isScalar(ValueType.annotationToValueType(varDef.var.type));
+    }
+
+    /** Returns true iff TYPE is int or bool. */
+    private static boolean isScalar(ValueType type) {
+        return type.equals(Type.INT_TYPE) || type.equals(Type.BOOL_TYPE);
+    }
+
+    /** Returns a literal node for constant VALUE, located at ORIGIN. */
+    static Expr makeLiteral(Object value, Expr origin) {
+        Expr lit;
+        if (value instanceof Integer i) {
+            lit = new IntegerLiteral(null, null, i);
+            lit.setInferredType(Type.INT_TYPE);
+        } else {
+            lit = new BooleanLiteral(null, null, (Boolean) value);
+            lit.setInferredType(Type.BOOL_TYPE);
+        }
+        lit.setLocation(origin.getLocation());
+        return lit;
+    }
+
+    /*-----------------------------------------------------------*/
+    /*                                                           */
+    /*                          REWRITING                        */
+    /*                                                           */
+    /*-----------------------------------------------------------*/
+
+    /** Rewrite STMTS in place, dropping unreached statements and
+     *  splicing in the live arm of constant branches. */
+    private void rewriteBlock(List<Stmt> stmts) {
+        List<Stmt> out = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            if (!reached.contains(stmt)) {
+                rewrites++;
+                continue;
+            }
+            rewriteStmt(stmt, out);
+        }
+        if (!out.equals(stmts)) {
+            stmts.clear();
+            stmts.addAll(out);
+        }
+    }
+
+    /** Append the rewritten form of STMT to OUT. */
+    private void rewriteStmt(Stmt stmt, List<Stmt> out) {
+        switch (stmt) {
+        case ExprStmt s -> {
+            Expr e = fold(s.expr);
+            out.add(e == s.expr ? s : copyLocation(
+                new ExprStmt(null, null, e), s));
+        }
+        case AssignStmt s -> {
+            List<Expr> targets = new ArrayList<>();
+            boolean changed = false;
+            for (Expr target : s.targets) {
+                Expr t = foldTarget(target);
+                changed |= t != target;
+                targets.add(t);
+            }
+            Expr value = fold(s.value);
+            if (!changed && value == s.value) {
+                out.add(s);
+            } else {
+                out.add(copyLocation(
+                    new AssignStmt(null, null, targets, value), s));
+            }
+        }
+        case ReturnStmt s -> {
+            Expr value = s.value == null ? null : fold(s.value);
+            out.add(value == s.value ? s : copyLocation(
+                new ReturnStmt(null, null, value), s));
+        }
+        case IfStmt s -> {
+            Expr cond = fold(s.condition);
+            rewriteBlock(s.thenBody);
+            rewriteBlock(s.elseBody);
+            if (cond instanceof BooleanLiteral lit) {
+                rewrites++;
+                out.addAll(lit.value ? s.thenBody : s.elseBody);
+            } else if (cond == s.condition) {
+                out.add(s);
+            } else {
+                out.add(copyLocation(new IfStmt(null, null, cond,
+                                                s.thenBody, s.elseBody), s));
+            }
+        }
+        case WhileStmt s -> {
+            Expr cond = fold(s.condition);
+            rewriteBlock(s.body);
+            if (cond instanceof BooleanLiteral lit && !lit.value) {
+                rewrites++;
+            } else if (cond == s.condition) {
+                out.add(s);
+            } else {
+                out.add(copyLocation(new WhileStmt(null, null, cond, s.body),
+                                     s));
+            }
+        }
+        case ForStmt s -> {
+            Expr iterable = fold(s.iterable);
+            rewriteBlock(s.body);
+            out.add(iterable == s.iterable ? s : copyLocation(
+                new ForStmt(null, null, s.identifier, iterable, s.body), s));
+        }
+        default -> out.add(stmt);
+        }
+    }
+
+    /** Returns assignment target TARGET with its subexpressions folded. */
+    private Expr foldTarget(Expr target) {
+        if (target instanceof IndexExpr ie) {
+            Expr list = fold(ie.list), index = fold(ie.index);
+            if (list != ie.list || index != ie.index) {
+                return copyInfo(new IndexExpr(null, null, list, index), ie);
+            }
+        } else if (target instanceof MemberExpr me) {
+            Expr object = fold(me.object);
+            if (object != me.object) {
+                return copyInfo(new MemberExpr(null, null, object, me.member),
+                                me);
+            }
+        }
+        return target;
+    }
+
+    /** Returns E with constant reads replaced and constant
+     *  subexpressions folded. Returns E itself if nothing changed. */
+    private Expr fold(Expr e) {
+        switch (e) {
+        case Identifier id -> {
+            Object value = readFacts.get(id);
+            if (value != null && value != BOTTOM) {
+                rewrites++;
+                return makeLiteral(value, id);
+            }
+            return id;
+        }
+        case UnaryExpr u -> {
+            Expr operand = fold(u.operand);
+            Object value = foldUnary(u.operator, constantOf(operand));
+            if (value != BOTTOM) {
+                rewrites++;
+                return makeLiteral(value, u);
+            }
+            return operand == u.operand ? u : copyInfo(
+                new UnaryExpr(null, null, u.operator, operand), u);
+        }
+        case BinaryExpr b -> {
+            Expr left = fold(b.left);
+            Object l = constantOf(left);
+            if (b.operator.equals("and") && l == Boolean.FALSE
+                || b.operator.equals("or") && l == Boolean.TRUE) {
+                rewrites++;
+                return left;
+            }
+            if ((b.operator.equals("and") || b.operator.equals("or"))
+                && l instanceof Boolean) {
+                rewrites++;
+                return fold(b.right);
+            }
+            Expr right = fold(b.right);
+            Object value = foldBinary(b.operator, l, constantOf(right));
+            if (value != BOTTOM) {
+                rewrites++;
+                return makeLiteral(value, b);
+            }
+            if (left == b.left && right == b.right) {
+                return b;
+            }
+            return copyInfo(new BinaryExpr(null, null, left, b.operator,
+                                           right), b);
+        }
+        case IfExpr ie -> {
+            Expr cond = fold(ie.condition);
+            Expr thenExpr = fold(ie.thenExpr), elseExpr = fold(ie.elseExpr);
+            if (cond instanceof BooleanLiteral lit) {
+                Expr arm = lit.value ? thenExpr : elseExpr;
+                /* Only drop the test when the live arm already has the
+                 * joined type, so boxing decisions do not change. */
+                if (Objects.equals(arm.getInferredType(),
+                                   ie.getInferredType())) {
+                    rewrites++;
+                    return arm;
+                }
+            }
+            if (cond == ie.condition && thenExpr == ie.thenExpr
+                && elseExpr == ie.elseExpr) {
+                return ie;
+            }
+            return copyInfo(new IfExpr(null, null, cond, thenExpr, elseExpr),
+                            ie);
+        }
+        case CallExpr c -> {
+            foldAll(c.args);
+            return c;
+        }
+        case MethodCallExpr c -> {
+            Expr object = fold(c.method.object);
+            foldAll(c.args);
+            if (object == c.method.object) {
+                return c;
+            }
+            MemberExpr method = copyInfo(
+                new MemberExpr(null, null, object, c.method.member), c.method);
+            return copyInfo(new MethodCallExpr(null, null, method, c.args), c);
+        }
+        case MemberExpr m -> {
+            Expr object = fold(m.object);
+            return object == m.object ? m : copyInfo(
+                new MemberExpr(null, null, object, m.member), m);
+        }
+        case IndexExpr ie -> {
+            Expr list = fold(ie.list), index = fold(ie.index);
+            if (list == ie.list && index == ie.index) {
+                return ie;
+            }
+            return copyInfo(new IndexExpr(null, null, list, index), ie);
+        }
+        case ListExpr l -> {
+            foldAll(l.elements);
+            return l;
+        }
+        default -> {
+            return e;
+        }
+        }
+    }
+
+    /** Fold each of EXPRS in place. */
+    private void foldAll(List<Expr> exprs) {
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr e = fold(exprs.get(i));
+            if (e != exprs.get(i)) {
+                exprs.set(i, e);
+            }
+        }
+    }
+
+    /** Returns the constant value of literal E, or BOTTOM. */
+    private static Object constantOf(Expr e) {
+        if (e instanceof IntegerLiteral i) {
+            return i.value;
+        }
+        if (e instanceof BooleanLiteral b) {
+            return b.value;
+        }
+        return BOTTOM;
+    }
+
+    /** Give TO the location and type of FROM, returning TO. */
+    private static <T extends Expr> T copyInfo(T to, Expr from) {
+        to.setLocation(from.getLocation());
+        to.setInferredType(from.getInferredType());
+        return to;
+    }
+
+    /** Give TO the location of FROM, returning TO. */
+    private static <T extends Stmt> T copyLocation(T to, Stmt from) {
+        to.setLocation(from.getLocation());
+        return to;
+    }
+}
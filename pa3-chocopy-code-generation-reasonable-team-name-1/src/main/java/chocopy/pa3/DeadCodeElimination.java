@@ -0,0 +1,311 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import chocopy.common.analysis.types.Type;
+import chocopy.common.astnodes.*;
+
+/**
+ * Aggressive dead-code elimination over the typed AST.
+ *
+ * Removes, until nothing more changes:
+ *   - statements following a `return` (or an `if` whose arms both
+ *     return) in the same block;
+ *   - expression statements whose value is unused and that have no
+ *     side effects;
+ *   - stores to parameters and local variables that are never read
+ *     in the function or any function nested in it, keeping the
+ *     right-hand side when it has side effects;
+ *   - `if` statements with empty arms and pure conditions.
+ *
+ * Globals are left alone at the top level, since any function may
+ * read them.
+ */
+public class DeadCodeElimination implements Pass.AstPass {
+
+    /** Number of statements removed or simplified. */
+    private int rewrites = 0;
+
+    @Override
+    public String name() {
+        return "dce";
+    }
+
+    @Override
+    public String statistics() {
+        return rewrites + " rewrites";
+    }
+
+    /** Returns the number of rewrites performed by run(). */
+    public int getRewriteCount() {
+        return rewrites;
+    }
+
+    /** Remove dead code from PROGRAM in place. */
+    @Override
+    public void run(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                optimizeFunction(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        optimizeFunction(method);
+                    }
+                }
+            }
+        }
+        while (sweep(program.statements, Set.of())) {
+            continue;
+        }
+    }
+
+    /** Remove dead code from FUNCDEF and the functions nested in it. */
+    private void optimizeFunction(FuncDef funcDef) {
+        Set<String> candidates = new HashSet<>();
+        for (TypedVar param : funcDef.params) {
+            candidates.add(param.identifier.name);
+        }
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof VarDef varDef) {
+                candidates.add(varDef.var.identifier.name);
+            } else if (decl instanceof FuncDef nested) {
+                optimizeFunction(nested);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            Set<String> read = new HashSet<>();
+            collectReads(funcDef.statements, read);
+            for (Declaration decl : funcDef.declarations) {
+                if (decl instanceof FuncDef nested) {
+                    collectReads(nested, read);
+                }
+            }
+            Set<String> dead = new HashSet<>(candidates);
+            dead.removeAll(read);
+            changed = sweep(funcDef.statements, dead);
+        }
+    }
+
+    /** Remove dead statements from STMTS in place, treating stores to
+     *  the variables in DEAD as dead. Returns true iff anything
+     *  changed. */
+    private boolean sweep(List<Stmt> stmts, Set<String> dead) {
+        boolean changed = false;
+        List<Stmt> out = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> {
+                if (isPure(s.expr)) {
+                    changed = true;
+                } else {
+                    out.add(s);
+                }
+            }
+            case AssignStmt s -> {
+                List<Expr> targets = new ArrayList<>();
+                for (Expr target : s.targets) {
+                    if (!(target instanceof Identifier id
+                          && dead.contains(id.name))) {
+                        targets.add(target);
+                    }
+                }
+                if (targets.size() == s.targets.size()) {
+                    out.add(s);
+                } else {
+                    changed = true;
+                    if (!targets.isEmpty()) {
+                        AssignStmt live =
+                            new AssignStmt(null, null, targets, s.value);
+                        live.setLocation(s.getLocation());
+                        out.add(live);
+                    } else if (!isPure(s.value)) {
+                        ExprStmt effect = new ExprStmt(null, null, s.value);
+                        effect.setLocation(s.getLocation());
+                        out.add(effect);
+                    }
+                }
+            }
+            case IfStmt s -> {
+                changed |= sweep(s.thenBody, dead);
+                changed |= sweep(s.elseBody, dead);
+                if (s.thenBody.isEmpty() && s.elseBody.isEmpty()
+                    && isPure(s.condition)) {
+                    changed = true;
+                } else {
+                    out.add(s);
+                }
+            }
+            case WhileStmt s -> {
+                changed |= sweep(s.body, dead);
+                out.add(s);
+            }
+            case ForStmt s -> {
+                changed |= sweep(s.body, dead);
+                out.add(s);
+            }
+            default -> out.add(stmt);
+            }
+            if (!out.isEmpty() && alwaysReturns(out.get(out.size() - 1))) {
+                break;
+            }
+        }
+        if (out.size() != stmts.size() || changed) {
+            rewrites += Math.max(1, stmts.size() - out.size());
+            stmts.clear();
+            stmts.addAll(out);
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns true iff control never falls through STMT. */
+    private static boolean alwaysReturns(Stmt stmt) {
+        if (stmt instanceof ReturnStmt) {
+            return true;
+        }
+        if (stmt instanceof IfStmt s) {
+            return !s.thenBody.isEmpty() && !s.elseBody.isEmpty()
+                && alwaysReturns(s.thenBody.get(s.thenBody.size() - 1))
+                && alwaysReturns(s.elseBody.get(s.elseBody.size() - 1));
+        }
+        return false;
+    }
+
+    /** Returns true iff evaluating E can neither fail nor have a side
+     *  effect, so that it may be dropped when its value is unused. */
+    static boolean isPure(Expr e) {
+        switch (e) {
+        case Literal lit -> {
+            return true;
+        }
+        case Identifier id -> {
+            return true;
+        }
+        case UnaryExpr u -> {
+            return isPure(u.operand);
+        }
+        case IfExpr ie -> {
+            return isPure(ie.condition) && isPure(ie.thenExpr)
+                && isPure(ie.elseExpr);
+        }
+        case BinaryExpr b -> {
+            if (!isPure(b.left) || !isPure(b.right)) {
+                return false;
+            }
+            switch (b.operator) {
+            case "and": case "or": case "is":
+            case "<": case "<=": case ">": case ">=":
+                return true;
+            case "+": case "-": case "*": case "==": case "!=":
+                return isScalar(b.left) && isScalar(b.right);
+            case "//": case "%":
+                return b.right instanceof IntegerLiteral divisor
+                    && divisor.value != 0;
+            default:
+                return false;
+            }
+        }
+        default -> {
+            return false;
+        }
+        }
+    }
+
+    /** Returns true iff E has static type int or bool. */
+    private static boolean isScalar(Expr e) {
+        return Type.INT_TYPE.equals(e.getInferredType())
+            || Type.BOOL_TYPE.equals(e.getInferredType());
+    }
+
+    /** Add the names of variables read in FUNCDEF and the functions
+     *  nested in it to READ. */
+    private static void collectReads(FuncDef funcDef, Set<String> read) {
+        collectReads(funcDef.statements, read);
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                collectReads(nested, read);
+            }
+        }
+    }
+
+    /** Add the names of variables read in STMTS to READ. */
+    private static void collectReads(List<Stmt> stmts, Set<String> read) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> collectReads(s.expr, read);
+            case AssignStmt s -> {
+                collectReads(s.value, read);
+                for (Expr target : s.targets) {
+                    if (!(target instanceof Identifier)) {
+                        collectReads(target, read);
+                    }
+                }
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    collectReads(s.value, read);
+                }
+            }
+            case IfStmt s -> {
+                collectReads(s.condition, read);
+                collectReads(s.thenBody, read);
+                collectReads(s.elseBody, read);
+            }
+            case WhileStmt s -> {
+                collectReads(s.condition, read);
+                collectReads(s.body, read);
+            }
+            case ForStmt s -> {
+                collectReads(s.iterable, read);
+                collectReads(s.body, read);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Add the names of variables read in E to READ. */
+    private static void collectReads(Expr e, Set<String> read) {
+        switch (e) {
+        case Identifier id -> read.add(id.name);
+        case UnaryExpr u -> collectReads(u.operand, read);
+        case BinaryExpr b -> {
+            collectReads(b.left, read);
+            collectReads(b.right, read);
+        }
+        case IfExpr ie -> {
+            collectReads(ie.condition, read);
+            collectReads(ie.thenExpr, read);
+            collectReads(ie.elseExpr, read);
+        }
+        case CallExpr c -> {
+            for (Expr arg : c.args) {
+                collectReads(arg, read);
+            }
+        }
+        case MethodCallExpr c -> {
+            collectReads(c.method.object, read);
+            for (Expr arg : c.args) {
+                collectReads(arg, read);
+            }
+        }
+        case MemberExpr m -> collectReads(m.object, read);
+        case IndexExpr ie -> {
+            collectReads(ie.list, read);
+            collectReads(ie.index, read);
+        }
+        case ListExpr l -> {
+            for (Expr elt : l.elements) {
+                collectReads(elt, read);
+            }
+        }
+        default -> { }
+        }
+    }
+}
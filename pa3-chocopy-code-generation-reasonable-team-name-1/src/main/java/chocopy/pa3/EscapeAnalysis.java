@@ -0,0 +1,396 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.common.astnodes.*;
+
+/**
+ * Intraprocedural escape analysis over the typed AST.
+ *
+ * Finds the allocations whose object cannot outlive the frame that
+ * makes it, so that the code generator may place them in the frame
+ * instead of on the heap.  These are
+ *   - constructor calls `C()` of user classes and object, whose
+ *     __init__ is object's or uses self only to read and write its
+ *     attributes, and non-empty list displays, assigned by `v = ...`
+ *     to a contained local variable v; and
+ *   - list displays iterated over by a `for` statement.
+ * A local variable is contained if every use of it in its function is
+ * a read or write of one of its attributes or elements, its length,
+ * a `for` over it that does not assign it, an `is` comparison or an
+ * assignment to it, and no nested function mentions it.  Since its
+ * value is never copied anywhere, a contained variable holds the only
+ * reference to the objects it is assigned, other than a `for` over it
+ * while the loop runs, so each site needs a single slot: by the time
+ * the site runs again, the object it made last is dead.
+ *
+ * The AST is not rewritten; the code generator asks for the sites
+ * found with {@link #isStackAllocated}.
+ */
+public class EscapeAnalysis implements Pass.AstPass {
+
+    /** Allocations that may be placed in the frame. */
+    private final Set<Expr> stackAllocated =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Locations of the allocations found, in program order. */
+    private final List<String> sites = new ArrayList<>();
+
+    /** User classes by name. */
+    private final Map<String, ClassDef> classes = new HashMap<>();
+
+    @Override
+    public String name() {
+        return "escape";
+    }
+
+    @Override
+    public String statistics() {
+        return sites.size() + " allocations on the stack"
+            + (sites.isEmpty() ? "" : ": " + String.join(", ", sites));
+    }
+
+    /** Returns true iff ALLOCATION, a constructor call or list display,
+     *  may be placed in the frame of the function executing it. */
+    public boolean isStackAllocated(Expr allocation) {
+        return stackAllocated.contains(allocation);
+    }
+
+    /** Returns the allocations that may be placed in the frame. */
+    public Set<Expr> getStackAllocated() {
+        return Collections.unmodifiableSet(stackAllocated);
+    }
+
+    @Override
+    public void run(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof ClassDef classDef) {
+                classes.put(classDef.name.name, classDef);
+            }
+        }
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                analyzeFunction(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        analyzeFunction(method);
+                    }
+                }
+            }
+        }
+        /* Top-level variables are global, so only temporaries qualify. */
+        findSites(program.statements, Set.of());
+    }
+
+    /** Find the sites in FUNCDEF and the functions nested in it. */
+    private void analyzeFunction(FuncDef funcDef) {
+        Set<String> contained = new HashSet<>();
+        Set<String> nestedNames = new HashSet<>();
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof VarDef varDef) {
+                contained.add(varDef.var.identifier.name);
+            } else if (decl instanceof FuncDef nested) {
+                analyzeFunction(nested);
+                mentionedNames(nested, nestedNames);
+            }
+        }
+        contained.removeAll(nestedNames);
+        contained.removeAll(escaping(funcDef.statements));
+        findSites(funcDef.statements, contained);
+    }
+
+    /** Record the allocations in STMTS that may go in the frame, given
+     *  the CONTAINED local variables. */
+    private void findSites(List<Stmt> stmts, Set<String> contained) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                if (s.targets.size() == 1
+                    && s.targets.get(0) instanceof Identifier target
+                    && contained.contains(target.name)
+                    && isCandidate(s.value)) {
+                    record(s.value);
+                }
+            }
+            case IfStmt s -> {
+                findSites(s.thenBody, contained);
+                findSites(s.elseBody, contained);
+            }
+            case WhileStmt s -> findSites(s.body, contained);
+            case ForStmt s -> {
+                if (s.iterable instanceof ListExpr list
+                    && !list.elements.isEmpty()) {
+                    record(list);
+                }
+                findSites(s.body, contained);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Record ALLOCATION as a stack allocation. */
+    private void record(Expr allocation) {
+        stackAllocated.add(allocation);
+        int[] location = allocation.getLocation();
+        sites.add(location[0] + ":" + location[1]);
+    }
+
+    /** Returns true iff E allocates an object that may go in the frame
+     *  when only a contained variable refers to it. */
+    private boolean isCandidate(Expr e) {
+        if (e instanceof ListExpr list) {
+            return !list.elements.isEmpty();
+        }
+        if (e instanceof CallExpr call) {
+            String name = call.function.name;
+            return (name.equals("object") || classes.containsKey(name))
+                && hasContainedInit(name);
+        }
+        return false;
+    }
+
+    /** Returns true iff the __init__ of class CLASSNAME does not let
+     *  self escape. */
+    private boolean hasContainedInit(String className) {
+        ClassDef classDef = classes.get(className);
+        while (classDef != null) {
+            for (Declaration member : classDef.declarations) {
+                if (member instanceof FuncDef method
+                    && method.name.name.equals("__init__")) {
+                    String self = method.params.get(0).identifier.name;
+                    Set<String> nestedNames = new HashSet<>();
+                    for (Declaration decl : method.declarations) {
+                        if (decl instanceof FuncDef nested) {
+                            mentionedNames(nested, nestedNames);
+                        }
+                    }
+                    return !nestedNames.contains(self)
+                        && !escaping(method.statements).contains(self);
+                }
+            }
+            classDef = classes.get(classDef.superClass.name);
+        }
+        return true;
+    }
+
+    /*-----------------------------------------------------------*/
+    /*                                                           */
+    /*                          ESCAPES                          */
+    /*                                                           */
+    /*-----------------------------------------------------------*/
+
+    /** Returns the names used in STMTS other than as permitted for
+     *  contained variables. */
+    static Set<String> escaping(List<Stmt> stmts) {
+        Set<String> names = new HashSet<>();
+        scanStmts(stmts, names);
+        return names;
+    }
+
+    /** Add to NAMES the names escaping through STMTS. */
+    private static void scanStmts(List<Stmt> stmts, Set<String> names) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> scanExpr(s.expr, names);
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (target instanceof MemberExpr m) {
+                        scanBase(m.object, names);
+                    } else if (target instanceof IndexExpr ie) {
+                        scanBase(ie.list, names);
+                        scanExpr(ie.index, names);
+                    }
+                }
+                scanExpr(s.value, names);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    scanExpr(s.value, names);
+                }
+            }
+            case IfStmt s -> {
+                scanExpr(s.condition, names);
+                scanStmts(s.thenBody, names);
+                scanStmts(s.elseBody, names);
+            }
+            case WhileStmt s -> {
+                scanExpr(s.condition, names);
+                scanStmts(s.body, names);
+            }
+            case ForStmt s -> {
+                /* The loop keeps the list it walks, which a site in
+                 * its body assigning the variable would overwrite. */
+                if (s.iterable instanceof Identifier id
+                    && assignedNames(s.body).contains(id.name)) {
+                    names.add(id.name);
+                }
+                scanBase(s.iterable, names);
+                scanStmts(s.body, names);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Returns the names of the variables assigned in STMTS. */
+    private static Set<String> assignedNames(List<Stmt> stmts) {
+        Set<String> names = new HashSet<>();
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (target instanceof Identifier id) {
+                        names.add(id.name);
+                    }
+                }
+            }
+            case IfStmt s -> {
+                names.addAll(assignedNames(s.thenBody));
+                names.addAll(assignedNames(s.elseBody));
+            }
+            case WhileStmt s -> names.addAll(assignedNames(s.body));
+            case ForStmt s -> {
+                names.add(s.identifier.name);
+                names.addAll(assignedNames(s.body));
+            }
+            default -> { }
+            }
+        }
+        return names;
+    }
+
+    /** Add to NAMES the names escaping through E, whose value may be
+     *  copied anywhere. */
+    private static void scanExpr(Expr e, Set<String> names) {
+        switch (e) {
+        case Identifier id -> names.add(id.name);
+        case MemberExpr m -> scanBase(m.object, names);
+        case IndexExpr ie -> {
+            scanBase(ie.list, names);
+            scanExpr(ie.index, names);
+        }
+        case CallExpr c -> {
+            if (c.function.name.equals("len") && c.args.size() == 1) {
+                scanBase(c.args.get(0), names);
+            } else {
+                c.args.forEach(arg -> scanExpr(arg, names));
+            }
+        }
+        case MethodCallExpr c -> {
+            scanExpr(c.method.object, names);
+            c.args.forEach(arg -> scanExpr(arg, names));
+        }
+        case BinaryExpr b -> {
+            if (b.operator.equals("is")) {
+                scanBase(b.left, names);
+                scanBase(b.right, names);
+            } else {
+                scanExpr(b.left, names);
+                scanExpr(b.right, names);
+            }
+        }
+        case UnaryExpr u -> scanExpr(u.operand, names);
+        case IfExpr ie -> {
+            scanExpr(ie.condition, names);
+            scanExpr(ie.thenExpr, names);
+            scanExpr(ie.elseExpr, names);
+        }
+        case ListExpr l -> l.elements.forEach(elt -> scanExpr(elt, names));
+        default -> { }
+        }
+    }
+
+    /** Add to NAMES the names escaping through E, which is only
+     *  dereferenced or compared. */
+    private static void scanBase(Expr e, Set<String> names) {
+        if (!(e instanceof Identifier)) {
+            scanExpr(e, names);
+        }
+    }
+
+    /** Add to NAMES every name mentioned in FUNCDEF or the functions
+     *  nested in it. */
+    static void mentionedNames(FuncDef funcDef, Set<String> names) {
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof NonLocalDecl nonLocal) {
+                names.add(nonLocal.variable.name);
+            } else if (decl instanceof GlobalDecl global) {
+                names.add(global.variable.name);
+            } else if (decl instanceof FuncDef nested) {
+                mentionedNames(nested, names);
+            }
+        }
+        collectNames(funcDef.statements, names);
+    }
+
+    /** Add to NAMES every name mentioned in STMTS. */
+    static void collectNames(List<Stmt> stmts, Set<String> names) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> collectIds(s.expr, names);
+            case AssignStmt s -> {
+                s.targets.forEach(target -> collectIds(target, names));
+                collectIds(s.value, names);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    collectIds(s.value, names);
+                }
+            }
+            case IfStmt s -> {
+                collectIds(s.condition, names);
+                collectNames(s.thenBody, names);
+                collectNames(s.elseBody, names);
+            }
+            case WhileStmt s -> {
+                collectIds(s.condition, names);
+                collectNames(s.body, names);
+            }
+            case ForStmt s -> {
+                collectIds(s.identifier, names);
+                collectIds(s.iterable, names);
+                collectNames(s.body, names);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Add to NAMES every identifier in E. */
+    static void collectIds(Expr e, Set<String> names) {
+        switch (e) {
+        case Identifier id -> names.add(id.name);
+        case MemberExpr m -> collectIds(m.object, names);
+        case IndexExpr ie -> {
+            collectIds(ie.list, names);
+            collectIds(ie.index, names);
+        }
+        case CallExpr c -> c.args.forEach(arg -> collectIds(arg, names));
+        case MethodCallExpr c -> {
+            collectIds(c.method.object, names);
+            c.args.forEach(arg -> collectIds(arg, names));
+        }
+        case BinaryExpr b -> {
+            collectIds(b.left, names);
+            collectIds(b.right, names);
+        }
+        case UnaryExpr u -> collectIds(u.operand, names);
+        case IfExpr ie -> {
+            collectIds(ie.condition, names);
+            collectIds(ie.thenExpr, names);
+            collectIds(ie.elseExpr, names);
+        }
+        case ListExpr l -> l.elements.forEach(elt -> collectIds(elt, names));
+        default -> { }
+        }
+    }
+}
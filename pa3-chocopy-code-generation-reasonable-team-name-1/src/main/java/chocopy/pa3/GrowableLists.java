@@ -0,0 +1,92 @@
+package chocopy.pa3;
+
+import java.util.List;
+
+import chocopy.common.astnodes.*;
+
+/**
+ * Decides whether a program needs growable lists.
+ *
+ * A list that nothing appends to never changes length, so it keeps its
+ * elements in the list object itself.  Once a program calls `append`
+ * on some list, any list may be the one appended to, and since others
+ * may refer to it, a list that outgrows its room cannot be moved.  Such
+ * programs give every list a growable form instead: a fixed object
+ * holding the length, the capacity and the list of elements itself,
+ * which append replaces with one twice as large when it is full.  The
+ * code generator only pays for the extra object and load in programs
+ * this finds an append in.
+ */
+class GrowableLists {
+
+    /** Returns true iff PROGRAM calls append on a list. */
+    static boolean in(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef && in(funcDef)) {
+                return true;
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method && in(method)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return in(program.statements);
+    }
+
+    /** Returns true iff FUNCDEF or a function nested in it calls append
+     *  on a list. */
+    private static boolean in(FuncDef funcDef) {
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested && in(nested)) {
+                return true;
+            }
+        }
+        return in(funcDef.statements);
+    }
+
+    /** Returns true iff STMTS call append on a list. */
+    private static boolean in(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            boolean found = switch (stmt) {
+            case ExprStmt s -> in(s.expr);
+            case AssignStmt s -> s.targets.stream().anyMatch(GrowableLists::in)
+                || in(s.value);
+            case ReturnStmt s -> s.value != null && in(s.value);
+            case IfStmt s -> in(s.condition) || in(s.thenBody)
+                || in(s.elseBody);
+            case WhileStmt s -> in(s.condition) || in(s.body);
+            case ForStmt s -> in(s.iterable) || in(s.body);
+            default -> false;
+            };
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true iff E calls append on a list. */
+    private static boolean in(Expr e) {
+        return switch (e) {
+        case UnaryExpr u -> in(u.operand);
+        case BinaryExpr b -> in(b.left) || in(b.right);
+        case IfExpr ie -> in(ie.condition) || in(ie.thenExpr)
+            || in(ie.elseExpr);
+        case CallExpr c -> c.args.stream().anyMatch(GrowableLists::in);
+        case MethodCallExpr c -> isAppend(c) || in(c.method.object)
+            || c.args.stream().anyMatch(GrowableLists::in);
+        case MemberExpr m -> in(m.object);
+        case IndexExpr ie -> in(ie.list) || in(ie.index);
+        case ListExpr l -> l.elements.stream().anyMatch(GrowableLists::in);
+        default -> false;
+        };
+    }
+
+    /** Returns true iff CALL is a call of append on a list. */
+    static boolean isAppend(MethodCallExpr call) {
+        return call.method.object.getInferredType().isListType()
+            && call.method.member.name.equals("append");
+    }
+}
@@ -0,0 +1,207 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import chocopy.common.astnodes.*;
+
+/**
+ * Selects the constructor calls whose allocation is emitted inline.
+ *
+ * Every constructor call `C()` of a user class or object allocates a
+ * prototype of known size, so the code generator may bump the heap
+ * pointer itself rather than call alloc.  Consecutive statements
+ * `t = C()` in one block, where C's __init__ is object's and each
+ * target is a variable or an attribute of a variable, run nothing
+ * between their allocations that may allocate in turn.  Such a run
+ * forms a batch: its first allocation checks that the heap has room
+ * for the whole batch, and the others just bump.
+ *
+ * The AST is not rewritten; the code generator asks for the batches
+ * with {@link #getBatches}.
+ */
+public class InlineAllocation implements Pass.AstPass {
+
+    /** The constructor calls to allocate inline, each in the batch
+     *  starting at its first call. */
+    private final List<List<CallExpr>> batches = new ArrayList<>();
+
+    /** User classes by name. */
+    private final Map<String, ClassDef> classes = new HashMap<>();
+
+    @Override
+    public String name() {
+        return "inline-alloc";
+    }
+
+    @Override
+    public String statistics() {
+        int sites = 0;
+        for (List<CallExpr> batch : batches) {
+            sites += batch.size();
+        }
+        return sites + " allocations inline in " + batches.size()
+            + " batches";
+    }
+
+    /** Returns the batches of constructor calls to allocate inline, in
+     *  program order. */
+    public List<List<CallExpr>> getBatches() {
+        return batches;
+    }
+
+    @Override
+    public void run(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof ClassDef classDef) {
+                classes.put(classDef.name.name, classDef);
+            }
+        }
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                scanFunction(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        scanFunction(method);
+                    }
+                }
+            }
+        }
+        scanStmts(program.statements);
+    }
+
+    /** Find the sites in FUNCDEF and the functions nested in it. */
+    private void scanFunction(FuncDef funcDef) {
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                scanFunction(nested);
+            }
+        }
+        scanStmts(funcDef.statements);
+    }
+
+    /** Record the sites in STMTS, batching runs of simple
+     *  allocations. */
+    private void scanStmts(List<Stmt> stmts) {
+        List<CallExpr> batch = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            CallExpr simple = simpleAllocation(stmt);
+            if (simple != null) {
+                batch.add(simple);
+                continue;
+            }
+            endBatch(batch);
+            batch = new ArrayList<>();
+            switch (stmt) {
+            case ExprStmt s -> scanExpr(s.expr);
+            case AssignStmt s -> {
+                s.targets.forEach(this::scanExpr);
+                scanExpr(s.value);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    scanExpr(s.value);
+                }
+            }
+            case IfStmt s -> {
+                scanExpr(s.condition);
+                scanStmts(s.thenBody);
+                scanStmts(s.elseBody);
+            }
+            case WhileStmt s -> {
+                scanExpr(s.condition);
+                scanStmts(s.body);
+            }
+            case ForStmt s -> {
+                scanExpr(s.iterable);
+                scanStmts(s.body);
+            }
+            default -> { }
+            }
+        }
+        endBatch(batch);
+    }
+
+    /** Record BATCH, if it is not empty. */
+    private void endBatch(List<CallExpr> batch) {
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+    }
+
+    /** Record each site in E as a batch of its own. */
+    private void scanExpr(Expr e) {
+        switch (e) {
+        case MemberExpr m -> scanExpr(m.object);
+        case IndexExpr ie -> {
+            scanExpr(ie.list);
+            scanExpr(ie.index);
+        }
+        case CallExpr c -> {
+            c.args.forEach(this::scanExpr);
+            if (isConstructor(c)) {
+                batches.add(List.of(c));
+            }
+        }
+        case MethodCallExpr c -> {
+            scanExpr(c.method.object);
+            c.args.forEach(this::scanExpr);
+        }
+        case BinaryExpr b -> {
+            scanExpr(b.left);
+            scanExpr(b.right);
+        }
+        case UnaryExpr u -> scanExpr(u.operand);
+        case IfExpr ie -> {
+            scanExpr(ie.condition);
+            scanExpr(ie.thenExpr);
+            scanExpr(ie.elseExpr);
+        }
+        case ListExpr l -> l.elements.forEach(this::scanExpr);
+        default -> { }
+        }
+    }
+
+    /** Returns the constructor call of STMT if it has the form `t = C()`
+     *  that may join a batch, or null. */
+    private CallExpr simpleAllocation(Stmt stmt) {
+        if (!(stmt instanceof AssignStmt s)
+            || !(s.value instanceof CallExpr call)
+            || !isConstructor(call) || !hasObjectInit(call.function.name)) {
+            return null;
+        }
+        for (Expr target : s.targets) {
+            if (!(target instanceof Identifier)
+                && !(target instanceof MemberExpr m
+                     && m.object instanceof Identifier)) {
+                return null;
+            }
+        }
+        return call;
+    }
+
+    /** Returns true iff CALL makes an object of a user class or of
+     *  object. */
+    private boolean isConstructor(CallExpr call) {
+        String name = call.function.name;
+        return name.equals("object") || classes.containsKey(name);
+    }
+
+    /** Returns true iff class CLASSNAME inherits object's __init__. */
+    private boolean hasObjectInit(String className) {
+        ClassDef classDef = classes.get(className);
+        while (classDef != null) {
+            for (Declaration member : classDef.declarations) {
+                if (member instanceof FuncDef method
+                    && method.name.name.equals("__init__")) {
+                    return false;
+                }
+            }
+            classDef = classes.get(classDef.superClass.name);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import chocopy.common.analysis.types.Type;
+import chocopy.common.astnodes.*;
+
+/**
+ * Finds the global str variables that only ever hold interned strs.
+ *
+ * Under --intern-strings every str constant, including the
+ * one-character strs of allChars, is the only str with its value, so
+ * two such strs are equal iff they are the same object.  A str-valued
+ * expression is interned if it is a literal, a character of a str, a
+ * conditional between interned values, or a global variable that every
+ * assignment anywhere in the program gives an interned value (its
+ * initial value is a literal).  Assignments are found by scope: a
+ * function assigns to a global only after declaring it `global`, and
+ * reads it only when no enclosing function defines the name.
+ */
+class InternedGlobals {
+
+    /** An assignment of VALUE to global NAME, where the names in
+     *  SHADOWED denote locals; VALUE is null if it is an element of a
+     *  list iterated over, which is never known to be interned. */
+    private record Assignment(String name, Expr value, Set<String> shadowed) {}
+
+    /** The assignments to globals seen so far. */
+    private final List<Assignment> assignments = new ArrayList<>();
+
+    /** Returns the names of the global str variables of PROGRAM that
+     *  only ever hold interned strs. */
+    static Set<String> of(Program program) {
+        InternedGlobals finder = new InternedGlobals();
+        Set<String> interned = new HashSet<>();
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof VarDef varDef
+                && varDef.var.type instanceof ClassType type
+                && type.className.equals("str")) {
+                interned.add(varDef.var.identifier.name);
+            } else if (decl instanceof FuncDef funcDef) {
+                finder.scanFunction(funcDef, Set.of());
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        finder.scanFunction(method, Set.of());
+                    }
+                }
+            }
+        }
+        finder.scanStmts(program.statements, null, Set.of());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Assignment a : finder.assignments) {
+                if (interned.contains(a.name())
+                    && (a.value() == null
+                        || !isInterned(a.value(), interned, a.shadowed()))) {
+                    interned.remove(a.name());
+                    changed = true;
+                }
+            }
+        }
+        return interned;
+    }
+
+    /** Returns true iff E is interned, given the INTERNED globals and
+     *  the SHADOWED names that denote locals where E appears. */
+    private static boolean isInterned(Expr e, Set<String> interned,
+                                      Set<String> shadowed) {
+        return switch (e) {
+        case StringLiteral s -> true;
+        case IndexExpr ie -> ie.list.getInferredType().equals(Type.STR_TYPE);
+        case Identifier id ->
+            !shadowed.contains(id.name) && interned.contains(id.name);
+        case IfExpr ie -> isInterned(ie.thenExpr, interned, shadowed)
+            && isInterned(ie.elseExpr, interned, shadowed);
+        default -> false;
+        };
+    }
+
+    /** Record the assignments to globals in FUNCDEF and the functions
+     *  nested in it, where the names in OUTER denote locals of the
+     *  enclosing functions. */
+    private void scanFunction(FuncDef funcDef, Set<String> outer) {
+        Set<String> shadowed = new HashSet<>(outer);
+        Set<String> globals = new HashSet<>();
+        for (TypedVar param : funcDef.params) {
+            shadowed.add(param.identifier.name);
+        }
+        for (Declaration decl : funcDef.declarations) {
+            switch (decl) {
+            case VarDef v -> shadowed.add(v.var.identifier.name);
+            case FuncDef f -> shadowed.add(f.name.name);
+            case GlobalDecl g -> globals.add(g.variable.name);
+            default -> { }
+            }
+        }
+        shadowed.removeAll(globals);
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                scanFunction(nested, shadowed);
+            }
+        }
+        scanStmts(funcDef.statements, globals, shadowed);
+    }
+
+    /** Record the assignments in STMTS to the names in GLOBALS, or to
+     *  any name at the top level, where GLOBALS is null.  SHADOWED holds
+     *  the names that denote locals. */
+    private void scanStmts(List<Stmt> stmts, Set<String> globals,
+                           Set<String> shadowed) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (target instanceof Identifier id
+                        && assignsGlobal(id.name, globals)) {
+                        assignments.add(
+                            new Assignment(id.name, s.value, shadowed));
+                    }
+                }
+            }
+            case IfStmt s -> {
+                scanStmts(s.thenBody, globals, shadowed);
+                scanStmts(s.elseBody, globals, shadowed);
+            }
+            case WhileStmt s -> scanStmts(s.body, globals, shadowed);
+            case ForStmt s -> {
+                /* The characters of a str are interned. */
+                String name = s.identifier.name;
+                if (assignsGlobal(name, globals)
+                    && !s.iterable.getInferredType().equals(Type.STR_TYPE)) {
+                    assignments.add(new Assignment(name, null, shadowed));
+                }
+                scanStmts(s.body, globals, shadowed);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Returns true iff an assignment to NAME writes a global, given the
+     *  GLOBALS declared, or null at the top level. */
+    private static boolean assignsGlobal(String name, Set<String> globals) {
+        return globals == null || globals.contains(name);
+    }
+}
@@ -0,0 +1,150 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.pa3.AsmProgram.Insn;
+import chocopy.pa3.AsmProgram.Label;
+import chocopy.pa3.AsmProgram.Line;
+
+/**
+ * Loop rotation by header duplication.
+ *
+ * `for` loops are emitted with the exit test at the top:
+ *
+ *   H:  <header>
+ *       bgeu t1, t2, X
+ *       <body>
+ *       j H
+ *   X:
+ *
+ * which executes two control transfers per iteration.  Assuming that
+ * back edges are taken, this pass copies the (short, straight-line)
+ * header to the bottom of the loop with the exit test inverted, so the
+ * body and test form one contiguous fall-through block:
+ *
+ *   H:  <header>
+ *       bgeu t1, t2, X
+ *   B:  <body>
+ *       <header>
+ *       bltu t1, t2, B
+ *   X:
+ *
+ * While loops are already emitted with the test at the bottom.
+ */
+public class LoopRotation implements Pass.AsmPass {
+
+    /** Largest header, in instructions, that is duplicated. */
+    private static final int MAX_HEADER = 8;
+
+    /** Number of loops rotated. */
+    private int rewrites = 0;
+
+    @Override
+    public String name() {
+        return "loop-rotate";
+    }
+
+    @Override
+    public String statistics() {
+        return rewrites + " loops rotated";
+    }
+
+    /** Returns the number of loops rotated by run(). */
+    public int getRewriteCount() {
+        return rewrites;
+    }
+
+    @Override
+    public void run(AsmProgram code) {
+        List<Line> lines = code.lines;
+        Map<String, Integer> uses = new HashMap<>();
+        Set<String> labels = new HashSet<>();
+        for (Line line : lines) {
+            if (line instanceof Insn insn) {
+                String target = AsmProgram.labelOperand(insn);
+                if (target != null) {
+                    uses.merge(target, 1, Integer::sum);
+                }
+            } else if (line instanceof Label label) {
+                labels.add(label.name());
+            }
+        }
+        BlockLayout.LabelMaker bodies =
+            new BlockLayout.LabelMaker("loop", labels);
+
+        Map<String, Integer> labelIndex = labelIndices(lines);
+        for (int i = lines.size() - 1; i >= 0; i -= 1) {
+            if (!(lines.get(i) instanceof Insn jump)
+                || !jump.op().equals("j")) {
+                continue;
+            }
+            String head = jump.arg(0);
+            Integer h = labelIndex.get(head);
+            if (h == null || h >= i || uses.getOrDefault(head, 0) != 1) {
+                continue;
+            }
+
+            /* The header: straight-line code ending in the exit test. */
+            List<Insn> header = new ArrayList<>();
+            int exitIndex = -1;
+            for (int j = h + 1; j < i && header.size() <= MAX_HEADER;
+                 j += 1) {
+                Line line = lines.get(j);
+                if (line instanceof Label) {
+                    break;
+                }
+                if (line instanceof Insn insn) {
+                    if (BlockLayout.INVERSE.containsKey(insn.op())) {
+                        header.add(insn);
+                        exitIndex = j;
+                        break;
+                    }
+                    if (BlockLayout.isControl(insn)) {
+                        break;
+                    }
+                    header.add(insn);
+                }
+            }
+            if (exitIndex < 0 || header.size() > MAX_HEADER) {
+                continue;
+            }
+            Insn exit = header.remove(header.size() - 1);
+            int after = BlockLayout.nextIndex(lines, i);
+            if (after < 0 || !(lines.get(after) instanceof Label x)
+                || !x.name().equals(AsmProgram.labelOperand(exit))) {
+                continue;
+            }
+
+            String body = bodies.next();
+            List<Line> tail = new ArrayList<>(header);
+            List<String> args = new ArrayList<>(exit.args());
+            args.set(args.size() - 1, body);
+            tail.add(new Insn(BlockLayout.INVERSE.get(exit.op()), args,
+                              "Loop back to body"));
+            lines.remove(i);
+            lines.addAll(i, tail);
+            lines.add(exitIndex + 1, new Label(body, "Loop body"));
+            rewrites += 1;
+
+            /* Start over, since the indices have moved. */
+            labelIndex = labelIndices(lines);
+            i = lines.size();
+        }
+    }
+
+    /** Returns the index of each label defined in LINES. */
+    private static Map<String, Integer> labelIndices(List<Line> lines) {
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (lines.get(i) instanceof Label label) {
+                indices.put(label.name(), i);
+            }
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,235 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.pa3.AsmProgram.Insn;
+import chocopy.pa3.AsmProgram.Label;
+import chocopy.pa3.AsmProgram.Line;
+import chocopy.pa3.AsmProgram.Other;
+
+/**
+ * Machine outliner for code size.
+ *
+ * Finds instruction sequences that repeat across the whole program
+ * (all function bodies, the top level and the runtime routines) with a
+ * suffix tree, and replaces them with calls to a shared outlined
+ * function when that saves space:
+ *
+ *       jal tp, outlined.0
+ *   ...
+ *   outlined.0:
+ *       <sequence>
+ *       jr tp
+ *
+ * Outlined functions link through a register the program never uses
+ * (tp, normally), so RA and the stack are untouched and outlined code
+ * may appear anywhere, including in leaf routines that do not save RA.
+ * A sequence never spans a label, a directive or a branch, jump or
+ * call.
+ */
+public class MachineOutliner implements Pass.AsmPass {
+
+    /** Registers that may serve as the link register, by preference. */
+    private static final String[] LINK_REGISTERS = {
+        "tp", "t6", "t5", "t4", "s11", "s10", "s9", "s8", "s7", "s6",
+    };
+
+    /** Number of outlined functions created. */
+    private int functions = 0;
+
+    /** Number of sequences replaced by calls. */
+    private int calls = 0;
+
+    /** Net bytes saved. */
+    private int saved = 0;
+
+    @Override
+    public String name() {
+        return "outline";
+    }
+
+    @Override
+    public String statistics() {
+        return String.format("%d functions outlined from %d sites, "
+                             + "%d bytes saved", functions, calls, saved);
+    }
+
+    @Override
+    public void run(AsmProgram code) {
+        List<Line> lines = code.lines;
+        String link = linkRegister(lines);
+        if (link == null) {
+            return;
+        }
+
+        /* Map each outlinable instruction to a number identifying its
+         * text, and everything else to a unique separator. */
+        List<Integer> positions = new ArrayList<>();
+        List<Integer> symbols = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        int separator = -1;
+        for (int i = 0; i < lines.size(); i += 1) {
+            Line line = lines.get(i);
+            if (line instanceof Other) {
+                continue;
+            }
+            if (line instanceof Insn insn && isOutlinable(insn)) {
+                symbols.add(ids.computeIfAbsent(insn.text(),
+                                                k -> ids.size()));
+            } else {
+                symbols.add(separator);
+                separator -= 1;
+            }
+            positions.add(i);
+        }
+        symbols.add(separator);
+        int[] str = symbols.stream().mapToInt(Integer::intValue).toArray();
+
+        List<SuffixTree.Repeat> repeats = new SuffixTree(str).repeats(2);
+        Map<SuffixTree.Repeat, Integer> sizes = new HashMap<>();
+        for (SuffixTree.Repeat repeat : repeats) {
+            sizes.put(repeat, sizeOf(lines, positions, repeat));
+        }
+        repeats.sort(Comparator.comparingInt(
+            (SuffixTree.Repeat r) -> -benefit(r.starts().size(),
+                                              sizes.get(r))));
+
+        /* Greedily take the most profitable sequences whose occurrences
+         * do not overlap anything already outlined. */
+        boolean[] taken = new boolean[str.length];
+        Map<Integer, String> callAt = new HashMap<>();
+        Set<Integer> removed = new HashSet<>();
+        List<Line> bodies = new ArrayList<>();
+        Set<String> labels = new HashSet<>();
+        for (Line line : lines) {
+            if (line instanceof Label label) {
+                labels.add(label.name());
+            }
+        }
+        BlockLayout.LabelMaker names =
+            new BlockLayout.LabelMaker("outlined", labels);
+
+        for (SuffixTree.Repeat repeat : repeats) {
+            int length = repeat.length();
+            List<Integer> starts = new ArrayList<>();
+            int lastEnd = -1;
+            for (int start : repeat.starts()) {
+                if (start < lastEnd) {
+                    continue;
+                }
+                boolean free = true;
+                for (int k = start; k < start + length; k += 1) {
+                    free &= !taken[k];
+                }
+                if (free) {
+                    starts.add(start);
+                    lastEnd = start + length;
+                }
+            }
+            int benefit = benefit(starts.size(), sizes.get(repeat));
+            if (starts.size() < 2 || benefit <= 0) {
+                continue;
+            }
+
+            String name = names.next();
+            bodies.add(new Other(""));
+            bodies.add(new Label(name, "Outlined sequence"));
+            for (int k = 0; k < length; k += 1) {
+                bodies.add(lines.get(positions.get(starts.get(0) + k)));
+            }
+            bodies.add(Insn.of("jr", "Return from outlined sequence", link));
+            for (int start : starts) {
+                for (int k = start; k < start + length; k += 1) {
+                    taken[k] = true;
+                    removed.add(positions.get(k));
+                }
+                callAt.put(positions.get(start), name);
+            }
+            functions += 1;
+            calls += starts.size();
+            saved += benefit;
+        }
+        if (functions == 0) {
+            return;
+        }
+
+        int lastInsn = -1;
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (lines.get(i) instanceof Insn) {
+                lastInsn = i;
+            }
+        }
+        List<Line> out = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            String callee = callAt.get(i);
+            if (callee != null) {
+                out.add(Insn.of("jal", "Call outlined sequence", link,
+                                callee));
+            } else if (!removed.contains(i)) {
+                out.add(lines.get(i));
+            }
+            if (i == lastInsn) {
+                out.addAll(bodies);
+            }
+        }
+        lines.clear();
+        lines.addAll(out);
+    }
+
+    /** Returns the bytes saved by outlining N copies of a sequence
+     *  taking SIZE bytes. */
+    private static int benefit(int n, int size) {
+        int before = n * size;
+        int after = n * 4 + size + 4;
+        return before - after;
+    }
+
+    /** Returns the size in bytes of the first occurrence of REPEAT, whose
+     *  instructions are at POSITIONS in LINES. */
+    private static int sizeOf(List<Line> lines, List<Integer> positions,
+                              SuffixTree.Repeat repeat) {
+        int size = 0;
+        int start = repeat.starts().get(0);
+        for (int k = start; k < start + repeat.length(); k += 1) {
+            size += BlockLayout.size(lines.get(positions.get(k)));
+        }
+        return size;
+    }
+
+    /** Returns true iff INSN may be moved into an outlined function:
+     *  it does not transfer control.  Calls are excluded too, since the
+     *  callee may itself call an outlined function and so overwrite the
+     *  link register. */
+    private static boolean isOutlinable(Insn insn) {
+        return AsmProgram.baseOp(insn.op()).equals("ecall")
+            || !BlockLayout.isControl(insn);
+    }
+
+    /** Returns a register that no instruction in LINES mentions, or null
+     *  if there is none. */
+    private static String linkRegister(List<Line> lines) {
+        Set<String> used = new HashSet<>();
+        for (Line line : lines) {
+            if (line instanceof Insn insn) {
+                for (String arg : insn.args()) {
+                    int paren = arg.indexOf('(');
+                    used.add(paren >= 0
+                             ? arg.substring(paren + 1, arg.length() - 1)
+                             : arg);
+                }
+            }
+        }
+        for (String reg : LINK_REGISTERS) {
+            if (!used.contains(reg)) {
+                return reg;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,35 @@
+package chocopy.pa3;
+
+import chocopy.common.astnodes.Program;
+
+/**
+ * An optimization pass scheduled by {@link PassManager}.
+ *
+ * Passes either rewrite the typed AST before code generation
+ * ({@link AstPass}) or the emitted machine code afterwards
+ * ({@link AsmPass}).  Each pass has a unique NAME, used by the
+ * --pass-enable and --pass-disable flags.
+ */
+public sealed interface Pass permits Pass.AstPass, Pass.AsmPass {
+
+    /** Returns the name of this pass on the command line. */
+    String name();
+
+    /** Returns a one-line summary of what the last run did, for the
+     *  --time-passes report, or null. */
+    default String statistics() {
+        return null;
+    }
+
+    /** A pass over the typed AST, run before code generation. */
+    non-sealed interface AstPass extends Pass {
+        /** Rewrite PROGRAM in place. */
+        void run(Program program);
+    }
+
+    /** A pass over the emitted machine code. */
+    non-sealed interface AsmPass extends Pass {
+        /** Rewrite CODE in place. */
+        void run(AsmProgram code);
+    }
+}
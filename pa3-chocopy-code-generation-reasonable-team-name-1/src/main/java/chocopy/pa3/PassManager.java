@@ -0,0 +1,294 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import chocopy.common.astnodes.*;
+import chocopy.pa3.CodeGenOptions.OptLevel;
+
+/**
+ * Runs the optimization pipeline.
+ *
+ * Passes are registered in pipeline order together with the levels at
+ * which they run by default.  The passes selected by the options'
+ * level, --pass-enable and --pass-disable flags run in registration
+ * order whatever the flags: AST passes before code generation,
+ * machine-code passes after it.  Under --debug (or
+ * --time-passes) each pass is timed and the report printed to stderr,
+ * and under --debug the IR is verified after every pass.
+ */
+public class PassManager {
+
+    /** A registered pass: how to make it and when it runs. */
+    private record Entry(String name, Supplier<? extends Pass> factory,
+                         Set<OptLevel> levels) {}
+
+    /** Registered passes, by name, in pipeline order. */
+    private final Map<String, Entry> registry = new LinkedHashMap<>();
+
+    /** Options controlling pass selection. */
+    private final CodeGenOptions options;
+
+    /** The selected passes, in pipeline order, once resolved. */
+    private List<Pass> pipeline;
+
+    /** Time taken by each pass run so far, in nanoseconds. */
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+
+    /** Passes run so far. */
+    private final List<Pass> ran = new ArrayList<>();
+
+    /** A pass manager with no passes, configured by OPTIONS. */
+    public PassManager(CodeGenOptions options) {
+        this.options = options;
+    }
+
+    /** Returns a pass manager with the standard pipeline, configured by
+     *  OPTIONS. */
+    public static PassManager standard(CodeGenOptions options) {
+        PassManager passes = new PassManager(options);
+        Set<OptLevel> optimizing = EnumSet.of(OptLevel.O1, OptLevel.O2,
+                                              OptLevel.Os);
+        passes.register(ScalarReplacement::new, optimizing);
+        passes.register(ConstantPropagation::new, optimizing);
+        passes.register(DeadCodeElimination::new, optimizing);
+        passes.register(EscapeAnalysis::new, EnumSet.of(OptLevel.O2));
+        passes.register(InlineAllocation::new, EnumSet.of(OptLevel.O2));
+        passes.register(BlockLayout::new,
+                        EnumSet.of(OptLevel.O2, OptLevel.Os));
+        passes.register(LoopRotation::new, EnumSet.of(OptLevel.O2));
+        passes.register(MachineOutliner::new, EnumSet.of(OptLevel.Os));
+        /* Must stay last: it relies on final code layout. */
+        passes.register(RvcCompression::new, EnumSet.noneOf(OptLevel.class));
+        return passes;
+    }
+
+    /** Add the pass made by FACTORY to the end of the pipeline, run by
+     *  default at LEVELS. */
+    public void register(Supplier<? extends Pass> factory,
+                         Set<OptLevel> levels) {
+        Pass sample = factory.get();
+        if (registry.containsKey(sample.name())) {
+            throw new IllegalStateException(
+                "Pass registered twice: " + sample.name());
+        }
+        registry.put(sample.name(),
+                     new Entry(sample.name(), factory, levels));
+        pipeline = null;
+    }
+
+    /**
+     * Returns the selected passes in pipeline order.  Throws
+     * IllegalArgumentException if a flag names an unknown pass.
+     */
+    public List<Pass> pipeline() {
+        if (pipeline != null) {
+            return pipeline;
+        }
+        for (String name : options.enabledPasses) {
+            checkKnown(name);
+        }
+        for (String name : options.disabledPasses) {
+            checkKnown(name);
+        }
+
+        pipeline = new ArrayList<>();
+        for (Entry entry : registry.values()) {
+            if ((entry.levels().contains(options.level)
+                 || options.enabledPasses.contains(entry.name()))
+                && !options.disabledPasses.contains(entry.name())) {
+                pipeline.add(entry.factory().get());
+            }
+        }
+        return pipeline;
+    }
+
+    /** Throw IllegalArgumentException unless NAME is a registered pass. */
+    private void checkKnown(String name) {
+        if (!registry.containsKey(name)) {
+            throw new IllegalArgumentException(
+                "Unknown pass: " + name + " (known passes: "
+                + String.join(", ", registry.keySet()) + ")");
+        }
+    }
+
+    /** Returns the pass of class TYPE that has run, or null if none
+     *  has. */
+    public <T extends Pass> T ranPass(Class<T> type) {
+        for (Pass pass : ran) {
+            if (type.isInstance(pass)) {
+                return type.cast(pass);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff any selected pass works on machine code. */
+    public boolean hasAsmPasses() {
+        for (Pass pass : pipeline()) {
+            if (pass instanceof Pass.AsmPass) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Run the selected AST passes on PROGRAM. */
+    public void runAstPasses(Program program) {
+        if (options.debug) {
+            verifyAst(program, "input");
+        }
+        for (Pass pass : pipeline()) {
+            if (pass instanceof Pass.AstPass astPass) {
+                long start = System.nanoTime();
+                astPass.run(program);
+                timings.put(pass.name(), System.nanoTime() - start);
+                ran.add(pass);
+                if (options.debug) {
+                    verifyAst(program, pass.name());
+                }
+            }
+        }
+    }
+
+    /** Run the selected machine-code passes on CODE. */
+    public void runAsmPasses(AsmProgram code) {
+        if (options.debug) {
+            code.verify();
+        }
+        for (Pass pass : pipeline()) {
+            if (pass instanceof Pass.AsmPass asmPass) {
+                long start = System.nanoTime();
+                asmPass.run(code);
+                timings.put(pass.name(), System.nanoTime() - start);
+                ran.add(pass);
+                if (options.debug) {
+                    try {
+                        code.verify();
+                    } catch (IllegalStateException e) {
+                        throw new IllegalStateException(
+                            "After pass " + pass.name() + ": "
+                            + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Print the time taken by each pass to stderr, if requested. */
+    public void reportTimings() {
+        if (!options.debug && !options.timePasses) {
+            return;
+        }
+        long total = 0;
+        System.err.println("Pass timings (-" + options.level + "):");
+        for (Pass pass : ran) {
+            long time = timings.get(pass.name());
+            String stats = pass.statistics();
+            System.err.printf("  %-24s %10.3f ms%s%n", pass.name(),
+                              time / 1e6, stats == null ? "" : "  " + stats);
+            total += time;
+        }
+        System.err.printf("  %-24s %10.3f ms%n", "total", total / 1e6);
+    }
+
+    /**
+     * Check that PROGRAM is still fit for code generation after the pass
+     * named AFTER: every expression has an inferred type.  Throws
+     * IllegalStateException otherwise.
+     */
+    private static void verifyAst(Program program, String after) {
+        for (Declaration decl : program.declarations) {
+            verifyDecl(decl, after);
+        }
+        verifyStmts(program.statements, after);
+    }
+
+    /** Verify the function bodies in DECL.  See verifyAst. */
+    private static void verifyDecl(Declaration decl, String after) {
+        if (decl instanceof FuncDef funcDef) {
+            for (Declaration nested : funcDef.declarations) {
+                verifyDecl(nested, after);
+            }
+            verifyStmts(funcDef.statements, after);
+        } else if (decl instanceof ClassDef classDef) {
+            for (Declaration member : classDef.declarations) {
+                verifyDecl(member, after);
+            }
+        }
+    }
+
+    /** Verify STMTS.  See verifyAst. */
+    private static void verifyStmts(List<Stmt> stmts, String after) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> verifyExpr(s.expr, after);
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    verifyExpr(target, after);
+                }
+                verifyExpr(s.value, after);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    verifyExpr(s.value, after);
+                }
+            }
+            case IfStmt s -> {
+                verifyExpr(s.condition, after);
+                verifyStmts(s.thenBody, after);
+                verifyStmts(s.elseBody, after);
+            }
+            case WhileStmt s -> {
+                verifyExpr(s.condition, after);
+                verifyStmts(s.body, after);
+            }
+            case ForStmt s -> {
+                verifyExpr(s.identifier, after);
+                verifyExpr(s.iterable, after);
+                verifyStmts(s.body, after);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Verify E and its subexpressions.  See verifyAst. */
+    private static void verifyExpr(Expr e, String after) {
+        if (e.getInferredType() == null) {
+            int[] location = e.getLocation();
+            throw new IllegalStateException(
+                "Untyped " + e.kind + " at " + location[0] + ":"
+                + location[1] + " after pass " + after);
+        }
+        switch (e) {
+        case UnaryExpr u -> verifyExpr(u.operand, after);
+        case BinaryExpr b -> {
+            verifyExpr(b.left, after);
+            verifyExpr(b.right, after);
+        }
+        case IfExpr ie -> {
+            verifyExpr(ie.condition, after);
+            verifyExpr(ie.thenExpr, after);
+            verifyExpr(ie.elseExpr, after);
+        }
+        case CallExpr c -> c.args.forEach(arg -> verifyExpr(arg, after));
+        case MethodCallExpr c -> {
+            verifyExpr(c.method.object, after);
+            c.args.forEach(arg -> verifyExpr(arg, after));
+        }
+        case MemberExpr m -> verifyExpr(m.object, after);
+        case IndexExpr ie -> {
+            verifyExpr(ie.list, after);
+            verifyExpr(ie.index, after);
+        }
+        case ListExpr l -> l.elements.forEach(elt -> verifyExpr(elt, after));
+        default -> { }
+        }
+    }
+}
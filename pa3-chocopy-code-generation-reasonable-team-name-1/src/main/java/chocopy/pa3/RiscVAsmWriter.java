@@ -16,6 +16,12 @@ public class RiscVAsmWriter {
     /** The word size in bytes for RISC-V 32-bit. */
     protected static final int WORD_SIZE = 4;
 
+    /** True iff output is in a data section. */
+    private boolean inData = false;
+
+    /** Number of bytes emitted in data sections so far. */
+    private int dataSize = 0;
+
     /**
      * RISC-V physical registers. These correspond to registers in the RISC-V
      * instruction set and thus can be emitted by RiscVAsmWriter.
@@ -77,6 +83,10 @@ public class RiscVAsmWriter {
      */
     public int getWordSize() { return WORD_SIZE; }
 
+    /** Returns the number of bytes emitted in data sections so far,
+     *  counting alignment padding. */
+    public int getDataSize() { return dataSize; }
+
     /**
      * Emit the text STR to the output stream verbatim. STR should have no
      * trailing newline.
@@ -108,7 +118,7 @@ public class RiscVAsmWriter {
         if (comment != null) {
             emit(String.format("%-42s # %s", label + ":", comment));
         } else {
-            emit(String.format("%s:", label + ":"));
+            emit(String.format("%s:", label));
         }
     }
 
@@ -126,6 +136,7 @@ public class RiscVAsmWriter {
      * a emitted as a one-line comment, if non-null.
      */
     public void emitWordLiteral(int value, String comment) {
+        countData(WORD_SIZE);
         emitInsn(String.format(".word %s", value), comment);
     }
 
@@ -137,6 +148,7 @@ public class RiscVAsmWriter {
         if (addr == null) {
             emitWordLiteral(0, comment);
         } else {
+            countData(WORD_SIZE);
             emitInsn(String.format(".word %s", addr), comment);
         }
     }
@@ -150,24 +162,42 @@ public class RiscVAsmWriter {
                             .replace("\n", "\\n")
                             .replace("\t", "\\t")
                             .replace("\"", "\\\"");
+        countData(value.length() + 1);
         emitInsn(String.format(".string \"%s\"", quoted), comment);
     }
 
+    /** Count SIZE bytes emitted, if in a data section. */
+    private void countData(int size) {
+        if (inData) {
+            dataSize += size;
+        }
+    }
+
     /**
      * Mark the start of a data section.
      */
-    public void startData() { emit("\n.data"); }
+    public void startData() {
+        inData = true;
+        emit("\n.data");
+    }
 
     /**
      * Mark the start of a code/text section.
      */
-    public void startCode() { emit("\n.text"); }
+    public void startCode() {
+        inData = false;
+        emit("\n.text");
+    }
 
     /**
      * Align the next instruction/word in memory to
      * a multiple of 2**POW bytes.
      */
     public void alignNext(int pow) {
+        if (inData) {
+            int mask = (1 << pow) - 1;
+            dataSize = (dataSize + mask) & ~mask;
+        }
         emitInsn(String.format(".align %d", pow));
     }
 
@@ -0,0 +1,271 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import chocopy.common.analysis.types.Type;
+import chocopy.common.astnodes.*;
+
+/**
+ * Finds the str variables that may hold ropes under --ropes.
+ *
+ * A rope is a concatenation node of type .rope standing for its left
+ * operand, a str or another rope, followed by its right operand, a
+ * str.  Appending to a str variable in a loop, `s = s + t`, copies s
+ * each time; appending to a rope only allocates a node.  No runtime
+ * routine knows about ropes, so a variable may hold one only if the
+ * code generator sees every read of it, flattening the rope into a str
+ * (and storing that back) before the value goes anywhere else.
+ *
+ * The rope variables are therefore the str locals and parameters of a
+ * function that no function nested in it mentions, and the str globals
+ * that no function mentions, that some append `v = v + ...` in their
+ * own scope assigns.  Such an append concatenates onto the unflattened
+ * value of v; every other read of v flattens it.
+ */
+class RopeVariables {
+
+    /** An append of OPERANDS, in order, to variable BASE. */
+    record Append(Identifier base, List<Expr> operands) {}
+
+    /** The appends to rope variables. */
+    final Map<AssignStmt, Append> appends = new IdentityHashMap<>();
+
+    /** The reads of rope variables that flatten them: all but the bases
+     *  of appends. */
+    final Set<Identifier> reads =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Returns the rope variables of PROGRAM. */
+    static RopeVariables of(Program program) {
+        RopeVariables ropes = new RopeVariables();
+        Set<String> candidates = new HashSet<>();
+        Set<String> mentioned = new HashSet<>();
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof VarDef varDef && isStr(varDef.var)) {
+                candidates.add(varDef.var.identifier.name);
+            } else if (decl instanceof FuncDef funcDef) {
+                namesIn(funcDef, mentioned);
+                ropes.scanFunction(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        namesIn(method, mentioned);
+                        ropes.scanFunction(method);
+                    }
+                }
+            }
+        }
+        candidates.removeAll(mentioned);
+        ropes.scanScope(program.statements, candidates);
+        return ropes;
+    }
+
+    /** Returns true iff VAR is declared str. */
+    private static boolean isStr(TypedVar var) {
+        return var.type instanceof ClassType type
+            && type.className.equals("str");
+    }
+
+    /** Find the rope variables of FUNCDEF and the functions nested in
+     *  it. */
+    private void scanFunction(FuncDef funcDef) {
+        Set<String> candidates = new HashSet<>();
+        Set<String> mentioned = new HashSet<>();
+        for (TypedVar param : funcDef.params) {
+            if (isStr(param)) {
+                candidates.add(param.identifier.name);
+            }
+        }
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof VarDef varDef && isStr(varDef.var)) {
+                candidates.add(varDef.var.identifier.name);
+            } else if (decl instanceof FuncDef nested) {
+                namesIn(nested, mentioned);
+                scanFunction(nested);
+            }
+        }
+        candidates.removeAll(mentioned);
+        scanScope(funcDef.statements, candidates);
+    }
+
+    /** Record the appends in STMTS, the statements of one scope, to
+     *  the variables in CANDIDATES, and the other reads of the variables
+     *  appended to. */
+    private void scanScope(List<Stmt> stmts, Set<String> candidates) {
+        Map<AssignStmt, Append> found = new IdentityHashMap<>();
+        findAppends(stmts, candidates, found);
+        if (found.isEmpty()) {
+            return;
+        }
+        Set<String> ropeVars = new HashSet<>();
+        Set<Identifier> bases =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Append append : found.values()) {
+            ropeVars.add(append.base().name);
+            bases.add(append.base());
+        }
+        appends.putAll(found);
+        readsIn(stmts, id -> {
+            if (ropeVars.contains(id.name) && !bases.contains(id)) {
+                reads.add(id);
+            }
+        });
+    }
+
+    /** Add to FOUND the appends in STMTS to the variables in
+     *  CANDIDATES. */
+    private static void findAppends(List<Stmt> stmts, Set<String> candidates,
+                                    Map<AssignStmt, Append> found) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                Append append = append(s, candidates);
+                if (append != null) {
+                    found.put(s, append);
+                }
+            }
+            case IfStmt s -> {
+                findAppends(s.thenBody, candidates, found);
+                findAppends(s.elseBody, candidates, found);
+            }
+            case WhileStmt s -> findAppends(s.body, candidates, found);
+            case ForStmt s -> findAppends(s.body, candidates, found);
+            default -> { }
+            }
+        }
+    }
+
+    /** Returns the append that S is, `v = v + e1 + ... + en` for v in
+     *  CANDIDATES, or null. */
+    private static Append append(AssignStmt s, Set<String> candidates) {
+        if (s.targets.size() != 1
+            || !(s.targets.get(0) instanceof Identifier target)
+            || !candidates.contains(target.name)) {
+            return null;
+        }
+        List<Expr> operands = new ArrayList<>();
+        Expr e = s.value;
+        while (e instanceof BinaryExpr b && b.operator.equals("+")
+               && Type.STR_TYPE.equals(b.getInferredType())) {
+            operands.add(0, b.right);
+            e = b.left;
+        }
+        if (operands.isEmpty() || !(e instanceof Identifier base)
+            || !base.name.equals(target.name)) {
+            return null;
+        }
+        return new Append(base, operands);
+    }
+
+    /** Add to NAMES every name that FUNCDEF or a function nested in it
+     *  declares global or nonlocal, assigns or reads. */
+    private static void namesIn(FuncDef funcDef, Set<String> names) {
+        for (Declaration decl : funcDef.declarations) {
+            switch (decl) {
+            case GlobalDecl g -> names.add(g.variable.name);
+            case NonLocalDecl n -> names.add(n.variable.name);
+            case FuncDef nested -> namesIn(nested, names);
+            default -> { }
+            }
+        }
+        readsIn(funcDef.statements, id -> names.add(id.name));
+        targetsIn(funcDef.statements, names);
+    }
+
+    /** Add to NAMES the variables that STMTS assign. */
+    private static void targetsIn(List<Stmt> stmts, Set<String> names) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (target instanceof Identifier id) {
+                        names.add(id.name);
+                    }
+                }
+            }
+            case IfStmt s -> {
+                targetsIn(s.thenBody, names);
+                targetsIn(s.elseBody, names);
+            }
+            case WhileStmt s -> targetsIn(s.body, names);
+            case ForStmt s -> {
+                names.add(s.identifier.name);
+                targetsIn(s.body, names);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Pass each variable read in STMTS to READ. */
+    private static void readsIn(List<Stmt> stmts, Consumer<Identifier> read) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> readsIn(s.expr, read);
+            case AssignStmt s -> {
+                for (Expr target : s.targets) {
+                    if (!(target instanceof Identifier)) {
+                        readsIn(target, read);
+                    }
+                }
+                readsIn(s.value, read);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    readsIn(s.value, read);
+                }
+            }
+            case IfStmt s -> {
+                readsIn(s.condition, read);
+                readsIn(s.thenBody, read);
+                readsIn(s.elseBody, read);
+            }
+            case WhileStmt s -> {
+                readsIn(s.condition, read);
+                readsIn(s.body, read);
+            }
+            case ForStmt s -> {
+                readsIn(s.iterable, read);
+                readsIn(s.body, read);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Pass each variable read in E to READ. */
+    private static void readsIn(Expr e, Consumer<Identifier> read) {
+        switch (e) {
+        case Identifier id -> read.accept(id);
+        case UnaryExpr u -> readsIn(u.operand, read);
+        case BinaryExpr b -> {
+            readsIn(b.left, read);
+            readsIn(b.right, read);
+        }
+        case IfExpr ie -> {
+            readsIn(ie.condition, read);
+            readsIn(ie.thenExpr, read);
+            readsIn(ie.elseExpr, read);
+        }
+        case CallExpr c -> c.args.forEach(arg -> readsIn(arg, read));
+        case MethodCallExpr c -> {
+            readsIn(c.method.object, read);
+            c.args.forEach(arg -> readsIn(arg, read));
+        }
+        case MemberExpr m -> readsIn(m.object, read);
+        case IndexExpr ie -> {
+            readsIn(ie.list, read);
+            readsIn(ie.index, read);
+        }
+        case ListExpr l -> l.elements.forEach(elt -> readsIn(elt, read));
+        default -> { }
+        }
+    }
+}
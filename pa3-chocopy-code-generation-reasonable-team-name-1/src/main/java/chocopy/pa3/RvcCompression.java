@@ -0,0 +1,405 @@
+package chocopy.pa3;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.pa3.AsmProgram.Directive;
+import chocopy.pa3.AsmProgram.Insn;
+import chocopy.pa3.AsmProgram.Label;
+import chocopy.pa3.AsmProgram.Line;
+
+/**
+ * RV32C compression.
+ *
+ * Rewrites each instruction whose operands fit a 16-bit encoding into
+ * its compressed form: c.lw/c.sw (x8-x15, small positive offsets),
+ * c.lwsp/c.swsp, c.addi, c.addi16sp, c.addi4spn, c.li, c.mv, c.add,
+ * c.sub/c.and/c.or/c.xor, c.andi, the shifts, c.j, c.jal, c.jr,
+ * c.jalr, c.beqz and c.bnez.  Symbolic immediates are resolved through
+ * the program's .equiv definitions; operands that cannot be resolved
+ * are left alone.
+ *
+ * Branch ranges are checked against offsets computed with every
+ * instruction at its uncompressed size.  Compression only shortens the
+ * code, so a branch in range before is in range after.  This pass must
+ * therefore run after every pass that changes code layout.
+ */
+public class RvcCompression implements Pass.AsmPass {
+
+    /** Reach of c.j and c.jal, in bytes, with a margin. */
+    private static final int JUMP_RANGE = 2040;
+
+    /** Reach of c.beqz and c.bnez, in bytes, with a margin. */
+    private static final int BRANCH_RANGE = 250;
+
+    /** Register numbers by ABI name. */
+    private static final Map<String, Integer> REGISTERS = new HashMap<>();
+
+    static {
+        String[] names = {
+            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "fp", "s1",
+            "a0", "a1", "a2", "a3", "a4", "a5", "a6", "a7", "s2", "s3",
+            "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11", "t3", "t4",
+            "t5", "t6",
+        };
+        for (int i = 0; i < names.length; i += 1) {
+            REGISTERS.put(names[i], i);
+            REGISTERS.put("x" + i, i);
+        }
+        REGISTERS.put("s0", 8);
+    }
+
+    /** Values of the .equiv symbols, as written. */
+    private final Map<String, String> equivs = new HashMap<>();
+
+    /** Upper bound on the byte offset of each label. */
+    private final Map<String, Integer> labelOffsets = new HashMap<>();
+
+    /** Number of instructions examined. */
+    private int total = 0;
+
+    /** Number of instructions compressed. */
+    private int compressed = 0;
+
+    @Override
+    public String name() {
+        return "rvc";
+    }
+
+    @Override
+    public String statistics() {
+        return String.format("%d of %d instructions compressed, "
+                             + "%d bytes saved", compressed, total,
+                             2 * compressed);
+    }
+
+    @Override
+    public void run(AsmProgram code) {
+        List<Line> lines = code.lines;
+        for (Line line : lines) {
+            if (line instanceof Directive dir
+                && (dir.name().equals(".equiv") || dir.name().equals(".set"))) {
+                String[] parts = dir.operand().split("\\s*,\\s*", 2);
+                equivs.put(parts[0], parts[1]);
+            }
+        }
+
+        int[] offsets = new int[lines.size()];
+        int offset = 0;
+        boolean inText = true;
+        for (int i = 0; i < lines.size(); i += 1) {
+            Line line = lines.get(i);
+            offsets[i] = offset;
+            if (line instanceof Directive dir) {
+                if (dir.name().equals(".text")) {
+                    inText = true;
+                } else if (dir.name().equals(".data")) {
+                    inText = false;
+                }
+            }
+            if (!inText) {
+                continue;
+            }
+            if (line instanceof Label label) {
+                labelOffsets.put(label.name(), offset);
+            }
+            offset += maxSize(line, equivs);
+        }
+
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (lines.get(i) instanceof Insn insn) {
+                total += 1;
+                Insn small = compress(insn, offsets[i]);
+                if (small != null) {
+                    lines.set(i, small);
+                    compressed += 1;
+                }
+            }
+        }
+    }
+
+    /** Returns the compressed form of INSN, located at byte offset at
+     *  most PC, or null if it has none. */
+    private Insn compress(Insn insn, int pc) {
+        List<String> a = insn.args();
+        String c = insn.comment();
+        switch (insn.op()) {
+        case "lw", "sw" -> {
+            if (a.size() != 2 || !a.get(1).endsWith(")")) {
+                return null;
+            }
+            int reg = reg(a.get(0));
+            String base = a.get(1).substring(a.get(1).lastIndexOf('(') + 1,
+                                             a.get(1).length() - 1);
+            Integer off = eval(a.get(1).substring(0,
+                                                  a.get(1).lastIndexOf('(')));
+            if (off == null || off % 4 != 0 || off < 0) {
+                return null;
+            }
+            boolean load = insn.op().equals("lw");
+            if (reg(base) == 2 && off <= 252 && (!load || reg != 0)) {
+                return new Insn(load ? "c.lwsp" : "c.swsp",
+                                List.of(a.get(0), off + "(sp)"), c);
+            }
+            if (isPrime(reg) && isPrime(reg(base)) && off <= 124) {
+                return new Insn(load ? "c.lw" : "c.sw",
+                                List.of(a.get(0), off + "(" + base + ")"), c);
+            }
+            return null;
+        }
+        case "addi" -> {
+            int rd = reg(a.get(0));
+            int rs = reg(a.get(1));
+            Integer imm = eval(a.get(2));
+            if (imm == null || rd < 0 || rs < 0) {
+                return null;
+            }
+            if (imm == 0) {
+                return move(a.get(0), a.get(1), c);
+            }
+            if (rd == 2 && rs == 2 && imm % 16 == 0
+                && imm >= -512 && imm <= 496) {
+                return Insn.of("c.addi16sp", c, "sp", imm.toString());
+            }
+            if (rd == rs && rd != 0 && fits6(imm)) {
+                return Insn.of("c.addi", c, a.get(0), imm.toString());
+            }
+            if (rs == 0 && rd != 0 && fits6(imm)) {
+                return Insn.of("c.li", c, a.get(0), imm.toString());
+            }
+            if (isPrime(rd) && rs == 2 && imm % 4 == 0
+                && imm > 0 && imm <= 1020) {
+                return Insn.of("c.addi4spn", c, a.get(0), "sp",
+                               imm.toString());
+            }
+            return null;
+        }
+        case "li" -> {
+            Integer imm = eval(a.get(1));
+            if (imm != null && reg(a.get(0)) > 0 && fits6(imm)) {
+                return Insn.of("c.li", c, a.get(0), imm.toString());
+            }
+            return null;
+        }
+        case "mv" -> {
+            return move(a.get(0), a.get(1), c);
+        }
+        case "add" -> {
+            int rd = reg(a.get(0));
+            int rs1 = reg(a.get(1));
+            int rs2 = reg(a.get(2));
+            if (rd <= 0 || rs1 < 0 || rs2 < 0) {
+                return null;
+            }
+            if (rs1 == 0) {
+                return move(a.get(0), a.get(2), c);
+            }
+            if (rs2 == 0) {
+                return move(a.get(0), a.get(1), c);
+            }
+            if (rd == rs1) {
+                return Insn.of("c.add", c, a.get(0), a.get(2));
+            }
+            if (rd == rs2) {
+                return Insn.of("c.add", c, a.get(0), a.get(1));
+            }
+            return null;
+        }
+        case "sub", "and", "or", "xor" -> {
+            int rd = reg(a.get(0));
+            int rs1 = reg(a.get(1));
+            int rs2 = reg(a.get(2));
+            if (!isPrime(rd) || !isPrime(rs1) || !isPrime(rs2)) {
+                return null;
+            }
+            String op = "c." + insn.op();
+            if (rd == rs1) {
+                return Insn.of(op, c, a.get(0), a.get(2));
+            }
+            if (rd == rs2 && !insn.op().equals("sub")) {
+                return Insn.of(op, c, a.get(0), a.get(1));
+            }
+            return null;
+        }
+        case "andi" -> {
+            Integer imm = eval(a.get(2));
+            if (imm != null && isPrime(reg(a.get(0)))
+                && a.get(0).equals(a.get(1)) && fits6(imm)) {
+                return Insn.of("c.andi", c, a.get(0), imm.toString());
+            }
+            return null;
+        }
+        case "slli", "srli", "srai" -> {
+            Integer shamt = eval(a.get(2));
+            int rd = reg(a.get(0));
+            boolean ok = insn.op().equals("slli") ? rd > 0 : isPrime(rd);
+            if (shamt != null && ok && reg(a.get(1)) == rd
+                && shamt > 0 && shamt < 32) {
+                return Insn.of("c." + insn.op(), c, a.get(0),
+                               shamt.toString());
+            }
+            return null;
+        }
+        case "j" -> {
+            return inRange(a.get(0), pc, JUMP_RANGE)
+                ? Insn.of("c.j", c, a.get(0)) : null;
+        }
+        case "jal" -> {
+            String target = a.get(a.size() - 1);
+            if ((a.size() == 1 || reg(a.get(0)) == 1)
+                && inRange(target, pc, JUMP_RANGE)) {
+                return Insn.of("c.jal", c, target);
+            }
+            return null;
+        }
+        case "jr" -> {
+            return a.size() == 1 && reg(a.get(0)) > 0
+                ? Insn.of("c.jr", c, a.get(0)) : null;
+        }
+        case "jalr" -> {
+            if (a.size() == 1 && reg(a.get(0)) > 0) {
+                return Insn.of("c.jalr", c, a.get(0));
+            }
+            if (a.size() == 3 && reg(a.get(0)) == 1 && reg(a.get(1)) > 0
+                && Integer.valueOf(0).equals(eval(a.get(2)))) {
+                return Insn.of("c.jalr", c, a.get(1));
+            }
+            return null;
+        }
+        case "beqz", "bnez" -> {
+            if (isPrime(reg(a.get(0)))
+                && inRange(a.get(1), pc, BRANCH_RANGE)) {
+                return Insn.of("c." + insn.op(), c, a.get(0), a.get(1));
+            }
+            return null;
+        }
+        case "beq", "bne" -> {
+            String op = insn.op().equals("beq") ? "c.beqz" : "c.bnez";
+            String reg = reg(a.get(1)) == 0 ? a.get(0)
+                : reg(a.get(0)) == 0 ? a.get(1) : null;
+            if (reg != null && isPrime(reg(reg))
+                && inRange(a.get(2), pc, BRANCH_RANGE)) {
+                return Insn.of(op, c, reg, a.get(2));
+            }
+            return null;
+        }
+        case "nop" -> {
+            return Insn.of("c.nop", c);
+        }
+        default -> {
+            return null;
+        }
+        }
+    }
+
+    /** Returns the compressed form of `mv RD, RS` with comment COMMENT,
+     *  or null if there is none. */
+    private static Insn move(String rd, String rs, String comment) {
+        if (reg(rd) <= 0 || reg(rs) < 0) {
+            return null;
+        }
+        if (reg(rs) == 0) {
+            return Insn.of("c.li", comment, rd, "0");
+        }
+        return Insn.of("c.mv", comment, rd, rs);
+    }
+
+    /** Returns true iff the label TARGET is within RANGE bytes of PC. */
+    private boolean inRange(String target, int pc, int range) {
+        Integer offset = labelOffsets.get(target);
+        return offset != null && Math.abs(offset - pc) <= range;
+    }
+
+    /** Returns the register number of NAME, or -1 if it is not a
+     *  register. */
+    private static int reg(String name) {
+        return REGISTERS.getOrDefault(name, -1);
+    }
+
+    /** Returns true iff register REG is one of x8-x15, which the 3-bit
+     *  register fields of compressed instructions can name. */
+    private static boolean isPrime(int reg) {
+        return reg >= 8 && reg <= 15;
+    }
+
+    /** Returns true iff IMM fits a 6-bit signed immediate. */
+    private static boolean fits6(int imm) {
+        return imm >= -32 && imm < 32;
+    }
+
+    /** Returns the value of the immediate operand EXPR, which is empty,
+     *  a numeral, or an optionally negated .equiv symbol, or null if it
+     *  has no known value. */
+    private Integer eval(String expr) {
+        return eval(expr.strip(), equivs, Set.of());
+    }
+
+    /** Returns the value of EXPR with the .equiv symbols in EQUIVS, but
+     *  without expanding those in EXPANDING, or null.  See
+     *  eval(String). */
+    private static Integer eval(String expr, Map<String, String> equivs,
+                                Set<String> expanding) {
+        if (expr.isEmpty()) {
+            return 0;
+        }
+        if (expr.startsWith("-")) {
+            Integer value = eval(expr.substring(1).strip(), equivs,
+                                 expanding);
+            return value == null ? null : -value;
+        }
+        if (equivs.containsKey(expr) && !expanding.contains(expr)) {
+            Set<String> inner = new java.util.HashSet<>(expanding);
+            inner.add(expr);
+            return eval(equivs.get(expr).strip(), equivs, inner);
+        }
+        try {
+            return Integer.decode(expr);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Returns an upper bound on the size in bytes of LINE in a text
+     *  section, before compression, with the .equiv symbols in EQUIVS.
+     *  Pseudo-instructions are counted at their expanded size. */
+    static int maxSize(Line line, Map<String, String> equivs) {
+        if (line instanceof Insn insn) {
+            List<String> a = insn.args();
+            switch (insn.op()) {
+            case "la", "call", "tail":
+                return 8;
+            case "li": {
+                Integer imm = eval(a.get(1).strip(), equivs, Set.of());
+                return imm != null && imm >= -2048 && imm < 2048 ? 4 : 8;
+            }
+            case "lw", "lb", "lbu", "lh", "lhu":
+                return a.size() == 2 && !a.get(1).contains("(") ? 8 : 4;
+            case "sw", "sb", "sh":
+                return a.size() == 3 ? 8 : 4;
+            default:
+                return 4;
+            }
+        }
+        if (line instanceof Directive dir) {
+            switch (dir.name()) {
+            case ".word":
+                return 4;
+            case ".align": {
+                Integer pow = eval(dir.operand().strip(), equivs, Set.of());
+                return pow == null ? 4096 : 1 << pow;
+            }
+            case ".space": {
+                Integer size = eval(dir.operand().strip(), equivs, Set.of());
+                return size == null ? 0 : size;
+            }
+            case ".string":
+                return dir.operand().length();
+            default:
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,475 @@
+package chocopy.pa3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chocopy.common.analysis.types.Type;
+import chocopy.common.analysis.types.ValueType;
+import chocopy.common.astnodes.*;
+
+/**
+ * Scalar replacement of non-escaping objects over the typed AST.
+ *
+ * A local variable v is replaced by one local variable `v.a` for each
+ * attribute a it is used with when
+ *   - v is contained, as defined by {@link EscapeAnalysis};
+ *   - every assignment to v is `v = C()` for one class C whose
+ *     __init__ is object's, and the first statement of the function to
+ *     mention v is such an assignment, so v never holds None;
+ *   - every other use of v is a read or write of an attribute of C.
+ * Each `v = C()` becomes assignments of the attributes' initial
+ * values, and each `v.a` becomes `v.a`, so the object, its allocation,
+ * the copy of its prototype and all loads and stores through it
+ * disappear, and the attributes are left to constant propagation and
+ * dead-code elimination.  Attributes of reference type initialized to
+ * an int or bool are not replaced, since locals are not boxed.
+ *
+ * Runs before constant propagation so that it sees the new variables.
+ */
+public class ScalarReplacement implements Pass.AstPass {
+
+    /** User classes by name. */
+    private final Map<String, ClassDef> classes = new HashMap<>();
+
+    /** Number of variables replaced. */
+    private int replaced = 0;
+
+    /** Number of variables introduced for their attributes. */
+    private int scalars = 0;
+
+    @Override
+    public String name() {
+        return "sroa";
+    }
+
+    @Override
+    public String statistics() {
+        return replaced + " objects replaced by " + scalars + " scalars";
+    }
+
+    @Override
+    public void run(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof ClassDef classDef) {
+                classes.put(classDef.name.name, classDef);
+            }
+        }
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof FuncDef funcDef) {
+                optimizeFunction(funcDef);
+            } else if (decl instanceof ClassDef classDef) {
+                for (Declaration member : classDef.declarations) {
+                    if (member instanceof FuncDef method) {
+                        optimizeFunction(method);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Replace the eligible variables of FUNCDEF and of the functions
+     *  nested in it. */
+    private void optimizeFunction(FuncDef funcDef) {
+        Set<String> nestedNames = new HashSet<>();
+        for (Declaration decl : funcDef.declarations) {
+            if (decl instanceof FuncDef nested) {
+                optimizeFunction(nested);
+                EscapeAnalysis.mentionedNames(nested, nestedNames);
+            }
+        }
+        Set<String> escaping = EscapeAnalysis.escaping(funcDef.statements);
+
+        for (int i = 0; i < funcDef.declarations.size(); i++) {
+            if (!(funcDef.declarations.get(i) instanceof VarDef varDef)) {
+                continue;
+            }
+            String name = varDef.var.identifier.name;
+            if (nestedNames.contains(name) || escaping.contains(name)) {
+                continue;
+            }
+            Candidate candidate = new Candidate(name);
+            if (!candidate.check(funcDef.statements)) {
+                continue;
+            }
+            List<VarDef> fields = new ArrayList<>();
+            for (Map.Entry<String, VarDef> e
+                     : candidate.attributes.entrySet()) {
+                VarDef attr = e.getValue();
+                Identifier id = new Identifier(null, null, e.getKey());
+                id.setLocation(varDef.var.identifier.getLocation());
+                TypedVar var = new TypedVar(null, null, id, attr.var.type);
+                var.setLocation(varDef.var.getLocation());
+                VarDef field = new VarDef(null, null, var,
+                                          copyLiteral(attr.value));
+                field.setLocation(varDef.getLocation());
+                fields.add(field);
+            }
+            funcDef.declarations.remove(i);
+            funcDef.declarations.addAll(i, fields);
+            i += fields.size() - 1;
+            candidate.rewriteBlock(funcDef.statements);
+            replaced++;
+            scalars += fields.size();
+        }
+    }
+
+    /** Returns the declaration of attribute NAME in class CLASSNAME or
+     *  its superclasses, or null if there is none. */
+    private VarDef attribute(String className, String name) {
+        for (ClassDef classDef = classes.get(className); classDef != null;
+             classDef = classes.get(classDef.superClass.name)) {
+            for (Declaration member : classDef.declarations) {
+                if (member instanceof VarDef attr
+                    && attr.var.identifier.name.equals(name)) {
+                    return attr;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff class CLASSNAME inherits object's __init__. */
+    private boolean hasTrivialInit(String className) {
+        for (ClassDef classDef = classes.get(className); classDef != null;
+             classDef = classes.get(classDef.superClass.name)) {
+            for (Declaration member : classDef.declarations) {
+                if (member instanceof FuncDef method
+                    && method.name.name.equals("__init__")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns a copy of literal LIT. */
+    private static Literal copyLiteral(Literal lit) {
+        Literal copy;
+        Type type;
+        switch (lit) {
+        case IntegerLiteral i -> {
+            copy = new IntegerLiteral(null, null, i.value);
+            type = Type.INT_TYPE;
+        }
+        case BooleanLiteral b -> {
+            copy = new BooleanLiteral(null, null, b.value);
+            type = Type.BOOL_TYPE;
+        }
+        case StringLiteral s -> {
+            copy = new StringLiteral(null, null, s.value);
+            type = Type.STR_TYPE;
+        }
+        default -> {
+            copy = new NoneLiteral(null, null);
+            type = Type.NONE_TYPE;
+        }
+        }
+        copy.setLocation(lit.getLocation());
+        copy.setInferredType(type);
+        return copy;
+    }
+
+    /** A local variable being checked for replacement, and then
+     *  replaced. */
+    private class Candidate {
+        /** The variable. */
+        final String name;
+        /** Its class, once an assignment has been seen. */
+        String className;
+        /** Declarations of the attributes it is used with, by the name
+         *  of the variables replacing them. */
+        final Map<String, VarDef> attributes = new LinkedHashMap<>();
+
+        /** A candidate for variable NAME. */
+        Candidate(String name) {
+            this.name = name;
+        }
+
+        /** Returns true iff the variable may be replaced in the function
+         *  with body STMTS. */
+        boolean check(List<Stmt> stmts) {
+            for (Stmt stmt : stmts) {
+                Set<String> names = new HashSet<>();
+                EscapeAnalysis.collectNames(List.of(stmt), names);
+                if (names.contains(name)) {
+                    if (!isConstruction(stmt)) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            return checkStmts(stmts) && className != null;
+        }
+
+        /** Returns true iff STMT is `v = C()` for the variable v. */
+        boolean isConstruction(Stmt stmt) {
+            return stmt instanceof AssignStmt s && s.targets.size() == 1
+                && s.targets.get(0) instanceof Identifier id
+                && id.name.equals(name)
+                && s.value instanceof CallExpr call
+                && classes.containsKey(call.function.name);
+        }
+
+        /** Returns true iff every use of the variable in STMTS is
+         *  permitted.  Records the attributes used. */
+        boolean checkStmts(List<Stmt> stmts) {
+            for (Stmt stmt : stmts) {
+                boolean ok = switch (stmt) {
+                case ExprStmt s -> checkExpr(s.expr);
+                case AssignStmt s -> checkAssign(s);
+                case ReturnStmt s -> s.value == null || checkExpr(s.value);
+                case IfStmt s -> checkExpr(s.condition)
+                    && checkStmts(s.thenBody) && checkStmts(s.elseBody);
+                case WhileStmt s -> checkExpr(s.condition)
+                    && checkStmts(s.body);
+                case ForStmt s -> !s.identifier.name.equals(name)
+                    && checkExpr(s.iterable) && checkStmts(s.body);
+                default -> true;
+                };
+                if (!ok) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns true iff every use of the variable in S is permitted.
+         *  See checkStmts. */
+        boolean checkAssign(AssignStmt s) {
+            for (Expr target : s.targets) {
+                if (target instanceof Identifier id && id.name.equals(name)) {
+                    if (!isConstruction(s)) {
+                        return false;
+                    }
+                    String cls = ((CallExpr) s.value).function.name;
+                    if (className != null && !className.equals(cls)
+                        || !hasTrivialInit(cls)) {
+                        return false;
+                    }
+                    className = cls;
+                } else if (!checkExpr(target)) {
+                    return false;
+                }
+            }
+            return checkExpr(s.value);
+        }
+
+        /** Returns true iff every use of the variable in E is permitted.
+         *  See checkStmts. */
+        boolean checkExpr(Expr e) {
+            Set<String> names = new HashSet<>();
+            EscapeAnalysis.collectIds(e, names);
+            if (!names.contains(name)) {
+                return true;
+            }
+            return switch (e) {
+            case Identifier id -> false;
+            case MemberExpr m -> {
+                if (m.object instanceof Identifier id
+                    && id.name.equals(name)) {
+                    yield checkAttribute(m.member.name);
+                }
+                yield checkExpr(m.object);
+            }
+            case IndexExpr ie -> checkExpr(ie.list) && checkExpr(ie.index);
+            case CallExpr c -> c.args.stream().allMatch(this::checkExpr);
+            case MethodCallExpr c -> checkExpr(c.method.object)
+                && c.args.stream().allMatch(this::checkExpr);
+            case BinaryExpr b -> checkExpr(b.left) && checkExpr(b.right);
+            case UnaryExpr u -> checkExpr(u.operand);
+            case IfExpr ie -> checkExpr(ie.condition)
+                && checkExpr(ie.thenExpr) && checkExpr(ie.elseExpr);
+            case ListExpr l -> l.elements.stream().allMatch(this::checkExpr);
+            default -> true;
+            };
+        }
+
+        /** Returns true iff attribute ATTR may be replaced, recording
+         *  it.  The class must be known by now, since the first mention
+         *  of the variable assigns it. */
+        boolean checkAttribute(String attr) {
+            VarDef decl = className == null ? null : attribute(className, attr);
+            if (decl == null) {
+                return false;
+            }
+            ValueType type = ValueType.annotationToValueType(decl.var.type);
+            if (!type.equals(Type.INT_TYPE) && !type.equals(Type.BOOL_TYPE)
+                && (decl.value instanceof IntegerLiteral
+                    || decl.value instanceof BooleanLiteral)) {
+                return false;
+            }
+            attributes.put(scalarName(attr), decl);
+            return true;
+        }
+
+        /** Returns the name of the variable replacing attribute ATTR. */
+        String scalarName(String attr) {
+            return name + "." + attr;
+        }
+
+        /** Returns the variable replacing attribute ATTR, located at
+         *  ORIGIN. */
+        Identifier scalar(String attr, Expr origin) {
+            VarDef decl = attributes.get(scalarName(attr));
+            Identifier id = new Identifier(null, null, scalarName(attr));
+            id.setLocation(origin.getLocation());
+            id.setInferredType(ValueType.annotationToValueType(decl.var.type));
+            return id;
+        }
+
+        /** Rewrite STMTS in place, replacing the variable. */
+        void rewriteBlock(List<Stmt> stmts) {
+            List<Stmt> out = new ArrayList<>();
+            for (Stmt stmt : stmts) {
+                rewriteStmt(stmt, out);
+            }
+            stmts.clear();
+            stmts.addAll(out);
+        }
+
+        /** Append the rewritten form of STMT to OUT. */
+        void rewriteStmt(Stmt stmt, List<Stmt> out) {
+            switch (stmt) {
+            case ExprStmt s -> out.add(copyLocation(
+                new ExprStmt(null, null, rewrite(s.expr)), s));
+            case AssignStmt s -> {
+                if (isConstruction(s)) {
+                    for (Map.Entry<String, VarDef> e : attributes.entrySet()) {
+                        String attr = e.getValue().var.identifier.name;
+                        List<Expr> target = new ArrayList<>();
+                        target.add(scalar(attr, s.targets.get(0)));
+                        Literal init = copyLiteral(e.getValue().value);
+                        init.setLocation(s.value.getLocation());
+                        out.add(copyLocation(
+                            new AssignStmt(null, null, target, init), s));
+                    }
+                    return;
+                }
+                List<Expr> targets = new ArrayList<>();
+                for (Expr target : s.targets) {
+                    targets.add(rewrite(target));
+                }
+                out.add(copyLocation(
+                    new AssignStmt(null, null, targets, rewrite(s.value)), s));
+            }
+            case ReturnStmt s -> out.add(s.value == null ? s : copyLocation(
+                new ReturnStmt(null, null, rewrite(s.value)), s));
+            case IfStmt s -> {
+                rewriteBlock(s.thenBody);
+                rewriteBlock(s.elseBody);
+                out.add(copyLocation(new IfStmt(null, null,
+                                                rewrite(s.condition),
+                                                s.thenBody, s.elseBody), s));
+            }
+            case WhileStmt s -> {
+                rewriteBlock(s.body);
+                out.add(copyLocation(new WhileStmt(null, null,
+                                                   rewrite(s.condition),
+                                                   s.body), s));
+            }
+            case ForStmt s -> {
+                rewriteBlock(s.body);
+                out.add(copyLocation(new ForStmt(null, null, s.identifier,
+                                                 rewrite(s.iterable),
+                                                 s.body), s));
+            }
+            default -> out.add(stmt);
+            }
+        }
+
+        /** Returns E with the variable's attributes replaced.  Returns E
+         *  itself if nothing changed. */
+        Expr rewrite(Expr e) {
+            switch (e) {
+            case MemberExpr m -> {
+                if (m.object instanceof Identifier id
+                    && id.name.equals(name)) {
+                    return scalar(m.member.name, m);
+                }
+                Expr object = rewrite(m.object);
+                return object == m.object ? m : copyInfo(
+                    new MemberExpr(null, null, object, m.member), m);
+            }
+            case IndexExpr ie -> {
+                Expr list = rewrite(ie.list), index = rewrite(ie.index);
+                if (list == ie.list && index == ie.index) {
+                    return ie;
+                }
+                return copyInfo(new IndexExpr(null, null, list, index), ie);
+            }
+            case CallExpr c -> {
+                rewriteAll(c.args);
+                return c;
+            }
+            case MethodCallExpr c -> {
+                Expr object = rewrite(c.method.object);
+                rewriteAll(c.args);
+                if (object == c.method.object) {
+                    return c;
+                }
+                MemberExpr method = copyInfo(
+                    new MemberExpr(null, null, object, c.method.member),
+                    c.method);
+                return copyInfo(new MethodCallExpr(null, null, method,
+                                                   c.args), c);
+            }
+            case BinaryExpr b -> {
+                Expr left = rewrite(b.left), right = rewrite(b.right);
+                if (left == b.left && right == b.right) {
+                    return b;
+                }
+                return copyInfo(new BinaryExpr(null, null, left, b.operator,
+                                               right), b);
+            }
+            case UnaryExpr u -> {
+                Expr operand = rewrite(u.operand);
+                return operand == u.operand ? u : copyInfo(
+                    new UnaryExpr(null, null, u.operator, operand), u);
+            }
+            case IfExpr ie -> {
+                Expr cond = rewrite(ie.condition);
+                Expr thenExpr = rewrite(ie.thenExpr);
+                Expr elseExpr = rewrite(ie.elseExpr);
+                if (cond == ie.condition && thenExpr == ie.thenExpr
+                    && elseExpr == ie.elseExpr) {
+                    return ie;
+                }
+                return copyInfo(new IfExpr(null, null, cond, thenExpr,
+                                           elseExpr), ie);
+            }
+            case ListExpr l -> {
+                rewriteAll(l.elements);
+                return l;
+            }
+            default -> {
+                return e;
+            }
+            }
+        }
+
+        /** Rewrite each of EXPRS in place. */
+        void rewriteAll(List<Expr> exprs) {
+            for (int i = 0; i < exprs.size(); i++) {
+                exprs.set(i, rewrite(exprs.get(i)));
+            }
+        }
+    }
+
+    /** Give TO the location and type of FROM, returning TO. */
+    private static <T extends Expr> T copyInfo(T to, Expr from) {
+        to.setLocation(from.getLocation());
+        to.setInferredType(from.getInferredType());
+        return to;
+    }
+
+    /** Give TO the location of FROM, returning TO. */
+    private static <T extends Stmt> T copyLocation(T to, Stmt from) {
+        to.setLocation(from.getLocation());
+        return to;
+    }
+}
@@ -8,23 +8,67 @@ public class StudentCodeGen {
     /**
      * Perform code generation from PROGRAM, assumed to be well-typed,
      * to RISC-V, returning the assembly code.  DEBUG iff --debug was on the
-     * command line.
+     * command line.  Further options are taken from the system property
+     * described in {@link CodeGenOptions}.
      */
     public static String process(Program program, boolean debug) {
+        CodeGenOptions options;
+        try {
+            options = CodeGenOptions.fromSystemProperties(debug);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+        return process(program, options);
+    }
+
+    /**
+     * Perform code generation from PROGRAM, assumed to be well-typed,
+     * to RISC-V under OPTIONS, returning the assembly code.
+     */
+    public static String process(Program program, CodeGenOptions options) {
+        PassManager passes = PassManager.standard(options);
+        try {
+            passes.pipeline();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+
         /* Emit code into a ByteOutputStream, and convert to a string.
          * If you need instructions not provided by RiscVAsmWriter, simply
          * use an extension of it. */
         try {
+            /* AST passes must run before generate(), which snapshots
+             * function bodies during analysis. */
+            passes.runAstPasses(program);
+
             RiscVAsmWriter asmWriter = new RiscVAsmWriter();
-            CodeGenBase cgen = new CodeGenImpl(asmWriter);
+            CodeGenBase cgen = new CodeGenImpl(asmWriter, options);
+            EscapeAnalysis escape = passes.ranPass(EscapeAnalysis.class);
+            if (escape != null) {
+                cgen.setStackAllocated(escape.getStackAllocated());
+            }
+            InlineAllocation inline = passes.ranPass(InlineAllocation.class);
+            if (inline != null) {
+                cgen.setInlineAllocations(inline.getBatches());
+            }
             cgen.generate(program);
+            String asm = asmWriter.toString();
+
+            if (passes.hasAsmPasses() || options.debug) {
+                AsmProgram code = AsmProgram.parse(asm);
+                passes.runAsmPasses(code);
+                asm = code.toString();
+            }
+            passes.reportTimings();
 
-            return asmWriter.toString();
+            return asm;
         } catch (IllegalStateException | IllegalArgumentException |
                 UnsupportedOperationException e) {
             System.err.println("Error performing code generation. "
                                + "Re-run with --debug to see stack trace.");
-            if (debug) {
+            if (options.debug) {
                 e.printStackTrace();
             }
             return null;
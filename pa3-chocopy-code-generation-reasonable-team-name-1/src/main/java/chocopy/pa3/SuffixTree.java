@@ -0,0 +1,171 @@
+package chocopy.pa3;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A suffix tree over a string of integers, built with Ukkonen's
+ * algorithm in linear time.  Used by the machine outliner to find
+ * repeated instruction sequences.
+ *
+ * The last element of the string must not occur anywhere else, so
+ * that every suffix ends at a leaf.
+ */
+class SuffixTree {
+
+    /** A repeated substring: its LENGTH and the positions it STARTS at. */
+    record Repeat(int length, List<Integer> starts) {}
+
+    /** A node of the tree. */
+    private static class Node {
+        /** Index of the first element on the edge into this node. */
+        int start;
+        /** Index of the last element on that edge.  Shared by all leaves,
+         *  which grow together while the tree is built. */
+        int[] end;
+        /** Suffix link, for internal nodes. */
+        Node link;
+        /** Children, by the first element of their edge. */
+        final Map<Integer, Node> children = new HashMap<>();
+        /** For leaves, the start of the suffix they spell; else -1. */
+        int suffix = -1;
+
+        /** A node whose edge spans START..END[0]. */
+        Node(int start, int[] end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /** Returns the length of the edge into this node. */
+        int edgeLength() {
+            return end[0] - start + 1;
+        }
+    }
+
+    /** The string. */
+    private final int[] str;
+
+    /** The root node. */
+    private final Node root = new Node(-1, new int[] { -1 });
+
+    /** The suffix tree of STR. */
+    SuffixTree(int[] str) {
+        this.str = str;
+        root.link = root;
+        build();
+    }
+
+    /** Run Ukkonen's algorithm over the whole string. */
+    private void build() {
+        int[] leafEnd = { -1 };
+        Node activeNode = root;
+        int activeEdge = -1;
+        int activeLength = 0;
+        int remaining = 0;
+
+        for (int pos = 0; pos < str.length; pos += 1) {
+            leafEnd[0] = pos;
+            remaining += 1;
+            Node lastNew = null;
+
+            while (remaining > 0) {
+                if (activeLength == 0) {
+                    activeEdge = pos;
+                }
+                Node next = activeNode.children.get(str[activeEdge]);
+                if (next == null) {
+                    Node leaf = new Node(pos, leafEnd);
+                    leaf.suffix = pos - remaining + 1;
+                    activeNode.children.put(str[activeEdge], leaf);
+                    if (lastNew != null) {
+                        lastNew.link = activeNode;
+                        lastNew = null;
+                    }
+                } else {
+                    int edgeLength = next.edgeLength();
+                    if (activeLength >= edgeLength) {
+                        activeEdge += edgeLength;
+                        activeLength -= edgeLength;
+                        activeNode = next;
+                        continue;
+                    }
+                    if (str[next.start + activeLength] == str[pos]) {
+                        if (lastNew != null && activeNode != root) {
+                            lastNew.link = activeNode;
+                        }
+                        activeLength += 1;
+                        break;
+                    }
+                    Node split = new Node(next.start, new int[] {
+                            next.start + activeLength - 1 });
+                    split.link = root;
+                    activeNode.children.put(str[activeEdge], split);
+                    Node leaf = new Node(pos, leafEnd);
+                    leaf.suffix = pos - remaining + 1;
+                    split.children.put(str[pos], leaf);
+                    next.start += activeLength;
+                    split.children.put(str[next.start], next);
+                    if (lastNew != null) {
+                        lastNew.link = split;
+                    }
+                    lastNew = split;
+                }
+
+                remaining -= 1;
+                if (activeNode == root && activeLength > 0) {
+                    activeLength -= 1;
+                    activeEdge = pos - remaining + 1;
+                } else if (activeNode != root) {
+                    activeNode = activeNode.link;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns every substring of length at least MINLENGTH that occurs
+     * more than once, as the internal node spelling it: its length and
+     * all positions at which it starts.
+     */
+    List<Repeat> repeats(int minLength) {
+        List<Repeat> result = new ArrayList<>();
+        Map<Node, Integer> depth = new HashMap<>();
+        Map<Node, List<Integer>> leaves = new HashMap<>();
+
+        /* Iterative post-order walk, since the tree can be deep. */
+        Deque<Node> stack = new ArrayDeque<>();
+        List<Node> order = new ArrayList<>();
+        depth.put(root, 0);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            order.add(node);
+            for (Node child : node.children.values()) {
+                depth.put(child, depth.get(node) + child.edgeLength());
+                stack.push(child);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i -= 1) {
+            Node node = order.get(i);
+            List<Integer> below = new ArrayList<>();
+            if (node.suffix >= 0) {
+                below.add(node.suffix);
+            }
+            for (Node child : node.children.values()) {
+                below.addAll(leaves.remove(child));
+            }
+            leaves.put(node, below);
+            if (node != root && node.suffix < 0
+                && depth.get(node) >= minLength && below.size() > 1) {
+                List<Integer> starts = new ArrayList<>(below);
+                starts.sort(null);
+                result.add(new Repeat(depth.get(node), starts));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package chocopy.pa3;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import chocopy.common.astnodes.*;
+
+/**
+ * Static estimate of how often each variable name is used.
+ *
+ * Every read or write of a name counts once, multiplied by
+ * LOOP_WEIGHT for each loop around it, so names used in inner loops
+ * rank first.  Names are not resolved, so a local that shadows a
+ * global counts towards the global; this is only a heuristic for
+ * choosing which values to keep in the cheapest registers.
+ */
+class VarUseWeights {
+
+    /** Assumed trip count of a loop. */
+    private static final int LOOP_WEIGHT = 10;
+
+    /** Weight of each name seen so far. */
+    private final Map<String, Long> weights = new HashMap<>();
+
+    /** Returns the use weights of the names in PROGRAM. */
+    static Map<String, Long> of(Program program) {
+        VarUseWeights counter = new VarUseWeights();
+        for (Declaration decl : program.declarations) {
+            counter.countDecl(decl);
+        }
+        counter.countStmts(program.statements, 1);
+        return counter.weights;
+    }
+
+    /** Count the uses in function bodies in DECL. */
+    private void countDecl(Declaration decl) {
+        if (decl instanceof FuncDef funcDef) {
+            for (Declaration nested : funcDef.declarations) {
+                countDecl(nested);
+            }
+            countStmts(funcDef.statements, 1);
+        } else if (decl instanceof ClassDef classDef) {
+            for (Declaration member : classDef.declarations) {
+                countDecl(member);
+            }
+        }
+    }
+
+    /** Count the uses in STMTS, each weighted by WEIGHT. */
+    private void countStmts(List<Stmt> stmts, long weight) {
+        for (Stmt stmt : stmts) {
+            switch (stmt) {
+            case ExprStmt s -> countExpr(s.expr, weight);
+            case AssignStmt s -> {
+                s.targets.forEach(target -> countExpr(target, weight));
+                countExpr(s.value, weight);
+            }
+            case ReturnStmt s -> {
+                if (s.value != null) {
+                    countExpr(s.value, weight);
+                }
+            }
+            case IfStmt s -> {
+                countExpr(s.condition, weight);
+                countStmts(s.thenBody, weight);
+                countStmts(s.elseBody, weight);
+            }
+            case WhileStmt s -> {
+                countExpr(s.condition, weight * LOOP_WEIGHT);
+                countStmts(s.body, weight * LOOP_WEIGHT);
+            }
+            case ForStmt s -> {
+                countExpr(s.iterable, weight);
+                countExpr(s.identifier, weight * LOOP_WEIGHT);
+                countStmts(s.body, weight * LOOP_WEIGHT);
+            }
+            default -> { }
+            }
+        }
+    }
+
+    /** Count the uses in E, each weighted by WEIGHT. */
+    private void countExpr(Expr e, long weight) {
+        switch (e) {
+        case Identifier id -> weights.merge(id.name, weight, Long::sum);
+        case UnaryExpr u -> countExpr(u.operand, weight);
+        case BinaryExpr b -> {
+            countExpr(b.left, weight);
+            countExpr(b.right, weight);
+        }
+        case IfExpr ie -> {
+            countExpr(ie.condition, weight);
+            countExpr(ie.thenExpr, weight);
+            countExpr(ie.elseExpr, weight);
+        }
+        case CallExpr c -> c.args.forEach(arg -> countExpr(arg, weight));
+        case MethodCallExpr c -> {
+            countExpr(c.method.object, weight);
+            c.args.forEach(arg -> countExpr(arg, weight));
+        }
+        case MemberExpr m -> countExpr(m.object, weight);
+        case IndexExpr ie -> {
+            countExpr(ie.list, weight);
+            countExpr(ie.index, weight);
+        }
+        case ListExpr l -> l.elements.forEach(elt -> countExpr(elt, weight));
+        default -> { }
+        }
+    }
+}
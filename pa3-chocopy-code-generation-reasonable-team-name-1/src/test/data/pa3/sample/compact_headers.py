@@ -0,0 +1,69 @@
+# Dispatch, attributes, boxing and lists of every kind of element, with
+# enough garbage to collect
+class Shape(object):
+    name:str = "shape"
+    def area(self:"Shape") -> int:
+        return 0
+    def describe(self:"Shape") -> str:
+        return self.name
+
+class Square(Shape):
+    side:int = 0
+    def __init__(self:"Square"):
+        self.name = "square"
+    def area(self:"Square") -> int:
+        return self.side * self.side
+
+class Rect(Square):
+    other:int = 0
+    def __init__(self:"Rect"):
+        self.name = "rect"
+    def area(self:"Rect") -> int:
+        return self.side * self.other
+
+def make(k:int) -> Shape:
+    sq:Square = None
+    r:Rect = None
+    if k % 3 == 0:
+        return Shape()
+    if k % 3 == 1:
+        sq = Square()
+        sq.side = k
+        return sq
+    r = Rect()
+    r.side = k
+    r.other = 2
+    return r
+
+def box(x:object) -> object:
+    return x
+
+shapes:[Shape] = None
+objs:[object] = None
+flags:[bool] = None
+s:Shape = None
+o:object = None
+i:int = 0
+sum:int = 0
+
+shapes = []
+while i < 200:
+    shapes = shapes + [make(i)]
+    i = i + 1
+for s in shapes:
+    sum = sum + s.area()
+print(sum)
+print(shapes[0].describe())
+print(shapes[1].describe())
+print(shapes[2].describe())
+objs = [box(1), "two", box(True), None, box(100000), shapes[4]]
+for o in objs:
+    if o is None:
+        print("None")
+    elif o is shapes[4]:
+        print(shapes[4].area())
+    else:
+        print(o)
+flags = [True, False, True]
+print(flags[2])
+print(len(shapes))
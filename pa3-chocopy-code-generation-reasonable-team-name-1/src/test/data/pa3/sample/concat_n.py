@@ -0,0 +1,41 @@
+def word(n:int) -> str:
+    if n % 3 == 0:
+        return ""
+    return "w" + "xyz"[n % 3]
+
+def row(n:int) -> [int]:
+    return [n, n * n]
+
+report:str = ""
+xs:[int] = None
+bs:[bool] = None
+os:[object] = None
+i:int = 0
+
+while i < 12:
+    report = report + "[" + word(i) + ":" + word(i + 1) + "]"
+    i = i + 1
+print(report)
+print(len(report))
+print("" + "" + "")
+print(len("a" + "" + "bcd" + "" + "e"))
+
+xs = [0] + row(2) + [] + row(3) + [9]
+print(len(xs))
+print(xs[1] + xs[2] + xs[3] + xs[4] + xs[5])
+
+bs = [True] + [False, False] + [] + [True]
+print(len(bs))
+print(bs[3])
+
+os = [bs] + [xs] + [report] + ["end"]
+print(len(os))
+
+os = [True] + ["s"] + [bs] + []
+print(len(os))
+
+i = 0
+while i < 200:
+    xs = row(i) + row(i + 1) + row(i + 2)
+    i = i + 1
+print(xs[5])
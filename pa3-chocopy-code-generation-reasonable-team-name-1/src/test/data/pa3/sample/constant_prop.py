@@ -0,0 +1,29 @@
+DEBUG:bool = False
+N:int = 10
+
+def scale(x:int) -> int:
+    k:int = 3
+    unused:int = 0
+    unused = k * 7
+    if k > 2:
+        k = k + 1
+    else:
+        k = k - 1
+    return x * k
+    print("unreachable")
+
+def count(n:int) -> int:
+    i:int = 0
+    total:int = 0
+    step:int = 2
+    while i < n:
+        total = total + step
+        i = i + 1
+    return total
+
+if DEBUG:
+    print("debug")
+print(scale(N))
+print(count(N))
+print(N // 3 if not DEBUG else N % 3)
+print(1 + 2 * 3 == 7 and N > 5)
@@ -0,0 +1,77 @@
+class Point(object):
+    x:int = 0
+    y:int = 0
+    name:str = "p"
+
+class Pair(object):
+    first:object = None
+    second:object = None
+    def __init__(self:"Pair"):
+        self.first = "a"
+        self.second = "b"
+
+class Leaky(object):
+    me:object = None
+    def __init__(self:"Leaky"):
+        self.me = self
+
+def dist2(ax:int, ay:int, bx:int, by:int) -> int:
+    a:Point = None
+    b:Point = None
+    d:Point = None
+    a = Point()
+    b = Point()
+    a.x = ax
+    a.y = ay
+    b.x = bx
+    b.y = by
+    d = Point()
+    d.x = a.x - b.x
+    d.y = a.y - b.y
+    d.name = a.name + b.name
+    return d.x * d.x + d.y * d.y
+
+def pairs(n:int) -> str:
+    p:Pair = None
+    xs:[str] = None
+    s:str = ""
+    t:str = ""
+    i:int = 0
+    while i < n:
+        p = Pair()
+        xs = [p.first, p.second, "c"]
+        for t in xs:
+            s = s + t
+        i = i + 1
+    return s
+
+def total(n:int) -> int:
+    t:int = 0
+    k:int = 0
+    l:Leaky = None
+    for k in [n, n + 1, n + 2]:
+        t = t + k
+    l = Leaky()
+    if l.me is l:
+        t = t + 1
+    return t
+
+def reiterate() -> int:
+    v:[int] = None
+    x:int = 0
+    i:int = 0
+    v = [10, 20, 30]
+    while i < 2:
+        for x in v:
+            print(x)
+            v = [x + 100, x + 200, x + 300]
+        i = i + 1
+    return len(v)
+
+s:str = ""
+print(dist2(1, 2, 4, 6))
+print(pairs(30))
+print(total(10))
+for s in ["x", "y"]:
+    print(s)
+print(reiterate())
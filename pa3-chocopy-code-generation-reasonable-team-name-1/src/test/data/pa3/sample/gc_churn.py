@@ -0,0 +1,42 @@
+class Node(object):
+    value:int = 0
+    next:"Node" = None
+
+def cons(v:int, rest:Node) -> Node:
+    n:Node = None
+    n = Node()
+    n.value = v
+    n.next = rest
+    return n
+
+def total(n:Node) -> int:
+    s:int = 0
+    while not (n is None):
+        s = s + n.value
+        n = n.next
+    return s
+
+def churn(k:int) -> str:
+    s:str = ""
+    i:int = 0
+    junk:[int] = None
+    while i < k:
+        junk = [i, i + 1, i + 2]
+        s = s + "ab"
+        i = i + 1
+    return s
+
+keep:Node = None
+words:[str] = None
+i:int = 0
+objs:[object] = None
+while i < 300:
+    keep = cons(i, keep)
+    words = ["x", "y", "z"]
+    objs = [words, "s", keep]
+    churn(20)
+    i = i + 1
+print(total(keep))
+print(len(churn(50)))
+print(words[2])
+print(len(objs))
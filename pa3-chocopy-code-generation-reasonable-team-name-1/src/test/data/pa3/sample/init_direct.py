@@ -0,0 +1,49 @@
+class Point(object):
+    x:int = 0
+    y:int = 0
+    visible:bool = False
+    label:str = ""
+    tag:object = None
+    def __init__(self:"Point"):
+        self.x = 3
+        self.y = -4
+        self.visible = True
+        self.label = "origin"
+        self.tag = None
+
+class Boxed(object):
+    value:object = None
+    def __init__(self:"Boxed"):
+        self.value = 7
+
+class Loud(Point):
+    def __init__(self:"Loud"):
+        print("Loud.__init__")
+        self.x = 1
+
+class Quiet(Point):
+    pass
+
+class Plain(object):
+    n:int = 5
+
+p:Point = None
+b:Boxed = None
+l:Loud = None
+q:Quiet = None
+o:Plain = None
+p = Point()
+print(p.x + p.y)
+print(p.visible)
+print(p.label)
+print(p.tag is None)
+b = Boxed()
+print(b.value is None)
+l = Loud()
+print(l.x)
+print(l.label)
+q = Quiet()
+print(q.y)
+print(q.label)
+o = Plain()
+print(o.n)
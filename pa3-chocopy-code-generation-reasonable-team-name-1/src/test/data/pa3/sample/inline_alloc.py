@@ -0,0 +1,45 @@
+class Pair(object):
+    first:object = None
+    second:object = None
+
+class Leaf(object):
+    value:int = 0
+
+class Counted(object):
+    n:int = 0
+    def __init__(self:"Counted"):
+        self.n = 42
+
+def build(n:int) -> Pair:
+    p:Pair = None
+    a:Leaf = None
+    b:Leaf = None
+    i:int = 0
+    while i < n:
+        a = Leaf()
+        b = Leaf()
+        p = Pair()
+        p.first = a
+        p.second = b
+        a.value = i
+        b.value = i * 2
+        i = i + 1
+    return p
+
+p:Pair = None
+q:Pair = None
+c:Counted = None
+x:object = None
+k:int = 0
+while k < 300:
+    q = Pair()
+    q.first = Leaf()
+    x = object()
+    q.second = q
+    p = build(20)
+    k = k + 1
+c = Counted()
+print(c.n)
+print(p.first is p.second)
+print(q.second is q)
+print(x is None)
@@ -0,0 +1,36 @@
+mode:str = "on"
+other:str = "o"
+built:str = "x"
+c:str = ""
+n:int = 0
+
+def toggle() -> str:
+    global mode
+    if mode == "on":
+        mode = "off"
+    else:
+        mode = "on"
+    return mode
+
+def shadow(mode:str) -> bool:
+    return mode == "on"
+
+def rebuild() -> object:
+    global built
+    built = built + "y"
+
+print(mode == "on")
+print(toggle() == "off")
+print(mode != "on")
+print(shadow("o" + "n"))
+for c in "hello":
+    if c == "l":
+        n = n + 1
+print(n)
+other = "hello"[4]
+print(other == "o")
+print(other == "on"[0])
+rebuild()
+print(built == "xy")
+print(built != "x" + "y")
+print(("ab"[1] if n > 0 else "c") == "b")
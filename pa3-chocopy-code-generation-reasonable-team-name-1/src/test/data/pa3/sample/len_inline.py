@@ -0,0 +1,34 @@
+def count(xs: [int]) -> int:
+    n: int = 0
+    i: int = 0
+    while i < len(xs):
+        n = n + xs[i]
+        i = i + 1
+    return n
+
+def first_word(s: str) -> str:
+    i: int = 0
+    while i < len(s) and s[i] != " ":
+        i = i + 1
+    return s[0] if i > 0 else ""
+
+s: str = "hello world"
+xs: [int] = None
+o: object = None
+flags: [bool] = None
+
+print(len(s))
+print(len(""))
+xs = [1, 2, 3, 4]
+print(len(xs))
+print(count(xs))
+print(len([]))
+flags = [True, False, True]
+print(len(flags))
+o = "abc"
+print(len(o))
+print(len(xs + [5, 6]))
+print(len(s + "!"))
+print(first_word("hi there"))
+xs = None
+print(len(xs))
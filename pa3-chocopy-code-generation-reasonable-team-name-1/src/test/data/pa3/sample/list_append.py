@@ -0,0 +1,110 @@
+def squares(n: int) -> [int]:
+    xs: [int] = None
+    i: int = 0
+    xs = []
+    while i < n:
+        xs.append(i * i)
+        i = i + 1
+    return xs
+
+def fresh() -> [int]:
+    return [1, 2]
+
+def total(xs: [int]) -> int:
+    s: int = 0
+    x: int = 0
+    for x in xs:
+        s = s + x
+    return s
+
+def aliases():
+    xs: [int] = None
+    ys: [int] = None
+    xs = squares(100)
+    ys = xs
+    xs.append(-1)
+    print(len(ys))
+    print(ys[100])
+    ys[0] = 7
+    print(xs[0])
+    xs = fresh()
+    xs.append(3)
+    ys = fresh()
+    print(len(ys))
+    print(len(xs))
+
+def bools():
+    bs: [bool] = None
+    b: bool = False
+    i: int = 0
+    bs = []
+    while i < 11:
+        bs.append(i % 3 == 0)
+        i = i + 1
+    print(len(bs))
+    for b in bs:
+        print(b)
+    bs = bs + [False, True]
+    print(len(bs))
+    print(bs[12])
+
+def objects():
+    os: [object] = None
+    o: object = None
+    os = [None]
+    os.append(1)
+    os.append(True)
+    os.append("four")
+    print(len(os))
+    o = os
+    print(len(o))
+    o = fresh()
+    print(len(o))
+
+def strs():
+    ss: [str] = None
+    i: int = 0
+    ss = ["a"]
+    while i < 5:
+        ss.append(ss[i] + "b")
+        i = i + 1
+    print(ss[5])
+
+def nesting():
+    nested: [[int]] = None
+    i: int = 0
+    nested = []
+    while i < 3:
+        nested.append([i])
+        nested[i].append(i + 10)
+        i = i + 1
+    print(nested[2][1])
+    print(len(nested + nested))
+
+def during_loop():
+    xs: [int] = None
+    x: int = 0
+    xs = [5]
+    for x in xs:
+        if x > 0:
+            xs.append(x - 1)
+    print(len(xs))
+    print(total(xs + [100] + xs))
+
+xs: [int] = None
+
+xs = squares(100)
+print(len(xs))
+print(xs[99])
+print(total(xs))
+aliases()
+bools()
+objects()
+strs()
+nesting()
+during_loop()
+xs = squares(1000)
+print(total(xs))
+print(xs.append(1) is None)
+xs = None
+xs.append(1)
@@ -0,0 +1,35 @@
+# Concatenating lists of ints with lists of other element types boxes
+# the ints, so they can be printed through the resulting [object].
+xs:[int] = None
+ys:[object] = None
+zs:[object] = None
+x:object = None
+i:int = 0
+
+xs = [1, 100000, -7]
+ys = xs + ["a", None]
+for x in ys:
+    if x is None:
+        print("None")
+    else:
+        print(x)
+zs = [True] + xs
+for x in zs:
+    print(x)
+zs = xs + [False] + ["b"]
+print(len(zs))
+print(zs[1])
+print(zs[4])
+
+# Enough boxes to collect garbage on a small heap while concatenating.
+xs = []
+while i < 300:
+    xs = xs + [i * 1000]
+    i = i + 1
+i = 0
+while i < 20:
+    zs = xs + zs
+    i = i + 1
+print(len(zs))
+print(zs[299])
+print(zs[len(zs) - 1])
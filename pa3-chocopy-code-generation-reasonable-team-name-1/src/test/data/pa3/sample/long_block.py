@@ -0,0 +1,51 @@
+xs: [int] = None
+r0: int = 0
+r1: int = 1
+r2: int = 2
+r3: int = 3
+r4: int = 4
+r5: int = 5
+r6: int = 6
+r7: int = 7
+r8: int = 8
+r9: int = 9
+gA: int = 0
+gB: int = 0
+i: int = 0
+
+def one() -> int:
+    return 1
+
+# The loads and stores of globals below are two instructions each,
+# so the checks of xs[0] can reach no stub placed past them.
+xs = [5]
+gB = one()
+gA = xs[0]
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+gA = gB + gB + gB + gB + gB + gB + gB + gB + 1
+while i < 3:
+    i = i + 1
+print(gA)
+print(i + r9)
@@ -0,0 +1,37 @@
+s:str = "a"
+t:str = ""
+xs:[int] = None
+bs:[bool] = None
+ws:[str] = None
+i:int = 0
+
+while i < 7:
+    s = s + "bc" + s
+    i = i + 1
+print(len(s))
+print(s[0] + s[1] + s[len(s) - 1] + s[len(s) - 2])
+t = "xyz" + s + "q"
+print(len(t))
+print(t[3] == "a")
+print(t[len(t) - 1])
+
+xs = [1, 2, 3]
+i = 0
+while i < 5:
+    xs = xs + [i] + xs
+    i = i + 1
+print(len(xs))
+print(xs[0] + xs[len(xs) - 1] + xs[3])
+
+bs = [True, False, True]
+i = 0
+while i < 4:
+    bs = bs + [False] + bs
+    i = i + 1
+print(len(bs))
+print(bs[len(bs) - 1])
+print(bs[3])
+
+ws = ["p", "q"] + ["r"] + []
+print(ws[2])
+print(len(ws))
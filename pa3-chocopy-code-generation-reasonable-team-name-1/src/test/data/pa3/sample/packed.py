@@ -0,0 +1,60 @@
+def count(flags:[bool]) -> int:
+    n:int = 0
+    f:bool = False
+    for f in flags:
+        if f:
+            n = n + 1
+    return n
+
+def local() -> int:
+    xs:[bool] = None
+    xs = [True, False, True, True, False]
+    xs[1] = True
+    return count(xs) + len(xs)
+
+def sieve(n:int) -> [bool]:
+    p:[bool] = None
+    i:int = 2
+    j:int = 0
+    p = []
+    while len(p) < n:
+        p = p + [True]
+    p[0] = False
+    p[1] = False
+    while i < n:
+        if p[i]:
+            j = i * i
+            while j < n:
+                p[j] = False
+                j = j + i
+        i = i + 1
+    return p
+
+a:[bool] = None
+b:[bool] = None
+c:[object] = None
+o:object = None
+k:int = 0
+a = [True, False, True]
+b = a + [False, False, True, True, False, True]
+print(len(b))
+print(count(b))
+print(b[8])
+print(b[4])
+b[4] = True
+print(b[4])
+print(b[3])
+b = b + []
+print(len(b))
+o = "x"
+c = a + [o]
+for o in c:
+    print(o)
+print(local())
+a = sieve(60)
+k = 0
+while k < 60:
+    if a[k]:
+        print(k)
+    k = k + 1
+print(count(a))
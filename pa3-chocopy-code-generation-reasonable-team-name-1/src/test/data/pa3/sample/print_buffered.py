@@ -0,0 +1,23 @@
+# Output buffered across lines longer and shorter than the buffer,
+# then written out before an error
+s:str = "0123456789"
+t:str = ""
+i:int = 0
+a:[int] = None
+
+while i < 7:
+    s = s + s
+    i = i + 1
+print(s)
+print(len(s))
+i = 0
+while i < 300:
+    print(i * 7919 - 1000000)
+    i = i + 1
+while len(t) < 600:
+    t = t + "x"
+    print("")
+print(t)
+a = [1, 2, 3]
+print(a[3])
+print("not reached")
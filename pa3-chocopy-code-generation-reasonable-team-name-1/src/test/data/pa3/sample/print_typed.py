@@ -0,0 +1,33 @@
+# print of ints, bools and strs by static type, and of objects
+x:int = -2147483647
+b:bool = False
+s:str = "str"
+o:object = None
+i:int = 0
+
+def show(v:object) -> object:
+    print(v)
+    return v
+
+print(x)
+print(x - 1)
+print(0)
+print(b)
+print(not b)
+print(b or x < 0)
+print(b and x < 0)
+print(s)
+print(s + "!")
+print("")
+o = show(42)
+o = show(True)
+o = "boxed"
+print(o)
+o = show(7)
+o = show(False)
+o = show(s[1])
+while i < 5:
+    print(i * i)
+    print(i % 2 == 0)
+    i = i + 1
+print(print(i) is None)
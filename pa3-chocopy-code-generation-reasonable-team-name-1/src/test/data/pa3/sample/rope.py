@@ -0,0 +1,51 @@
+# Appends that build ropes once long enough, read back in every way
+s:str = ""
+t:str = "x"
+i:int = 0
+
+def build(n:int, sep:str) -> str:
+    r:str = ""
+    j:int = 0
+    while j < n:
+        r = r + str_of(j) + sep
+        j = j + 1
+    return r
+
+def str_of(n:int) -> str:
+    d:str = ""
+    if n == 0:
+        return "0"
+    while n > 0:
+        d = "0123456789"[n % 10] + d
+        n = n // 10
+    return d
+
+def count(s:str, c:str) -> int:
+    k:int = 0
+    x:str = ""
+    for x in s:
+        if x == c:
+            k = k + 1
+    return k
+
+while i < 300:
+    s = s + "ab"
+    if i % 50 == 0:
+        print(len(s))
+    i = i + 1
+print(s[0] + s[599])
+print(count(s, "b"))
+t = build(40, ",")
+print(t)
+print(len(t))
+s = s + s
+print(len(s))
+print(s == s + "")
+t = "short"
+t = t + "er"
+print(t)
+i = 0
+while i < 100:
+    t = t + t[i]
+    i = i + 1
+print(t)
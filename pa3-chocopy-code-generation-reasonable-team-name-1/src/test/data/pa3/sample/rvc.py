@@ -0,0 +1,41 @@
+# Calls, loops, branches and memory accesses, with room for compressed
+# forms of many of their instructions
+class Counter(object):
+    n:int = 0
+    def bump(self:"Counter", by:int) -> int:
+        self.n = self.n + by
+        return self.n
+
+def fib(k:int) -> int:
+    if k < 2:
+        return k
+    return fib(k - 1) + fib(k - 2)
+
+def total(xs:[int]) -> int:
+    t:int = 0
+    x:int = 0
+    for x in xs:
+        t = t + x
+    return t
+
+c:Counter = None
+xs:[int] = None
+s:str = "compressed"
+i:int = 0
+j:int = 0
+
+c = Counter()
+while i < 10:
+    c.bump(i)
+    i = i + 1
+print(c.n)
+print(fib(15))
+xs = [3, 1, 4, 1, 5, 9, 2, 6]
+print(total(xs))
+i = 0
+while i < len(s):
+    if s[i] == "s":
+        j = j + 1
+    i = i + 1
+print(j)
+print(s[0] + s[len(s) - 1])
@@ -0,0 +1,64 @@
+class Point(object):
+    x:int = 0
+    y:int = 0
+    name:str = "p"
+
+class Point3(Point):
+    z:int = 7
+    seen:bool = False
+
+class Node(object):
+    val:int = 0
+    next:"Node" = None
+
+def dist(a:int, b:int) -> int:
+    p:Point = None
+    p = Point()
+    p.x = a
+    p.y = b
+    return p.x * p.x + p.y * p.y
+
+def walk(n:int) -> int:
+    q:Point3 = None
+    i:int = 0
+    total:int = 0
+    q = Point3()
+    while i < n:
+        q.x = q.x + i
+        q.z = q.z + q.x
+        if q.z > 50:
+            q.seen = True
+            q = Point3()
+        i = i + 1
+    total = q.x + q.z
+    if q.seen:
+        total = total + 1000
+    return total
+
+def label(s:str) -> str:
+    p:Point = None
+    p = Point()
+    p.name = p.name + s
+    return p.name
+
+def chain() -> int:
+    n:Node = None
+    m:Node = None
+    n = Node()
+    m = Node()
+    n.val = 3
+    n.next = m
+    m.val = 4
+    return n.val + n.next.val
+
+def escapes() -> Point:
+    p:Point = None
+    p = Point()
+    p.x = 9
+    return p
+
+print(dist(3, 4))
+print(walk(10))
+print(label("oint"))
+print(chain())
+print(escapes().x)
@@ -0,0 +1,38 @@
+words:[str] = None
+built:[str] = None
+w:str = ""
+s:str = ""
+i:int = 0
+j:int = 0
+same:int = 0
+differ:int = 0
+
+words = ["", "a", "ab", "abc", "abcd", "abcde", "abcdefgh", "abcdefghi", "abcdefgX", "abcdXfgh", "Xbcd"]
+built = []
+for w in words:
+    s = ""
+    i = 0
+    while i < len(w):
+        s = s + w[i]
+        i = i + 1
+    built = built + [s]
+
+i = 0
+while i < len(words):
+    j = 0
+    while j < len(built):
+        if words[i] == built[j]:
+            same = same + 1
+            if i != j:
+                print("wrong match")
+        if words[i] != built[j]:
+            differ = differ + 1
+        j = j + 1
+    i = i + 1
+print(same)
+print(differ)
+print(words[3] == words[3])
+print("abc" + "d" == "abcd")
+print("abcd" + "e" != "abcde")
+print("" == "")
+print("x" != "")